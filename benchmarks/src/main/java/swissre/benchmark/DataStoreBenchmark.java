@@ -0,0 +1,79 @@
+package swissre.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import swissre.model.CurrencyCode;
+import swissre.model.ExchangeRateChange;
+import swissre.persistence.DataStore;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Recording and querying each {@link DataStore} under the same workloads.
+ *
+ * The record benchmarks load the whole workload into an empty store, so their scores are per workload rather than
+ * per change. The query benchmarks run against a store already holding the workload.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DataStoreBenchmark {
+
+    @Param({"SIMPLE", "COLUMNAR", "CONCURRENT"})
+    public DataStores store;
+
+    @Param({"1", "20"})
+    public int currencies;
+
+    @Param({"1000", "20000"})
+    public int ticksPerCurrency;
+
+    @Param({"false", "true"})
+    public boolean shuffled;
+
+    @Param({"0.0", "0.01"})
+    public double spikeDensity;
+
+    private List<ExchangeRateChange> changes;
+    private DataStore populated;
+    private CurrencyCode firstCurrency;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        changes = new Workload(currencies, ticksPerCurrency, shuffled, spikeDensity).getChanges();
+        populated = store.create();
+        changes.forEach(populated::record);
+        firstCurrency = Workload.currencyCode(0);
+    }
+
+    @Benchmark
+    public DataStore record() {
+        DataStore dataStore = store.create();
+        for (ExchangeRateChange change : changes) {
+            dataStore.record(change);
+        }
+        return dataStore;
+    }
+
+    @Benchmark
+    public DataStore recordAll() {
+        DataStore dataStore = store.create();
+        dataStore.recordAll(changes);
+        return dataStore;
+    }
+
+    @Benchmark
+    public int getFlaggedChanges() {
+        return populated.getFlaggedChanges().size();
+    }
+
+    @Benchmark
+    public void getAverages(Blackhole blackhole) {
+        blackhole.consume(populated.getAveragesByMonth(firstCurrency));
+        blackhole.consume(populated.getAveragesByYear(firstCurrency));
+    }
+}
@@ -0,0 +1,29 @@
+package swissre.benchmark;
+
+import swissre.persistence.ColumnarDataStore;
+import swissre.persistence.ConcurrentDataStore;
+import swissre.persistence.DataStore;
+import swissre.persistence.SimpleDataStore;
+
+import java.util.function.Supplier;
+
+/**
+ * The {@link DataStore} implementations benchmarked, named so they can be used as a JMH parameter.
+ */
+public enum DataStores {
+
+    SIMPLE(SimpleDataStore::new),
+    COLUMNAR(ColumnarDataStore::new),
+    CONCURRENT(ConcurrentDataStore::new),
+    ;
+
+    private final Supplier<DataStore> factory;
+
+    DataStores(Supplier<DataStore> factory) {
+        this.factory = factory;
+    }
+
+    public DataStore create() {
+        return factory.get();
+    }
+}
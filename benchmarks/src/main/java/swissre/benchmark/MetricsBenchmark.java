@@ -0,0 +1,85 @@
+package swissre.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import swissre.metrics.IngestMetrics;
+import swissre.metrics.MetricsDataStore;
+import swissre.model.ExchangeRateChange;
+import swissre.parser.MetricsParser;
+import swissre.parser.Parser;
+import swissre.parser.StringParser;
+import swissre.persistence.DataStore;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The overhead of measuring ingest with {@link MetricsDataStore} and {@link MetricsParser}, each benchmark being run
+ * with and without the metrics over the same workload.
+ *
+ * The record scores are per workload and the parse scores are files per second, as in {@link DataStoreBenchmark} and
+ * {@link ParserBenchmark}. Run with the gc profiler to see the metrics add no allocation.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MetricsBenchmark {
+
+    @Param({"COLUMNAR", "CONCURRENT"})
+    public DataStores store;
+
+    @Param({"false", "true"})
+    public boolean measured;
+
+    @Param({"20"})
+    public int currencies;
+
+    @Param({"20000"})
+    public int ticksPerCurrency;
+
+    private List<ExchangeRateChange> changes;
+    private String contents;
+    private IngestMetrics metrics;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Workload workload = new Workload(currencies, ticksPerCurrency, false, 0.01);
+        changes = workload.getChanges();
+        contents = workload.toFile();
+        metrics = new IngestMetrics();
+    }
+
+    private DataStore createDataStore() {
+        DataStore dataStore = store.create();
+        return measured ? new MetricsDataStore(dataStore, metrics) : dataStore;
+    }
+
+    @Benchmark
+    public DataStore record() {
+        DataStore dataStore = createDataStore();
+        for (ExchangeRateChange change : changes) {
+            dataStore.record(change);
+        }
+        return dataStore;
+    }
+
+    @Benchmark
+    public DataStore recordAll() {
+        DataStore dataStore = createDataStore();
+        dataStore.recordAll(changes);
+        return dataStore;
+    }
+
+    @Benchmark
+    public DataStore parse() {
+        DataStore dataStore = createDataStore();
+        Parser<String> parser = new StringParser(dataStore);
+        if (measured) {
+            parser = new MetricsParser<>(parser, metrics);
+        }
+        parser.receiveFile(contents);
+        return dataStore;
+    }
+}
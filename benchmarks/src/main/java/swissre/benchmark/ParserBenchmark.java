@@ -0,0 +1,83 @@
+package swissre.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import swissre.parser.MappedFileParser;
+import swissre.parser.StringParser;
+import swissre.persistence.DataStore;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import static java.nio.charset.StandardCharsets.US_ASCII;
+
+/**
+ * Receiving the same exchange rate file through each parser into each {@link DataStore}.
+ *
+ * Scores are files per second, the file holds currencies * ticksPerCurrency lines. With bidAndAsk the file declares
+ * its fields in a different order with two more columns, which the parsers skip.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ParserBenchmark {
+
+    @Param({"SIMPLE", "COLUMNAR", "CONCURRENT"})
+    public DataStores store;
+
+    @Param({"20"})
+    public int currencies;
+
+    @Param({"1000", "20000"})
+    public int ticksPerCurrency;
+
+    @Param({"false", "true"})
+    public boolean shuffled;
+
+    @Param({"0.0", "0.01"})
+    public double spikeDensity;
+
+    @Param({"false", "true"})
+    public boolean bidAndAsk;
+
+    private String contents;
+    private Path file;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        contents = new Workload(currencies, ticksPerCurrency, shuffled, spikeDensity).toFile(bidAndAsk);
+        file = Files.createTempFile("exchange-rates", ".txt");
+        Files.write(file, contents.getBytes(US_ASCII));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(file);
+    }
+
+    @Benchmark
+    public DataStore stringParser() {
+        DataStore dataStore = store.create();
+        new StringParser(dataStore).receiveFile(contents);
+        return dataStore;
+    }
+
+    @Benchmark
+    public DataStore mappedFileParser() {
+        DataStore dataStore = store.create();
+        new MappedFileParser(dataStore).receiveFile(file);
+        return dataStore;
+    }
+
+    @Benchmark
+    public DataStore parallelMappedFileParser() {
+        DataStore dataStore = store.create();
+        new MappedFileParser(dataStore, ForkJoinPool.commonPool()).receiveFile(file);
+        return dataStore;
+    }
+}
@@ -0,0 +1,94 @@
+package swissre.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import swissre.model.CurrencyCode;
+import swissre.parser.MappedFileParser;
+import swissre.persistence.DataStore;
+import swissre.persistence.DurableDataStore;
+import swissre.persistence.SnapshotDataStore;
+import swissre.persistence.Snapshottable;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static java.nio.charset.StandardCharsets.US_ASCII;
+
+/**
+ * Rebuilding a store after a restart, from the {@link DurableDataStore} log or a {@link SnapshotDataStore} snapshot
+ * against re-parsing the exchange rate file.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RecoveryBenchmark {
+
+    @Param({"COLUMNAR"})
+    public DataStores store;
+
+    @Param({"20"})
+    public int currencies;
+
+    @Param({"20000"})
+    public int ticksPerCurrency;
+
+    private Path file;
+    private Path log;
+    private Path snapshot;
+    private CurrencyCode currencyCode;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        Workload workload = new Workload(currencies, ticksPerCurrency, false, 0.01);
+        file = Files.createTempFile("exchange-rates", ".txt");
+        Files.write(file, workload.toFile().getBytes(US_ASCII));
+        log = Files.createTempFile("exchange-rates", ".log");
+        Files.delete(log);
+        try (DurableDataStore durable = DurableDataStore.open(log, store.create())) {
+            durable.recordAll(workload.getChanges());
+        }
+        snapshot = Files.createTempFile("exchange-rates", ".snapshot");
+        DataStore snapshotted = store.create();
+        snapshotted.recordAll(workload.getChanges());
+        ((Snapshottable) snapshotted).writeSnapshot(snapshot);
+        currencyCode = workload.getChanges().get(0).getCurrencyCode();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(file);
+        Files.deleteIfExists(log);
+        Files.deleteIfExists(snapshot);
+    }
+
+    @Benchmark
+    public DataStore replayLog() throws IOException {
+        try (DurableDataStore durable = DurableDataStore.open(log, store.create())) {
+            return durable;
+        }
+    }
+
+    @Benchmark
+    public DataStore materialiseSnapshot() throws IOException {
+        SnapshotDataStore dataStore = SnapshotDataStore.open(snapshot);
+        dataStore.getFlaggedChanges();
+        return dataStore;
+    }
+
+    @Benchmark
+    public Map<String, Double> averagesFromSnapshot() throws IOException {
+        return SnapshotDataStore.open(snapshot).getAveragesByMonth(currencyCode);
+    }
+
+    @Benchmark
+    public DataStore parseFile() {
+        DataStore dataStore = store.create();
+        new MappedFileParser(dataStore).receiveFile(file);
+        return dataStore;
+    }
+}
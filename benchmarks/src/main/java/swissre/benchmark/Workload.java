@@ -0,0 +1,103 @@
+package swissre.benchmark;
+
+import swissre.model.CurrencyCode;
+import swissre.model.ExchangeRateChange;
+
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Generates repeatable exchange rate changes for the benchmarks.
+ *
+ * Each currency starts at its own rate and drifts by a small random amount each tick, one tick a second. A spike
+ * moves the rate by 50% for a single tick, so each spike leads to two flagged changes.
+ */
+public class Workload {
+
+    private static final LocalDateTime START = LocalDateTime.parse("2018-01-01T00:00:00");
+    private static final DateTimeFormatter FILE_TIMESTAMP = DateTimeFormatter.ofPattern("HH:mm:ss MM/dd/yyyy");
+
+    private final List<ExchangeRateChange> changes;
+
+    /**
+     * @param currencies number of currencies to generate changes for
+     * @param ticksPerCurrency number of changes for each currency
+     * @param shuffled false to generate the changes in time order, true to shuffle them
+     * @param spikeDensity the chance of any one change being a spike
+     */
+    public Workload(int currencies, int ticksPerCurrency, boolean shuffled, double spikeDensity) {
+        Random random = new Random(currencies * 31L + ticksPerCurrency);
+        double[] rates = new double[currencies];
+        for (int currency = 0; currency < currencies; currency++) {
+            rates[currency] = 0.5 + random.nextDouble();
+        }
+        changes = new ArrayList<>(currencies * ticksPerCurrency);
+        for (int tick = 0; tick < ticksPerCurrency; tick++) {
+            LocalDateTime timestamp = START.plusSeconds(tick);
+            for (int currency = 0; currency < currencies; currency++) {
+                rates[currency] *= 1 + (random.nextDouble() - 0.5) / 1000;
+                double rate = random.nextDouble() < spikeDensity ? rates[currency] * 1.5 : rates[currency];
+                changes.add(new ExchangeRateChange(currencyCode(currency), timestamp, round(rate)));
+            }
+        }
+        if (shuffled) {
+            Collections.shuffle(changes, random);
+        }
+    }
+
+    public List<ExchangeRateChange> getChanges() {
+        return changes;
+    }
+
+    /**
+     * @return the changes as an exchange rate file
+     */
+    public String toFile() {
+        return toFile(false);
+    }
+
+    /**
+     * @param bidAndAsk true to declare the fields in a different order with bid and ask columns around them, as
+     *                  BID, CURRENCY, LAST_UPDATE, EXCHANGE_RATE and ASK
+     * @return the changes as an exchange rate file
+     */
+    public String toFile(boolean bidAndAsk) {
+        StringBuilder file = new StringBuilder("START-OF-FILE\n" +
+                "DATE=20180101\n" +
+                "START-OF-FIELD-LIST\n" +
+                (bidAndAsk ? "BID\nCURRENCY\nLAST_UPDATE\nEXCHANGE_RATE\nASK\n" : "CURRENCY\nEXCHANGE_RATE\nLAST_UPDATE\n") +
+                "END-OF-FIELD-LIST\n" +
+                "START-OF-EXCHANGE-RATES\n");
+        for (ExchangeRateChange change : changes) {
+            double rate = change.getRateAgainstUSD();
+            String timestamp = FILE_TIMESTAMP.format(change.getTimestamp());
+            if (bidAndAsk) {
+                file.append(round(rate * 0.9999)).append('|')
+                        .append(change.getCurrencyCode()).append('|')
+                        .append(timestamp).append('|')
+                        .append(rate).append('|')
+                        .append(round(rate * 1.0001)).append("|\n");
+            } else {
+                file.append(change.getCurrencyCode()).append('|')
+                        .append(rate).append('|')
+                        .append(timestamp).append("|\n");
+            }
+        }
+        return file.append("END-OF-EXCHANGE-RATES\nEND-OF-FILE\n").toString();
+    }
+
+    /**
+     * @return a distinct three letter code for each index
+     */
+    static CurrencyCode currencyCode(int index) {
+        return CurrencyCode.valueOf((char) ('A' + index / 676 % 26), (char) ('A' + index / 26 % 26), (char) ('A' + index % 26));
+    }
+
+    private static double round(double rate) {
+        return Math.round(rate * 10000) / 10000.0;
+    }
+}
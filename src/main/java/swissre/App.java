@@ -1,50 +1,198 @@
 package swissre;
 
-import swissre.model.CurrencyCode;
-import swissre.model.ExchangeRateChange;
+import swissre.ingest.IngestListener;
+import swissre.ingest.IngestPipeline;
 import swissre.model.FlaggedChange;
+import swissre.notification.Flow;
+import swissre.parser.FingerprintRegistry;
 import swissre.parser.Parser;
 import swissre.parser.StringParser;
-import swissre.persistence.DataStore;
-import swissre.persistence.SimpleDataStore;
+import swissre.persistence.*;
 
-import java.util.List;
-import java.util.Scanner;
-import java.util.Set;
-import java.util.stream.Collectors;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Just a quick and dirty little class to strap the code to a command line of some sort.
+ *
+ * Reads files from standard in, or given {@code --watch <inbox>} runs as a daemon ingesting the files landing in the
+ * inbox directory. Adding {@code --retain-days <days>} only holds the changes of that many days, older ones being
+ * compacted into the averages every hour, and {@code --late-days <days>} sets how many days before that a change may
+ * still arrive late. Adding {@code --data <directory>} logs every change to the directory and
+ * snapshots the store there every ten minutes and on the way out, so a restart recovers from the latest snapshot and
+ * the changes logged since. The files ingested are registered there too, so a file resent unchanged is skipped.
  */
 public class App {
 
+    static final String LOG_FILE = "exchange-rates.log";
+    static final String SNAPSHOT_FILE = "exchange-rates.snapshot";
+    static final String FINGERPRINT_FILE = "fingerprints";
+    static final int FLAG_RETENTION = 1000;
+
     private final DataStore dataStore;
     private final Parser<String> parser;
+    private long versionReported;
 
     public App() {
-        dataStore = new SimpleDataStore();
-        parser = new StringParser(dataStore);
+        this(new SimpleDataStore(FLAG_RETENTION));
+    }
+
+    private App(DataStore dataStore) {
+        this.dataStore = dataStore;
+        this.parser = new StringParser(dataStore);
+        dataStore.getFlaggedChangePublisher().subscribe(new Flow.Subscriber<FlaggedChange>() {
+            @Override
+            public void onSubscribe(Flow.Subscription subscription) {
+                subscription.request(Long.MAX_VALUE);
+            }
+
+            @Override
+            public void onNext(FlaggedChange flagged) {
+                System.out.println("flagged = " + flagged);
+            }
+
+            @Override
+            public void onError(Throwable throwable) {
+                System.err.println("stopped printing flagged changes: " + throwable.getMessage());
+            }
+
+            @Override
+            public void onComplete() {
+            }
+        });
     }
 
     private void run() {
+        Scanner scanner = new Scanner(System.in);
         while(true) {
-            Scanner scanner = new Scanner(System.in);
             ((StringParser) parser).receive(scanner);
-            List<FlaggedChange> flagged = dataStore.getFlaggedChanges();
-            System.out.println("flagged = " + flagged);
-            Set<CurrencyCode> currencyCodes = dataStore.getExchangeRateChanges().stream()
-                    .map(ExchangeRateChange::getCurrencyCode)
-                    .collect(Collectors.toSet());
-
-            currencyCodes.forEach(code -> {
-                System.out.println(code + " monthly averages = " + dataStore.getAveragesByMonth(code));
-                System.out.println(code + " yearly averages = " + dataStore.getAveragesByYear(code));
-            });
+            report();
         }
     }
 
-    public static void main(String[] args) {
-        App app = new App();
-        app.run();
+    /**
+     * Ingest the files landing in the inbox until the process is shut down, which waits for this thread to finish.
+     *
+     * @param registry of the files already ingested, or null to ingest every file
+     */
+    private void watch(Path inbox, FingerprintRegistry registry) throws IOException, InterruptedException {
+        Thread watching = Thread.currentThread();
+        IngestPipeline pipeline = IngestPipeline.start(inbox, dataStore, new IngestListener() {
+            @Override
+            public void fileIngested(Path file, int changes) {
+                System.out.println("ingested " + file + " with " + changes + " changes");
+                report();
+            }
+
+            @Override
+            public void fileRevised(Path file, int changes) {
+                System.out.println("ingested " + file + " as a revision with " + changes + " changes");
+                report();
+            }
+
+            @Override
+            public void fileSkipped(Path file) {
+                System.out.println("skipped " + file + " as already ingested");
+            }
+
+            @Override
+            public void fileFailed(Path file, RuntimeException error) {
+                System.err.println("failed to ingest " + file + ": " + error.getMessage());
+            }
+        }, registry);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                pipeline.close();
+                watching.join(TimeUnit.MINUTES.toMillis(1));
+            } catch (IOException e) {
+                e.printStackTrace();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }));
+        pipeline.awaitTermination();
+    }
+
+    /**
+     * Print the averages changed since the last report, flagged changes are printed as they are flagged.
+     */
+    private synchronized void report() {
+        StoreChanges changes = dataStore.changesSince(versionReported);
+        versionReported = changes.getVersion();
+        changes.getCurrencies().forEach(code -> {
+            Map<String, Double> monthlyAverages = dataStore.getAveragesByMonth(code);
+            monthlyAverages.keySet().retainAll(changes.getMonths(code));
+            Map<Integer, Double> yearlyAverages = dataStore.getAveragesByYear(code);
+            yearlyAverages.keySet().retainAll(changes.getYears(code));
+            System.out.println(code + " monthly averages = " + monthlyAverages);
+            System.out.println(code + " yearly averages = " + yearlyAverages);
+        });
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        Map<String, String> options = new HashMap<>();
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            options.put(args[i], args[i + 1]);
+        }
+        if (!options.containsKey("--watch")) {
+            App app = new App();
+            app.run();
+            return;
+        }
+        Deque<Closeable> resources = new ArrayDeque<>();
+        try {
+            ConcurrentDataStore store = new ConcurrentDataStore(FLAG_RETENTION);
+            DataStore dataStore = store;
+            FingerprintRegistry registry = null;
+            if (options.containsKey("--data")) {
+                Path data = Paths.get(options.get("--data"));
+                dataStore = recover(store, data, resources);
+                registry = FingerprintRegistry.open(data.resolve(FINGERPRINT_FILE));
+            }
+            if (options.containsKey("--retain-days")) {
+                Duration retention = Duration.ofDays(Long.parseLong(options.get("--retain-days")));
+                Duration lateGrace = options.containsKey("--late-days")
+                        ? Duration.ofDays(Long.parseLong(options.get("--late-days")))
+                        : Compactable.DEFAULT_LATE_GRACE;
+                resources.push(CompactionScheduler.start(store, retention, lateGrace, 1, TimeUnit.HOURS));
+            }
+            new App(dataStore).watch(Paths.get(options.get("--watch")), registry);
+        } finally {
+            close(resources);
+        }
+    }
+
+    /**
+     * Restore the store from the latest snapshot in the data directory and replay the changes logged since, then
+     * carry on logging and snapshotting. The resources are pushed to be closed in reverse, the last snapshot being
+     * taken once the snapshots scheduled have stopped.
+     */
+    private static DurableDataStore recover(ConcurrentDataStore store, Path data, Deque<Closeable> resources)
+            throws IOException {
+        Files.createDirectories(data);
+        Path snapshot = data.resolve(SNAPSHOT_FILE);
+        long logPosition = Files.exists(snapshot) ? store.restore(snapshot) : 0;
+        DurableDataStore durable = DurableDataStore.open(data.resolve(LOG_FILE), store, logPosition,
+                DurableDataStore.DEFAULT_SYNC_EVERY);
+        resources.push(durable);
+        resources.push(() -> durable.writeSnapshot(snapshot));
+        resources.push(SnapshotScheduler.start(durable, snapshot, 10, TimeUnit.MINUTES));
+        return durable;
+    }
+
+    private static void close(Deque<Closeable> resources) {
+        while (!resources.isEmpty()) {
+            try {
+                resources.pop().close();
+            } catch (IOException | RuntimeException e) {
+                e.printStackTrace();
+            }
+        }
     }
 }
@@ -0,0 +1,192 @@
+package swissre.analytics;
+
+import swissre.model.CrossRate;
+import swissre.model.CurrencyCode;
+import swissre.model.ExchangeRateChange;
+import swissre.persistence.DataStore;
+import swissre.persistence.StoreChanges;
+
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Derives the rate between any two currencies from the rates against the US Dollar held in a {@link DataStore}.
+ *
+ * Every rate in the store is the number of units of its currency one US Dollar buys, so one unit of the base currency
+ * buys quoteRate / baseRate units of the quote currency. The US Dollar itself can be either side of a pair.
+ *
+ * The latest rate of each currency asked about is cached so the latest rate of a pair is answered without touching the
+ * store. Before it is used the cache is checked against the store's version and the currencies changed since are
+ * dropped from it, see {@link DataStore#changesSince(long)}. The service is thread safe as long as the store is.
+ *
+ * @author Duncan Atkinson
+ */
+public class CrossRateService {
+
+    public static final CurrencyCode USD = CurrencyCode.valueOf("USD");
+
+    private final DataStore dataStore;
+    private final Map<CurrencyCode, Optional<ExchangeRateChange>> latestRates;
+    private long cachedVersion;
+
+    public CrossRateService(DataStore dataStore) {
+        this.dataStore = dataStore;
+        this.latestRates = new HashMap<>();
+        this.cachedVersion = dataStore.getVersion();
+    }
+
+    /**
+     * @return the latest rate between the currencies, or empty if either has no rate
+     */
+    public synchronized OptionalDouble getLatestCrossRate(CurrencyCode baseCurrency, CurrencyCode quoteCurrency) {
+        requireDifferent(baseCurrency, quoteCurrency);
+        invalidateChangedCurrencies();
+        OptionalDouble baseRate = latestRate(baseCurrency);
+        OptionalDouble quoteRate = latestRate(quoteCurrency);
+        return crossRate(baseRate, quoteRate);
+    }
+
+    /**
+     * @return the rate between the currencies as of the time given, or empty if either had no rate by then
+     */
+    public OptionalDouble getCrossRate(CurrencyCode baseCurrency, CurrencyCode quoteCurrency, LocalDateTime asOf) {
+        requireDifferent(baseCurrency, quoteCurrency);
+        return crossRate(rateAsOf(baseCurrency, asOf), rateAsOf(quoteCurrency, asOf));
+    }
+
+    /**
+     * The rate between the currencies each time either of them changed in the range, starting from their rates before
+     * the range. Where both change at the same time there is a single rate for it. Changes before both currencies have
+     * a rate are skipped.
+     *
+     * @return the cross rates from the first time up to but excluding the second in time order
+     */
+    public Stream<CrossRate> getCrossRates(CurrencyCode baseCurrency, CurrencyCode quoteCurrency, LocalDateTime from,
+                                           LocalDateTime to) {
+        requireDifferent(baseCurrency, quoteCurrency);
+        LocalDateTime beforeRange = from.equals(LocalDateTime.MIN) ? null : from.minusNanos(1);
+        CrossRateIterator crossRates = new CrossRateIterator(baseCurrency, quoteCurrency,
+                beforeRange == null ? OptionalDouble.empty() : rateAsOf(baseCurrency, beforeRange),
+                beforeRange == null ? OptionalDouble.empty() : rateAsOf(quoteCurrency, beforeRange),
+                changes(baseCurrency, from, to), changes(quoteCurrency, from, to));
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(crossRates,
+                Spliterator.ORDERED | Spliterator.NONNULL), false);
+    }
+
+    private void invalidateChangedCurrencies() {
+        if (dataStore.getVersion() == cachedVersion) {
+            return;
+        }
+        StoreChanges changes = dataStore.changesSince(cachedVersion);
+        changes.getCurrencies().forEach(latestRates::remove);
+        cachedVersion = changes.getVersion();
+    }
+
+    private OptionalDouble latestRate(CurrencyCode currencyCode) {
+        if (currencyCode.equals(USD)) {
+            return OptionalDouble.of(1.0);
+        }
+        Optional<ExchangeRateChange> latest = latestRates.computeIfAbsent(currencyCode,
+                code -> dataStore.getRateAsOf(code, LocalDateTime.MAX));
+        return latest.map(change -> OptionalDouble.of(change.getRateAgainstUSD())).orElse(OptionalDouble.empty());
+    }
+
+    private OptionalDouble rateAsOf(CurrencyCode currencyCode, LocalDateTime asOf) {
+        if (currencyCode.equals(USD)) {
+            return OptionalDouble.of(1.0);
+        }
+        return dataStore.getRateAsOf(currencyCode, asOf)
+                .map(change -> OptionalDouble.of(change.getRateAgainstUSD()))
+                .orElse(OptionalDouble.empty());
+    }
+
+    private Iterator<ExchangeRateChange> changes(CurrencyCode currencyCode, LocalDateTime from, LocalDateTime to) {
+        if (currencyCode.equals(USD)) {
+            return Collections.emptyIterator();
+        }
+        return dataStore.getExchangeRateChanges(currencyCode, from, to).iterator();
+    }
+
+    private static OptionalDouble crossRate(OptionalDouble baseRate, OptionalDouble quoteRate) {
+        if (!baseRate.isPresent() || !quoteRate.isPresent()) {
+            return OptionalDouble.empty();
+        }
+        return OptionalDouble.of(quoteRate.getAsDouble() / baseRate.getAsDouble());
+    }
+
+    private static void requireDifferent(CurrencyCode baseCurrency, CurrencyCode quoteCurrency) {
+        if (baseCurrency.equals(quoteCurrency)) {
+            throw new IllegalArgumentException("A cross rate needs two different currencies, not " + baseCurrency);
+        }
+    }
+
+    /**
+     * Merges the changes of the two currencies in time order, taking every change of either currency at the same time
+     * before giving the single cross rate for that time, which agrees with
+     * {@link #getCrossRate(CurrencyCode, CurrencyCode, LocalDateTime)}.
+     */
+    private static class CrossRateIterator implements Iterator<CrossRate> {
+
+        private final CurrencyCode baseCurrency;
+        private final CurrencyCode quoteCurrency;
+        private final Iterator<ExchangeRateChange> baseChanges;
+        private final Iterator<ExchangeRateChange> quoteChanges;
+        private OptionalDouble baseRate;
+        private OptionalDouble quoteRate;
+        private ExchangeRateChange nextBase;
+        private ExchangeRateChange nextQuote;
+        private CrossRate next;
+
+        CrossRateIterator(CurrencyCode baseCurrency, CurrencyCode quoteCurrency, OptionalDouble baseRate,
+                          OptionalDouble quoteRate, Iterator<ExchangeRateChange> baseChanges,
+                          Iterator<ExchangeRateChange> quoteChanges) {
+            this.baseCurrency = baseCurrency;
+            this.quoteCurrency = quoteCurrency;
+            this.baseRate = baseCurrency.equals(USD) ? OptionalDouble.of(1.0) : baseRate;
+            this.quoteRate = quoteCurrency.equals(USD) ? OptionalDouble.of(1.0) : quoteRate;
+            this.baseChanges = baseChanges;
+            this.quoteChanges = quoteChanges;
+            this.nextBase = nextOrNull(baseChanges);
+            this.nextQuote = nextOrNull(quoteChanges);
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (next == null && (nextBase != null || nextQuote != null)) {
+                LocalDateTime timestamp = nextQuote == null
+                        || (nextBase != null && !nextBase.getTimestamp().isAfter(nextQuote.getTimestamp()))
+                        ? nextBase.getTimestamp()
+                        : nextQuote.getTimestamp();
+                while (nextBase != null && nextBase.getTimestamp().equals(timestamp)) {
+                    baseRate = OptionalDouble.of(nextBase.getRateAgainstUSD());
+                    nextBase = nextOrNull(baseChanges);
+                }
+                while (nextQuote != null && nextQuote.getTimestamp().equals(timestamp)) {
+                    quoteRate = OptionalDouble.of(nextQuote.getRateAgainstUSD());
+                    nextQuote = nextOrNull(quoteChanges);
+                }
+                OptionalDouble rate = crossRate(baseRate, quoteRate);
+                if (rate.isPresent()) {
+                    next = new CrossRate(baseCurrency, quoteCurrency, timestamp, rate.getAsDouble());
+                }
+            }
+            return next != null;
+        }
+
+        @Override
+        public CrossRate next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            CrossRate crossRate = next;
+            next = null;
+            return crossRate;
+        }
+
+        private static ExchangeRateChange nextOrNull(Iterator<ExchangeRateChange> changes) {
+            return changes.hasNext() ? changes.next() : null;
+        }
+    }
+}
@@ -0,0 +1,365 @@
+package swissre.analytics;
+
+import swissre.model.CurrencyCode;
+import swissre.model.ExchangeRateChange;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import static java.time.ZoneOffset.UTC;
+
+/**
+ * Rolling min, max, mean and standard deviation of each currency over a set of windows, updated as each change is
+ * recorded so the statistics of a window are read without going back over the history.
+ *
+ * Each currency keeps the changes within its longest window in a ring buffer shared by all of its windows. Every
+ * window tracks where it starts in the buffer, its running count, mean and sum of squared differences (Welford's
+ * method, run backwards as changes leave the window) and a pair of monotonic deques whose heads are its min and max.
+ * Each change is added to and removed from each window once, so recording a change is amortised O(1) per window and
+ * reading a window's statistics is O(1).
+ *
+ * Windows end at the latest change of the currency. A change older than that but still within the longest window, such
+ * as one from another thread recording the same currency, is slotted into place and the windows are rebuilt from the
+ * buffer, which costs O(n) in the changes held, so changes are best added in timestamp order per currency. A change
+ * older than the longest window is dropped and counted as late, see {@link #getLateChanges()}. A change with the same
+ * timestamp and rate as one already added is a duplicate and is ignored as the stores do.
+ *
+ * This class is thread safe, changes to different currencies are added concurrently.
+ *
+ * @author Duncan Atkinson
+ */
+public class RollingStatistics {
+
+    public static final List<Duration> DEFAULT_WINDOWS =
+            Collections.unmodifiableList(Arrays.asList(Duration.ofHours(1), Duration.ofHours(24), Duration.ofDays(30)));
+
+    private static final long NANOS_PER_SECOND = 1_000_000_000L;
+    private static final int INITIAL_CAPACITY = 16;
+
+    private final List<Duration> windows;
+    private final Map<CurrencyCode, CurrencyStatistics> statistics;
+    private final LongAdder lateChanges;
+
+    /**
+     * Track the {@link #DEFAULT_WINDOWS} of an hour, a day and thirty days.
+     */
+    public RollingStatistics() {
+        this(DEFAULT_WINDOWS);
+    }
+
+    /**
+     * @param windows to track, each must be positive
+     */
+    public RollingStatistics(Collection<Duration> windows) {
+        if (windows.isEmpty()) {
+            throw new IllegalArgumentException("At least one window is needed");
+        }
+        for (Duration window : windows) {
+            if (window.isNegative() || window.isZero()) {
+                throw new IllegalArgumentException("Window must be positive " + window);
+            }
+        }
+        this.windows = Collections.unmodifiableList(new ArrayList<>(new TreeSet<>(windows)));
+        this.statistics = new ConcurrentHashMap<>();
+        this.lateChanges = new LongAdder();
+    }
+
+    /**
+     * @return the windows tracked, shortest first
+     */
+    public List<Duration> getWindows() {
+        return windows;
+    }
+
+    /**
+     * Add a change to every window of its currency.
+     *
+     * @param exchangeRateChange to add
+     */
+    public void add(ExchangeRateChange exchangeRateChange) {
+        CurrencyStatistics currencyStatistics = statistics.computeIfAbsent(exchangeRateChange.getCurrencyCode(),
+                code -> new CurrencyStatistics(windows));
+        if (!currencyStatistics.add(exchangeRateChange.getTimestamp(), exchangeRateChange.getRateAgainstUSD())) {
+            lateChanges.increment();
+        }
+    }
+
+    /**
+     * @param currencyCode to find the statistics of
+     * @param window one of {@link #getWindows()}
+     * @return the statistics of the window ending at the currency's latest change, or empty if it has no changes
+     * @throws IllegalArgumentException if the window is not tracked
+     */
+    public Optional<WindowStatistics> getStatistics(CurrencyCode currencyCode, Duration window) {
+        int index = windows.indexOf(window);
+        if (index < 0) {
+            throw new IllegalArgumentException("Window not tracked " + window + ", tracking " + windows);
+        }
+        CurrencyStatistics currencyStatistics = statistics.get(currencyCode);
+        if (currencyStatistics == null) {
+            return Optional.empty();
+        }
+        return Optional.of(currencyStatistics.getStatistics(currencyCode, window, index));
+    }
+
+    /**
+     * @return the number of changes dropped because they were older than the longest window of their currency
+     */
+    public long getLateChanges() {
+        return lateChanges.sum();
+    }
+
+    private static long toEpochNanos(LocalDateTime timestamp) {
+        return timestamp.toEpochSecond(UTC) * NANOS_PER_SECOND + timestamp.getNano();
+    }
+
+    private static LocalDateTime fromEpochNanos(long epochNanos) {
+        return LocalDateTime.ofEpochSecond(Math.floorDiv(epochNanos, NANOS_PER_SECOND),
+                (int) Math.floorMod(epochNanos, NANOS_PER_SECOND), UTC);
+    }
+
+    /**
+     * The changes of one currency within its longest window, held by sequence number in a ring buffer, and the running
+     * state of each of its windows.
+     */
+    private static final class CurrencyStatistics {
+
+        private final Window[] windows;
+        private long[] times;
+        private double[] rates;
+        private long first;
+        private long next;
+
+        CurrencyStatistics(List<Duration> windows) {
+            this.windows = new Window[windows.size()];
+            for (int i = 0; i < this.windows.length; i++) {
+                this.windows[i] = new Window(windows.get(i).toNanos());
+            }
+            this.times = new long[INITIAL_CAPACITY];
+            this.rates = new double[INITIAL_CAPACITY];
+        }
+
+        /**
+         * @return false if the change was late
+         */
+        synchronized boolean add(LocalDateTime timestamp, double rate) {
+            long time = toEpochNanos(timestamp);
+            if (next > first) {
+                long latest = timeOf(next - 1);
+                if (time < latest) {
+                    return addLate(time, rate, latest);
+                }
+                if (isDuplicate(next, time, rate)) {
+                    return true;
+                }
+            }
+            if (next - first == times.length) {
+                grow();
+            }
+            long sequence = next++;
+            set(sequence, time, rate);
+            for (Window window : windows) {
+                window.add(sequence, rate);
+                while (timeOf(window.first) <= time - window.length) {
+                    window.removeFirst();
+                }
+            }
+            first = windows[windows.length - 1].first;
+            return true;
+        }
+
+        /**
+         * Slot a change older than the latest into place after those with the same timestamp, then rebuild the windows.
+         * The latest change is unchanged so the longest window still starts at the first change held.
+         */
+        private boolean addLate(long time, double rate, long latest) {
+            if (time <= latest - windows[windows.length - 1].length) {
+                return false;
+            }
+            long position = next;
+            while (position > first && timeOf(position - 1) > time) {
+                position--;
+            }
+            if (isDuplicate(position, time, rate)) {
+                return true;
+            }
+            if (next - first == times.length) {
+                grow();
+            }
+            for (long sequence = next; sequence > position; sequence--) {
+                set(sequence, timeOf(sequence - 1), rateOf(sequence - 1));
+            }
+            set(position, time, rate);
+            next++;
+            for (Window window : windows) {
+                window.rebuild(latest);
+            }
+            return true;
+        }
+
+        /**
+         * @return true if a change just before the sequence has the same timestamp and rate
+         */
+        private boolean isDuplicate(long before, long time, double rate) {
+            for (long sequence = before - 1; sequence >= first && timeOf(sequence) == time; sequence--) {
+                if (Double.doubleToLongBits(rateOf(sequence)) == Double.doubleToLongBits(rate)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        synchronized WindowStatistics getStatistics(CurrencyCode currencyCode, Duration duration, int index) {
+            Window window = windows[index];
+            int count = (int) (next - window.first);
+            double standardDeviation = count > 1 ? Math.sqrt(Math.max(0, window.squaredDifferences / (count - 1))) : 0;
+            return new WindowStatistics(currencyCode, duration, fromEpochNanos(timeOf(next - 1)), count,
+                    rateOf(window.minimums.peekFirst()), rateOf(window.maximums.peekFirst()), window.mean,
+                    standardDeviation);
+        }
+
+        private long timeOf(long sequence) {
+            return times[(int) sequence & (times.length - 1)];
+        }
+
+        private double rateOf(long sequence) {
+            return rates[(int) sequence & (rates.length - 1)];
+        }
+
+        private void set(long sequence, long time, double rate) {
+            int index = (int) sequence & (times.length - 1);
+            times[index] = time;
+            rates[index] = rate;
+        }
+
+        private void grow() {
+            int capacity = times.length * 2;
+            long[] newTimes = new long[capacity];
+            double[] newRates = new double[capacity];
+            for (long sequence = first; sequence < next; sequence++) {
+                newTimes[(int) sequence & (capacity - 1)] = timeOf(sequence);
+                newRates[(int) sequence & (capacity - 1)] = rateOf(sequence);
+            }
+            times = newTimes;
+            rates = newRates;
+        }
+
+        /**
+         * The running state of one window, which holds the changes from its first sequence number up to the latest.
+         */
+        private final class Window {
+
+            private final long length;
+            private final SequenceDeque minimums = new SequenceDeque();
+            private final SequenceDeque maximums = new SequenceDeque();
+            private long first;
+            private double mean;
+            private double squaredDifferences;
+
+            Window(long length) {
+                this.length = length;
+            }
+
+            void add(long sequence, double rate) {
+                int count = (int) (sequence - first + 1);
+                double difference = rate - mean;
+                mean += difference / count;
+                squaredDifferences += difference * (rate - mean);
+                while (!minimums.isEmpty() && rateOf(minimums.peekLast()) >= rate) {
+                    minimums.pollLast();
+                }
+                minimums.addLast(sequence);
+                while (!maximums.isEmpty() && rateOf(maximums.peekLast()) <= rate) {
+                    maximums.pollLast();
+                }
+                maximums.addLast(sequence);
+            }
+
+            void removeFirst() {
+                double rate = rateOf(first);
+                int count = (int) (next - first - 1);
+                if (count == 0) {
+                    mean = 0;
+                    squaredDifferences = 0;
+                } else {
+                    double difference = rate - mean;
+                    mean -= difference / count;
+                    squaredDifferences -= difference * (rate - mean);
+                }
+                if (minimums.peekFirst() == first) {
+                    minimums.pollFirst();
+                }
+                if (maximums.peekFirst() == first) {
+                    maximums.pollFirst();
+                }
+                first++;
+            }
+
+            /**
+             * Start again from the changes held within the window ending at the latest change.
+             */
+            void rebuild(long latest) {
+                first = CurrencyStatistics.this.first;
+                while (timeOf(first) <= latest - length) {
+                    first++;
+                }
+                mean = 0;
+                squaredDifferences = 0;
+                minimums.clear();
+                maximums.clear();
+                for (long sequence = first; sequence < next; sequence++) {
+                    add(sequence, rateOf(sequence));
+                }
+            }
+        }
+    }
+
+    /**
+     * A growable ring buffer of sequence numbers used as a double ended queue.
+     */
+    private static final class SequenceDeque {
+
+        private long[] sequences = new long[INITIAL_CAPACITY];
+        private long head;
+        private long tail;
+
+        boolean isEmpty() {
+            return head == tail;
+        }
+
+        long peekFirst() {
+            return sequences[(int) head & (sequences.length - 1)];
+        }
+
+        long peekLast() {
+            return sequences[(int) (tail - 1) & (sequences.length - 1)];
+        }
+
+        void pollFirst() {
+            head++;
+        }
+
+        void pollLast() {
+            tail--;
+        }
+
+        void clear() {
+            head = 0;
+            tail = 0;
+        }
+
+        void addLast(long sequence) {
+            if (tail - head == sequences.length) {
+                long[] grown = new long[sequences.length * 2];
+                for (long position = head; position < tail; position++) {
+                    grown[(int) position & (grown.length - 1)] = sequences[(int) position & (sequences.length - 1)];
+                }
+                sequences = grown;
+            }
+            sequences[(int) tail++ & (sequences.length - 1)] = sequence;
+        }
+    }
+}
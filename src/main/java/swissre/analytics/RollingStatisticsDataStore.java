@@ -0,0 +1,111 @@
+package swissre.analytics;
+
+import swissre.model.CurrencyCode;
+import swissre.model.ExchangeRateChange;
+import swissre.model.FlaggedChange;
+import swissre.model.RateSummary;
+import swissre.persistence.DataStore;
+import swissre.persistence.FlaggedChangePublisher;
+import swissre.persistence.StoreChanges;
+
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.stream.Stream;
+
+import static java.util.Comparator.comparing;
+
+/**
+ * Decorates another {@link DataStore} to feed each change recorded into {@link RollingStatistics}, everything else
+ * goes straight to the store decorated.
+ *
+ * Batches are fed in timestamp order, which is the order {@link DataStore#recordAll(Collection)} records them in, so
+ * a batch never arrives out of order against itself. Changes from several threads or interleaved batches can still
+ * reach the statistics out of order, which slot those still within their windows into place so they agree with the
+ * store.
+ *
+ * @author Duncan Atkinson
+ */
+public class RollingStatisticsDataStore implements DataStore {
+
+    private final DataStore dataStore;
+    private final RollingStatistics rollingStatistics;
+
+    public RollingStatisticsDataStore(DataStore dataStore, RollingStatistics rollingStatistics) {
+        this.dataStore = dataStore;
+        this.rollingStatistics = rollingStatistics;
+    }
+
+    public RollingStatistics getRollingStatistics() {
+        return rollingStatistics;
+    }
+
+    @Override
+    public void record(ExchangeRateChange exchangeRateChange) {
+        dataStore.record(exchangeRateChange);
+        rollingStatistics.add(exchangeRateChange);
+    }
+
+    @Override
+    public void recordAll(Collection<ExchangeRateChange> exchangeRateChanges) {
+        List<ExchangeRateChange> inTimeOrder = new ArrayList<>(exchangeRateChanges);
+        inTimeOrder.sort(comparing(ExchangeRateChange::getTimestamp));
+        dataStore.recordAll(inTimeOrder);
+        inTimeOrder.forEach(rollingStatistics::add);
+    }
+
+    @Override
+    public Set<ExchangeRateChange> getExchangeRateChanges() {
+        return dataStore.getExchangeRateChanges();
+    }
+
+    @Override
+    public List<FlaggedChange> getFlaggedChanges() {
+        return dataStore.getFlaggedChanges();
+    }
+
+    @Override
+    public Optional<ExchangeRateChange> getRateAsOf(CurrencyCode currencyCode, LocalDateTime asOf) {
+        return dataStore.getRateAsOf(currencyCode, asOf);
+    }
+
+    @Override
+    public Stream<ExchangeRateChange> getExchangeRateChanges(CurrencyCode currencyCode, LocalDateTime from,
+                                                             LocalDateTime to) {
+        return dataStore.getExchangeRateChanges(currencyCode, from, to);
+    }
+
+    @Override
+    public FlaggedChangePublisher getFlaggedChangePublisher() {
+        return dataStore.getFlaggedChangePublisher();
+    }
+
+    @Override
+    public Set<CurrencyCode> getCurrencies() {
+        return dataStore.getCurrencies();
+    }
+
+    @Override
+    public long getVersion() {
+        return dataStore.getVersion();
+    }
+
+    @Override
+    public StoreChanges changesSince(long version) {
+        return dataStore.changesSince(version);
+    }
+
+    @Override
+    public Map<String, Double> getAveragesByMonth(CurrencyCode currencyCode) {
+        return dataStore.getAveragesByMonth(currencyCode);
+    }
+
+    @Override
+    public Map<Integer, Double> getAveragesByYear(CurrencyCode currencyCode) {
+        return dataStore.getAveragesByYear(currencyCode);
+    }
+
+    @Override
+    public Map<String, RateSummary> getSummariesByMonth(CurrencyCode currencyCode) {
+        return dataStore.getSummariesByMonth(currencyCode);
+    }
+}
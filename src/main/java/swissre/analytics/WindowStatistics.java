@@ -0,0 +1,110 @@
+package swissre.analytics;
+
+import swissre.model.CurrencyCode;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.Objects;
+
+/**
+ * The statistics of a currency's rates against the US Dollar over a window ending at its latest change, so a window
+ * of an hour covers the changes after an hour before the latest change up to and including it.
+ */
+public class WindowStatistics {
+
+    private final CurrencyCode currencyCode;
+    private final Duration window;
+    private final LocalDateTime asOf;
+    private final int count;
+    private final double min;
+    private final double max;
+    private final double mean;
+    private final double standardDeviation;
+
+    public WindowStatistics(CurrencyCode currencyCode, Duration window, LocalDateTime asOf, int count, double min,
+                            double max, double mean, double standardDeviation) {
+        this.currencyCode = currencyCode;
+        this.window = window;
+        this.asOf = asOf;
+        this.count = count;
+        this.min = min;
+        this.max = max;
+        this.mean = mean;
+        this.standardDeviation = standardDeviation;
+    }
+
+    public CurrencyCode getCurrencyCode() {
+        return currencyCode;
+    }
+
+    public Duration getWindow() {
+        return window;
+    }
+
+    /**
+     * @return the timestamp of the latest change, which the window ends at
+     */
+    public LocalDateTime getAsOf() {
+        return asOf;
+    }
+
+    /**
+     * @return the number of changes in the window
+     */
+    public int getCount() {
+        return count;
+    }
+
+    public double getMin() {
+        return min;
+    }
+
+    public double getMax() {
+        return max;
+    }
+
+    public double getMean() {
+        return mean;
+    }
+
+    /**
+     * @return the sample standard deviation, 0 when there is a single change in the window
+     */
+    public double getStandardDeviation() {
+        return standardDeviation;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        WindowStatistics that = (WindowStatistics) o;
+        return count == that.count &&
+                Double.compare(that.min, min) == 0 &&
+                Double.compare(that.max, max) == 0 &&
+                Double.compare(that.mean, mean) == 0 &&
+                Double.compare(that.standardDeviation, standardDeviation) == 0 &&
+                Objects.equals(currencyCode, that.currencyCode) &&
+                Objects.equals(window, that.window) &&
+                Objects.equals(asOf, that.asOf);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(currencyCode, window, asOf, count, min, max, mean, standardDeviation);
+    }
+
+    @Override
+    public String toString() {
+        return "WindowStatistics{" +
+                "currencyCode=" + currencyCode +
+                ", window=" + window +
+                ", asOf=" + asOf +
+                ", count=" + count +
+                ", min=" + min +
+                ", max=" + max +
+                ", mean=" + mean +
+                ", standardDeviation=" + standardDeviation +
+                '}';
+    }
+}
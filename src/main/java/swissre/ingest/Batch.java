@@ -0,0 +1,93 @@
+package swissre.ingest;
+
+import swissre.model.ExchangeRateChange;
+import swissre.parser.FileFingerprint;
+import swissre.parser.FingerprintRegistry.Status;
+
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The unit of work passed from the parsing stage to the recording stage of the {@link IngestPipeline}, being some of
+ * the changes read from a file and, for the last batch of the file, how it ended, the fingerprint to register once
+ * it has been recorded and what the registry made of it. A file skipped as a duplicate is passed on as a single empty
+ * last batch.
+ */
+final class Batch {
+
+    static final Batch END = new Batch(null, null, true, 0, null, null, null);
+
+    private final Path file;
+    private final List<ExchangeRateChange> changes;
+    private final boolean last;
+    private final int changesInFile;
+    private final RuntimeException error;
+    private final FileFingerprint fingerprint;
+    private final Status status;
+
+    private Batch(Path file, List<ExchangeRateChange> changes, boolean last, int changesInFile, RuntimeException error,
+                  FileFingerprint fingerprint, Status status) {
+        this.file = file;
+        this.changes = changes;
+        this.last = last;
+        this.changesInFile = changesInFile;
+        this.error = error;
+        this.fingerprint = fingerprint;
+        this.status = status;
+    }
+
+    static Batch of(Path file, List<ExchangeRateChange> changes) {
+        return new Batch(file, changes, false, 0, null, null, null);
+    }
+
+    static Batch last(Path file, List<ExchangeRateChange> changes, int changesInFile, RuntimeException error,
+                      FileFingerprint fingerprint, Status status) {
+        return new Batch(file, changes, true, changesInFile, error, fingerprint, status);
+    }
+
+    static Batch skipped(Path file) {
+        return new Batch(file, Collections.emptyList(), true, 0, null, null, Status.DUPLICATE);
+    }
+
+    Path getFile() {
+        return file;
+    }
+
+    List<ExchangeRateChange> getChanges() {
+        return changes;
+    }
+
+    boolean isLast() {
+        return last;
+    }
+
+    int getChangesInFile() {
+        return changesInFile;
+    }
+
+    RuntimeException getError() {
+        return error;
+    }
+
+    /**
+     * @return the fingerprint of the file to register once its changes are recorded, or null if not fingerprinted
+     */
+    FileFingerprint getFingerprint() {
+        return fingerprint;
+    }
+
+    /**
+     * @return true if the file was skipped as identical to one already ingested
+     */
+    boolean isSkipped() {
+        return status == Status.DUPLICATE;
+    }
+
+    /**
+     * @return true if the file is a revision of one already ingested
+     */
+    boolean isRevision() {
+        return status == Status.REVISION;
+    }
+}
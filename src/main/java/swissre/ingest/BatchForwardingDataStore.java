@@ -0,0 +1,167 @@
+package swissre.ingest;
+
+import swissre.model.CurrencyCode;
+import swissre.model.ExchangeRateChange;
+import swissre.model.FlaggedChange;
+import swissre.model.RateSummary;
+import swissre.parser.FileFingerprint;
+import swissre.parser.FingerprintRegistry;
+import swissre.persistence.DataStore;
+import swissre.persistence.FlaggedChangePublisher;
+import swissre.persistence.StoreChanges;
+
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.BlockingQueue;
+import java.util.stream.Stream;
+
+/**
+ * The {@link DataStore} a parser in the {@link IngestPipeline} records to. Changes are gathered into batches which are
+ * handed to the recording stage as they fill, blocking while its queue is full, and queries go straight to the store
+ * being recorded to.
+ *
+ * Please note that this class is not thread safe, each parsing thread has its own.
+ */
+class BatchForwardingDataStore implements DataStore {
+
+    private final DataStore dataStore;
+    private final BlockingQueue<Batch> batches;
+    private final int batchSize;
+
+    private Path file;
+    private List<ExchangeRateChange> batch;
+    private int changesInFile;
+
+    BatchForwardingDataStore(DataStore dataStore, BlockingQueue<Batch> batches, int batchSize) {
+        this.dataStore = dataStore;
+        this.batches = batches;
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * @param file the changes recorded from now on are read from
+     */
+    void startFile(Path file) {
+        this.file = file;
+        this.batch = new ArrayList<>(batchSize);
+        this.changesInFile = 0;
+    }
+
+    /**
+     * Hand over the rest of the file's changes along with how it ended.
+     *
+     * @param error found reading the file, or null if it was read to the end
+     * @param fingerprint of the file to register once it has been recorded, or null
+     * @param status of the file in the registry, or null if not fingerprinted
+     */
+    void endFile(RuntimeException error, FileFingerprint fingerprint, FingerprintRegistry.Status status)
+            throws InterruptedException {
+        batches.put(Batch.last(file, batch, changesInFile, error, fingerprint, status));
+        file = null;
+        batch = null;
+    }
+
+    /**
+     * Hand over the file as skipped, without any changes.
+     */
+    void skipFile() throws InterruptedException {
+        batches.put(Batch.skipped(file));
+        file = null;
+        batch = null;
+    }
+
+    @Override
+    public void record(ExchangeRateChange exchangeRateChange) {
+        batch.add(exchangeRateChange);
+        changesInFile++;
+        if (batch.size() >= batchSize) {
+            forward();
+        }
+    }
+
+    @Override
+    public void recordAll(Collection<ExchangeRateChange> exchangeRateChanges) {
+        batch.addAll(exchangeRateChanges);
+        changesInFile += exchangeRateChanges.size();
+        if (batch.size() >= batchSize) {
+            forward();
+        }
+    }
+
+    private void forward() {
+        try {
+            batches.put(Batch.of(file, batch));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IngestInterruptedException(e);
+        }
+        batch = new ArrayList<>(batchSize);
+    }
+
+    @Override
+    public Set<ExchangeRateChange> getExchangeRateChanges() {
+        return dataStore.getExchangeRateChanges();
+    }
+
+    @Override
+    public List<FlaggedChange> getFlaggedChanges() {
+        return dataStore.getFlaggedChanges();
+    }
+
+    @Override
+    public Optional<ExchangeRateChange> getRateAsOf(CurrencyCode currencyCode, LocalDateTime asOf) {
+        return dataStore.getRateAsOf(currencyCode, asOf);
+    }
+
+    @Override
+    public Stream<ExchangeRateChange> getExchangeRateChanges(CurrencyCode currencyCode, LocalDateTime from,
+                                                             LocalDateTime to) {
+        return dataStore.getExchangeRateChanges(currencyCode, from, to);
+    }
+
+    @Override
+    public FlaggedChangePublisher getFlaggedChangePublisher() {
+        return dataStore.getFlaggedChangePublisher();
+    }
+
+    @Override
+    public Set<CurrencyCode> getCurrencies() {
+        return dataStore.getCurrencies();
+    }
+
+    @Override
+    public long getVersion() {
+        return dataStore.getVersion();
+    }
+
+    @Override
+    public StoreChanges changesSince(long version) {
+        return dataStore.changesSince(version);
+    }
+
+    @Override
+    public Map<String, Double> getAveragesByMonth(CurrencyCode currencyCode) {
+        return dataStore.getAveragesByMonth(currencyCode);
+    }
+
+    @Override
+    public Map<Integer, Double> getAveragesByYear(CurrencyCode currencyCode) {
+        return dataStore.getAveragesByYear(currencyCode);
+    }
+
+    @Override
+    public Map<String, RateSummary> getSummariesByMonth(CurrencyCode currencyCode) {
+        return dataStore.getSummariesByMonth(currencyCode);
+    }
+
+    /**
+     * Thrown through the parser when the pipeline is shut down while waiting for room in the queue.
+     */
+    static class IngestInterruptedException extends RuntimeException {
+
+        IngestInterruptedException(InterruptedException cause) {
+            super(cause);
+        }
+    }
+}
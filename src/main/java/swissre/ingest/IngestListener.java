@@ -0,0 +1,42 @@
+package swissre.ingest;
+
+import java.nio.file.Path;
+
+/**
+ * Told about each file taken from the inbox once it has made its way through the {@link IngestPipeline}.
+ *
+ * Calls are made from the pipeline's recording thread, so should return quickly.
+ */
+public interface IngestListener {
+
+    /**
+     * @param file whose changes have all been recorded
+     * @param changes the number of changes read from the file
+     */
+    default void fileIngested(Path file, int changes) {
+    }
+
+    /**
+     * Told as {@link #fileIngested(Path, int)} unless overridden.
+     *
+     * @param file a revision of one already ingested, whose changes have all been recorded, those already held being
+     *             ignored as duplicates
+     * @param changes the number of changes read from the file
+     */
+    default void fileRevised(Path file, int changes) {
+        fileIngested(file, changes);
+    }
+
+    /**
+     * @param file identical to one already ingested, so skipped without being parsed
+     */
+    default void fileSkipped(Path file) {
+    }
+
+    /**
+     * @param file which could not be read or parsed, any changes read before the error have been recorded
+     * @param error found while reading or parsing the file
+     */
+    default void fileFailed(Path file, RuntimeException error) {
+    }
+}
@@ -0,0 +1,315 @@
+package swissre.ingest;
+
+import swissre.parser.FileFingerprint;
+import swissre.parser.FingerprintRegistry;
+import swissre.parser.MappedFileParser;
+import swissre.parser.Parser;
+import swissre.persistence.DataStore;
+
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.function.Function;
+
+import static java.nio.file.StandardWatchEventKinds.*;
+
+/**
+ * Continuously ingests the exchange rate files landing in an inbox directory.
+ *
+ * Ingesting is split into three stages linked by bounded queues, so a slow stage holds back the ones before it rather
+ * than letting work pile up in memory:
+ * <ol>
+ * <li>a reading thread watches the inbox with a {@link WatchService} and queues each new file,</li>
+ * <li>several parsing threads each parse a file at a time, handing its changes on in small batches,</li>
+ * <li>a single recording thread records each batch with {@link DataStore#recordAll(java.util.Collection)}.</li>
+ * </ol>
+ * As there are several parsing threads a small file landing while a large one is being parsed is not held up behind
+ * it, and as changes are handed on in batches they become queryable a batch at a time rather than a file at a time.
+ *
+ * Given a {@link FingerprintRegistry} a file identical to one already ingested is skipped rather than parsed again.
+ * Each file is checked as it is parsed, but only registered once all of its changes have been recorded, and flushed
+ * if the data store is {@link Flushable}, so a file whose changes were lost to a crash is ingested again when resent.
+ *
+ * Files already in the inbox are ingested when the pipeline starts. Hidden files are ignored, so files should be
+ * written under a hidden name and renamed into place once complete. The data store is queried while it is being
+ * recorded to, so it must be thread safe such as the {@link swissre.persistence.ConcurrentDataStore}.
+ *
+ * @author Duncan Atkinson
+ */
+public class IngestPipeline implements Closeable {
+
+    public static final int DEFAULT_QUEUE_CAPACITY = 64;
+    static final int DEFAULT_BATCH_SIZE = 1024;
+
+    private static final Path END_OF_FILES = Paths.get("");
+
+    private final Path inbox;
+    private final DataStore dataStore;
+    private final IngestListener listener;
+    private final FingerprintRegistry registry;
+    private final WatchService watchService;
+    private final BlockingQueue<Path> files;
+    private final BlockingQueue<Batch> batches;
+    private final Set<Path> seen;
+    private final Thread reader;
+    private final List<Thread> parsers;
+    private final Thread recorder;
+
+    private IngestPipeline(Path inbox, DataStore dataStore, IngestListener listener, FingerprintRegistry registry,
+                           Function<DataStore, Parser<Path>> parserFactory, int parserCount, int queueCapacity,
+                           int batchSize) throws IOException {
+        this.inbox = inbox;
+        this.dataStore = dataStore;
+        this.listener = listener;
+        this.registry = registry;
+        this.watchService = inbox.getFileSystem().newWatchService();
+        this.files = new ArrayBlockingQueue<>(queueCapacity);
+        this.batches = new ArrayBlockingQueue<>(queueCapacity);
+        this.seen = new HashSet<>();
+        this.reader = new Thread(this::readInbox, "ingest-reader");
+        this.parsers = new ArrayList<>();
+        for (int i = 0; i < parserCount; i++) {
+            BatchForwardingDataStore forwarding = new BatchForwardingDataStore(dataStore, batches, batchSize);
+            Parser<Path> parser = parserFactory.apply(forwarding);
+            parsers.add(new Thread(() -> parseFiles(parser, forwarding), "ingest-parser-" + i));
+        }
+        this.recorder = new Thread(this::recordBatches, "ingest-recorder");
+    }
+
+    /**
+     * @see #start(Path, DataStore, IngestListener, FingerprintRegistry, Function, int, int)
+     */
+    public static IngestPipeline start(Path inbox, DataStore dataStore, IngestListener listener) throws IOException {
+        return start(inbox, dataStore, listener, null);
+    }
+
+    /**
+     * @see #start(Path, DataStore, IngestListener, FingerprintRegistry, Function, int, int)
+     */
+    public static IngestPipeline start(Path inbox, DataStore dataStore, IngestListener listener,
+                                       FingerprintRegistry registry) throws IOException {
+        int parserCount = Math.max(2, Runtime.getRuntime().availableProcessors() / 2);
+        return start(inbox, dataStore, listener, registry, MappedFileParser::new, parserCount,
+                DEFAULT_QUEUE_CAPACITY);
+    }
+
+    /**
+     * @see #start(Path, DataStore, IngestListener, FingerprintRegistry, Function, int, int)
+     */
+    public static IngestPipeline start(Path inbox, DataStore dataStore, IngestListener listener,
+                                       Function<DataStore, Parser<Path>> parserFactory, int parserCount,
+                                       int queueCapacity) throws IOException {
+        return start(inbox, dataStore, listener, null, parserFactory, parserCount, queueCapacity);
+    }
+
+    /**
+     * Start ingesting the files in the inbox and any which land in it from now on.
+     *
+     * @param inbox directory to watch
+     * @param dataStore to record to, must be thread safe
+     * @param listener to tell as each file has been ingested
+     * @param registry of the files already ingested, or null to ingest every file
+     * @param parserFactory creates a parser recording to the data store given, one for each parsing thread
+     * @param parserCount the number of files which can be parsed at once
+     * @param queueCapacity the number of files and of batches of changes which can be waiting between stages
+     * @throws IOException if the inbox could not be watched
+     */
+    public static IngestPipeline start(Path inbox, DataStore dataStore, IngestListener listener,
+                                       FingerprintRegistry registry, Function<DataStore, Parser<Path>> parserFactory,
+                                       int parserCount, int queueCapacity) throws IOException {
+        IngestPipeline pipeline = new IngestPipeline(inbox, dataStore, listener, registry, parserFactory, parserCount,
+                queueCapacity, DEFAULT_BATCH_SIZE);
+        pipeline.inbox.register(pipeline.watchService, ENTRY_CREATE, ENTRY_DELETE);
+        pipeline.recorder.start();
+        pipeline.parsers.forEach(Thread::start);
+        pipeline.reader.start();
+        return pipeline;
+    }
+
+    private void readInbox() {
+        try {
+            queueFilesInInbox();
+            while (true) {
+                WatchKey key = watchService.take();
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    if (event.kind() == OVERFLOW) {
+                        queueFilesInInbox();
+                    } else if (event.kind() == ENTRY_DELETE) {
+                        seen.remove(inbox.resolve((Path) event.context()));
+                    } else {
+                        queueFile(inbox.resolve((Path) event.context()));
+                    }
+                }
+                if (!key.reset()) {
+                    return;
+                }
+            }
+        } catch (ClosedWatchServiceException | InterruptedException e) {
+            // the pipeline is being closed
+        } catch (IOException e) {
+            listener.fileFailed(inbox, new UncheckedIOException("Unable to list " + inbox, e));
+        } finally {
+            for (int i = 0; i < parsers.size(); i++) {
+                putUninterruptibly(files, END_OF_FILES);
+            }
+        }
+    }
+
+    private void queueFilesInInbox() throws IOException, InterruptedException {
+        List<Path> inInbox = new ArrayList<>();
+        try (DirectoryStream<Path> directory = Files.newDirectoryStream(inbox)) {
+            directory.forEach(inInbox::add);
+        }
+        Collections.sort(inInbox);
+        for (Path file : inInbox) {
+            queueFile(file);
+        }
+    }
+
+    private void queueFile(Path file) throws InterruptedException {
+        if (!file.getFileName().toString().startsWith(".") && Files.isRegularFile(file) && seen.add(file)) {
+            files.put(file);
+        }
+    }
+
+    private void parseFiles(Parser<Path> parser, BatchForwardingDataStore forwarding) {
+        try {
+            for (Path file = files.take(); file != END_OF_FILES; file = files.take()) {
+                forwarding.startFile(file);
+                RuntimeException error = null;
+                FileFingerprint fingerprint = null;
+                FingerprintRegistry.Status status = null;
+                try {
+                    if (registry != null) {
+                        fingerprint = FileFingerprint.of(file);
+                        status = registry.statusOf(fingerprint);
+                        if (status == FingerprintRegistry.Status.DUPLICATE) {
+                            forwarding.skipFile();
+                            continue;
+                        }
+                    }
+                    parser.receiveFile(file);
+                } catch (BatchForwardingDataStore.IngestInterruptedException e) {
+                    return;
+                } catch (RuntimeException e) {
+                    error = e;
+                }
+                forwarding.endFile(error, error == null ? fingerprint : null, status);
+            }
+        } catch (InterruptedException e) {
+            // the pipeline is being closed
+        } finally {
+            putUninterruptibly(batches, Batch.END);
+        }
+    }
+
+    private void recordBatches() {
+        Set<Path> failedFiles = new HashSet<>();
+        int parsersRunning = parsers.size();
+        while (parsersRunning > 0) {
+            Batch batch = takeUninterruptibly(batches);
+            if (batch == Batch.END) {
+                parsersRunning--;
+                continue;
+            }
+            Path file = batch.getFile();
+            try {
+                if (!batch.getChanges().isEmpty()) {
+                    dataStore.recordAll(batch.getChanges());
+                }
+            } catch (RuntimeException e) {
+                if (failedFiles.add(file)) {
+                    listener.fileFailed(file, e);
+                }
+            }
+            if (batch.isLast()) {
+                if (failedFiles.remove(file)) {
+                    continue;
+                }
+                if (batch.isSkipped()) {
+                    listener.fileSkipped(file);
+                } else if (batch.getError() != null) {
+                    listener.fileFailed(file, batch.getError());
+                } else {
+                    try {
+                        register(batch.getFingerprint());
+                        if (batch.isRevision()) {
+                            listener.fileRevised(file, batch.getChangesInFile());
+                        } else {
+                            listener.fileIngested(file, batch.getChangesInFile());
+                        }
+                    } catch (UncheckedIOException e) {
+                        listener.fileFailed(file, e);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Register a file once its changes have been recorded, making sure they are on disk first.
+     */
+    private void register(FileFingerprint fingerprint) {
+        if (fingerprint == null) {
+            return;
+        }
+        try {
+            if (dataStore instanceof Flushable) {
+                ((Flushable) dataStore).flush();
+            }
+            registry.register(fingerprint);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to register " + fingerprint, e);
+        }
+    }
+
+    private static <T> void putUninterruptibly(BlockingQueue<T> queue, T element) {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                queue.put(element);
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static <T> T takeUninterruptibly(BlockingQueue<T> queue) {
+        while (true) {
+            try {
+                return queue.take();
+            } catch (InterruptedException e) {
+                // the recorder only stops once every parser has finished
+            }
+        }
+    }
+
+    /**
+     * Wait until the pipeline has been closed and every file taken from the inbox has been recorded.
+     */
+    public void awaitTermination() throws InterruptedException {
+        recorder.join();
+    }
+
+    /**
+     * Stop watching the inbox, finishing the files already taken from it.
+     */
+    @Override
+    public void close() throws IOException {
+        watchService.close();
+        try {
+            awaitTermination();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
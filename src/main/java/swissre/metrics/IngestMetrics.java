@@ -0,0 +1,190 @@
+package swissre.metrics;
+
+import swissre.model.CurrencyCode;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+/**
+ * Counters and latency histograms for ingesting exchange rate files and querying the averages, filled in by a
+ * {@link MetricsDataStore} and a {@link swissre.parser.MetricsParser} sharing an instance.
+ *
+ * Recording a metric only adds to a {@link LongAdder} or a histogram bucket, so the hot path never allocates or takes
+ * a lock. The changes recorded and flagged are not counted on the hot path at all, they are read from the store being
+ * measured when asked for, so they are exactly the changes the store kept and not the duplicates it ignored. The
+ * metrics are read through JMX once {@link #register(String)} is called.
+ *
+ * This class is thread safe.
+ *
+ * @author Duncan Atkinson
+ */
+public class IngestMetrics implements IngestMetricsMXBean {
+
+    public static final String DOMAIN = "swissre";
+
+    private static final double NANOS_PER_SECOND = 1_000_000_000d;
+
+    private final LongAdder filesParsed = new LongAdder();
+    private final LongAdder filesFailed = new LongAdder();
+    private final LongAdder linesParsed = new LongAdder();
+    private final LatencyHistogram parseLatency = new LatencyHistogram();
+    private final LongAdder parseNanos = new LongAdder();
+
+    private final LatencyHistogram recordLatency = new LatencyHistogram();
+    private final LatencyHistogram recordAllLatency = new LatencyHistogram();
+
+    private final LatencyHistogram averagesByMonthLatency = new LatencyHistogram();
+    private final LatencyHistogram averagesByYearLatency = new LatencyHistogram();
+
+    private volatile Supplier<Map<CurrencyCode, Long>> changesRecorded = Collections::emptyMap;
+    private volatile LongSupplier flaggedChanges = () -> 0;
+
+    /**
+     * Register with the platform MBean server as {@code swissre:type=IngestMetrics,name=<name>}.
+     *
+     * @param name to tell apart the metrics of several stores in the same process
+     * @return the name registered under
+     * @throws JMException if the name is invalid or already registered
+     */
+    public ObjectName register(String name) throws JMException {
+        ObjectName objectName = new ObjectName(DOMAIN + ":type=IngestMetrics,name=" + ObjectName.quote(name));
+        ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+        return objectName;
+    }
+
+    /**
+     * @param objectName returned by {@link #register(String)}
+     */
+    public static void unregister(ObjectName objectName) throws JMException {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        if (server.isRegistered(objectName)) {
+            server.unregisterMBean(objectName);
+        }
+    }
+
+    /**
+     * @param nanos spent parsing the file
+     * @param lines read from the file, including blank ones
+     * @param failed true if the file was found to be invalid
+     */
+    public void fileParsed(long nanos, int lines, boolean failed) {
+        filesParsed.increment();
+        if (failed) {
+            filesFailed.increment();
+        }
+        linesParsed.add(lines);
+        parseNanos.add(nanos);
+        parseLatency.record(nanos);
+    }
+
+    void recordLatency(long nanos) {
+        recordLatency.record(nanos);
+    }
+
+    void recordedAll(long nanos) {
+        recordAllLatency.record(nanos);
+    }
+
+    void queriedAveragesByMonth(long nanos) {
+        averagesByMonthLatency.record(nanos);
+    }
+
+    void queriedAveragesByYear(long nanos) {
+        averagesByYearLatency.record(nanos);
+    }
+
+    /**
+     * @param changesRecorded the count of changes held by the store being measured for each of its currencies
+     */
+    void countChangesRecorded(Supplier<Map<CurrencyCode, Long>> changesRecorded) {
+        this.changesRecorded = changesRecorded;
+    }
+
+    /**
+     * @param flaggedChanges the count of changes flagged by the store being measured
+     */
+    void countFlaggedChanges(LongSupplier flaggedChanges) {
+        this.flaggedChanges = flaggedChanges;
+    }
+
+    @Override
+    public long getFilesParsed() {
+        return filesParsed.sum();
+    }
+
+    @Override
+    public long getFilesFailed() {
+        return filesFailed.sum();
+    }
+
+    @Override
+    public long getLinesParsed() {
+        return linesParsed.sum();
+    }
+
+    @Override
+    public double getLinesParsedPerSecond() {
+        long nanos = parseNanos.sum();
+        return nanos == 0 ? 0 : linesParsed.sum() * NANOS_PER_SECOND / nanos;
+    }
+
+    @Override
+    public LatencySummary getParseLatency() {
+        return parseLatency.summary();
+    }
+
+    @Override
+    public long getChangesRecorded() {
+        long changes = 0;
+        for (long changesForCurrency : changesRecorded.get().values()) {
+            changes += changesForCurrency;
+        }
+        return changes;
+    }
+
+    @Override
+    public LatencySummary getRecordLatency() {
+        return recordLatency.summary();
+    }
+
+    @Override
+    public LatencySummary getRecordAllLatency() {
+        return recordAllLatency.summary();
+    }
+
+    @Override
+    public long getFlaggedChanges() {
+        return flaggedChanges.getAsLong();
+    }
+
+    @Override
+    public double getFlagRate() {
+        long changes = getChangesRecorded();
+        return changes == 0 ? 0 : (double) getFlaggedChanges() / changes;
+    }
+
+    @Override
+    public Map<String, Long> getChangesRecordedByCurrency() {
+        Map<String, Long> byCurrency = new TreeMap<>();
+        changesRecorded.get().forEach((currencyCode, changes) -> byCurrency.put(currencyCode.getVal(), changes));
+        return byCurrency;
+    }
+
+    @Override
+    public LatencySummary getAveragesByMonthLatency() {
+        return averagesByMonthLatency.summary();
+    }
+
+    @Override
+    public LatencySummary getAveragesByYearLatency() {
+        return averagesByYearLatency.summary();
+    }
+}
@@ -0,0 +1,59 @@
+package swissre.metrics;
+
+import java.util.Map;
+
+/**
+ * The management interface of {@link IngestMetrics}, registered with the platform MBean server.
+ */
+public interface IngestMetricsMXBean {
+
+    /**
+     * @return the number of files parsed, including those which failed
+     */
+    long getFilesParsed();
+
+    long getFilesFailed();
+
+    /**
+     * @return the number of lines read by the parsers, including blank ones
+     */
+    long getLinesParsed();
+
+    /**
+     * @return the lines parsed per second spent parsing
+     */
+    double getLinesParsedPerSecond();
+
+    LatencySummary getParseLatency();
+
+    /**
+     * @return the number of changes held by the store, not including duplicates it ignored
+     */
+    long getChangesRecorded();
+
+    /**
+     * @return the latency of the records sampled, see {@link MetricsDataStore}
+     */
+    LatencySummary getRecordLatency();
+
+    LatencySummary getRecordAllLatency();
+
+    /**
+     * @return the number of changes flagged by the store
+     */
+    long getFlaggedChanges();
+
+    /**
+     * @return the changes flagged per change recorded
+     */
+    double getFlagRate();
+
+    /**
+     * @return the number of changes held by the store for each currency
+     */
+    Map<String, Long> getChangesRecordedByCurrency();
+
+    LatencySummary getAveragesByMonthLatency();
+
+    LatencySummary getAveragesByYearLatency();
+}
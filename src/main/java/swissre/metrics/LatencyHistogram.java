@@ -0,0 +1,73 @@
+package swissre.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A histogram of latencies in nanoseconds with a bucket per power of two, so recording is a leading zero count and an
+ * add without allocating. Percentiles are reported as the upper bound of the bucket they fall in, so are within a
+ * factor of two of the true value.
+ *
+ * This class is thread safe.
+ */
+public class LatencyHistogram {
+
+    private static final int BUCKETS = Long.SIZE + 1;
+
+    /**
+     * Bucket i holds the latencies from 2^(i-1) up to 2^i - 1, bucket 0 holds latencies of zero.
+     */
+    private final LongAdder[] buckets;
+    private final LongAdder totalNanos;
+    private final AtomicLong maxNanos;
+
+    public LatencyHistogram() {
+        this.buckets = new LongAdder[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            buckets[i] = new LongAdder();
+        }
+        this.totalNanos = new LongAdder();
+        this.maxNanos = new AtomicLong();
+    }
+
+    /**
+     * @param nanos the latency to record, negative latencies from a clock going backwards count as zero
+     */
+    public void record(long nanos) {
+        long latency = Math.max(0, nanos);
+        buckets[Long.SIZE - Long.numberOfLeadingZeros(latency)].increment();
+        totalNanos.add(latency);
+        if (latency > maxNanos.get()) {
+            maxNanos.accumulateAndGet(latency, Math::max);
+        }
+    }
+
+    /**
+     * @return the counts, totals and percentiles so far, which are only approximately consistent with each other
+     * while latencies are being recorded
+     */
+    public LatencySummary summary() {
+        long[] counts = new long[BUCKETS];
+        long count = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] = buckets[i].sum();
+            count += counts[i];
+        }
+        long max = maxNanos.get();
+        return new LatencySummary(count, count == 0 ? 0 : (double) totalNanos.sum() / count,
+                percentile(counts, count, 0.5, max), percentile(counts, count, 0.99, max), max);
+    }
+
+    private static long percentile(long[] counts, long count, double percentile, long max) {
+        long rank = (long) Math.ceil(count * percentile);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= rank && seen > 0) {
+                long upperBound = i == 0 ? 0 : i == Long.SIZE ? Long.MAX_VALUE : (1L << i) - 1;
+                return Math.min(upperBound, max);
+            }
+        }
+        return 0;
+    }
+}
@@ -0,0 +1,61 @@
+package swissre.metrics;
+
+import java.beans.ConstructorProperties;
+
+/**
+ * The latencies recorded by a {@link LatencyHistogram}, in nanoseconds. Exposed through JMX as composite data.
+ */
+public class LatencySummary {
+
+    private final long count;
+    private final double meanNanos;
+    private final long medianNanos;
+    private final long percentile99Nanos;
+    private final long maxNanos;
+
+    @ConstructorProperties({"count", "meanNanos", "medianNanos", "percentile99Nanos", "maxNanos"})
+    public LatencySummary(long count, double meanNanos, long medianNanos, long percentile99Nanos, long maxNanos) {
+        this.count = count;
+        this.meanNanos = meanNanos;
+        this.medianNanos = medianNanos;
+        this.percentile99Nanos = percentile99Nanos;
+        this.maxNanos = maxNanos;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public double getMeanNanos() {
+        return meanNanos;
+    }
+
+    /**
+     * @return the upper bound of the bucket holding the median
+     */
+    public long getMedianNanos() {
+        return medianNanos;
+    }
+
+    /**
+     * @return the upper bound of the bucket holding the 99th percentile
+     */
+    public long getPercentile99Nanos() {
+        return percentile99Nanos;
+    }
+
+    public long getMaxNanos() {
+        return maxNanos;
+    }
+
+    @Override
+    public String toString() {
+        return "LatencySummary{" +
+                "count=" + count +
+                ", meanNanos=" + meanNanos +
+                ", medianNanos=" + medianNanos +
+                ", percentile99Nanos=" + percentile99Nanos +
+                ", maxNanos=" + maxNanos +
+                '}';
+    }
+}
@@ -0,0 +1,160 @@
+package swissre.metrics;
+
+import swissre.model.CurrencyCode;
+import swissre.model.ExchangeRateChange;
+import swissre.model.FlaggedChange;
+import swissre.model.RateSummary;
+import swissre.persistence.DataStore;
+import swissre.persistence.FlaggedChangePublisher;
+import swissre.persistence.StoreChanges;
+
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.stream.Stream;
+
+/**
+ * Decorates another {@link DataStore} to time recording and the average queries into {@link IngestMetrics}, and to
+ * count the changes it holds and has flagged. Everything else goes straight to the store decorated.
+ *
+ * Reading the clock costs more than recording a change to the in memory stores, so only one call to
+ * {@link #record(ExchangeRateChange)} in every so many is timed. The calls are counted without synchronisation, so
+ * with several recording threads the sampling is only roughly every so many. Batches and queries are always timed.
+ *
+ * Nothing is counted as changes are recorded. The changes held are counted from the store's monthly summaries, so
+ * duplicates it ignored are left out, and the changes flagged from its {@link FlaggedChangePublisher}. Both are read
+ * as the metrics are, so reading the metrics while changes are recorded needs a thread safe store such as the
+ * {@link swissre.persistence.ConcurrentDataStore}.
+ *
+ * @author Duncan Atkinson
+ */
+public class MetricsDataStore implements DataStore {
+
+    public static final int DEFAULT_SAMPLE_EVERY = 64;
+
+    private final DataStore dataStore;
+    private final IngestMetrics metrics;
+    private final int sampleMask;
+    private int records;
+
+    public MetricsDataStore(DataStore dataStore, IngestMetrics metrics) {
+        this(dataStore, metrics, DEFAULT_SAMPLE_EVERY);
+    }
+
+    /**
+     * @param sampleEvery time one record in this many, which must be a power of two, 1 to time every record
+     */
+    public MetricsDataStore(DataStore dataStore, IngestMetrics metrics, int sampleEvery) {
+        if (Integer.bitCount(sampleEvery) != 1) {
+            throw new IllegalArgumentException("Sample every must be a power of two, not " + sampleEvery);
+        }
+        this.dataStore = dataStore;
+        this.metrics = metrics;
+        this.sampleMask = sampleEvery - 1;
+        metrics.countChangesRecorded(() -> changesHeld(dataStore));
+        metrics.countFlaggedChanges(() -> dataStore.getFlaggedChangePublisher().getFlaggedCount());
+    }
+
+    private static Map<CurrencyCode, Long> changesHeld(DataStore dataStore) {
+        Map<CurrencyCode, Long> byCurrency = new HashMap<>();
+        for (CurrencyCode currencyCode : dataStore.getCurrencies()) {
+            long changes = 0;
+            for (RateSummary summary : dataStore.getSummariesByMonth(currencyCode).values()) {
+                changes += summary.getCount();
+            }
+            byCurrency.put(currencyCode, changes);
+        }
+        return byCurrency;
+    }
+
+    public IngestMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * The untimed path is only the sampling check and the call to the store decorated, the timed one being kept out
+     * of line so it does not take from the budget the JIT has to inline the store into the caller.
+     */
+    @Override
+    public void record(ExchangeRateChange exchangeRateChange) {
+        if ((records++ & sampleMask) != 0) {
+            dataStore.record(exchangeRateChange);
+        } else {
+            recordTimed(exchangeRateChange);
+        }
+    }
+
+    private void recordTimed(ExchangeRateChange exchangeRateChange) {
+        long start = System.nanoTime();
+        dataStore.record(exchangeRateChange);
+        metrics.recordLatency(System.nanoTime() - start);
+    }
+
+    @Override
+    public void recordAll(Collection<ExchangeRateChange> exchangeRateChanges) {
+        long start = System.nanoTime();
+        dataStore.recordAll(exchangeRateChanges);
+        metrics.recordedAll(System.nanoTime() - start);
+    }
+
+    @Override
+    public Map<String, Double> getAveragesByMonth(CurrencyCode currencyCode) {
+        long start = System.nanoTime();
+        Map<String, Double> averages = dataStore.getAveragesByMonth(currencyCode);
+        metrics.queriedAveragesByMonth(System.nanoTime() - start);
+        return averages;
+    }
+
+    @Override
+    public Map<Integer, Double> getAveragesByYear(CurrencyCode currencyCode) {
+        long start = System.nanoTime();
+        Map<Integer, Double> averages = dataStore.getAveragesByYear(currencyCode);
+        metrics.queriedAveragesByYear(System.nanoTime() - start);
+        return averages;
+    }
+
+    @Override
+    public Set<ExchangeRateChange> getExchangeRateChanges() {
+        return dataStore.getExchangeRateChanges();
+    }
+
+    @Override
+    public List<FlaggedChange> getFlaggedChanges() {
+        return dataStore.getFlaggedChanges();
+    }
+
+    @Override
+    public Optional<ExchangeRateChange> getRateAsOf(CurrencyCode currencyCode, LocalDateTime asOf) {
+        return dataStore.getRateAsOf(currencyCode, asOf);
+    }
+
+    @Override
+    public Stream<ExchangeRateChange> getExchangeRateChanges(CurrencyCode currencyCode, LocalDateTime from,
+                                                             LocalDateTime to) {
+        return dataStore.getExchangeRateChanges(currencyCode, from, to);
+    }
+
+    @Override
+    public FlaggedChangePublisher getFlaggedChangePublisher() {
+        return dataStore.getFlaggedChangePublisher();
+    }
+
+    @Override
+    public Set<CurrencyCode> getCurrencies() {
+        return dataStore.getCurrencies();
+    }
+
+    @Override
+    public long getVersion() {
+        return dataStore.getVersion();
+    }
+
+    @Override
+    public StoreChanges changesSince(long version) {
+        return dataStore.changesSince(version);
+    }
+
+    @Override
+    public Map<String, RateSummary> getSummariesByMonth(CurrencyCode currencyCode) {
+        return dataStore.getSummariesByMonth(currencyCode);
+    }
+}
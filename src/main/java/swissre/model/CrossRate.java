@@ -0,0 +1,65 @@
+package swissre.model;
+
+import java.time.LocalDateTime;
+import java.util.Objects;
+
+/**
+ * The rate between two currencies at a point in time, being the number of units of the quote currency one unit of
+ * the base currency buys e.g. a EUR/GBP rate of 0.88 means 1 EUR = 0.88 GBP.
+ */
+public class CrossRate {
+
+    private final CurrencyCode baseCurrency;
+    private final CurrencyCode quoteCurrency;
+    private final LocalDateTime timestamp;
+    private final double rate;
+
+    public CrossRate(CurrencyCode baseCurrency, CurrencyCode quoteCurrency, LocalDateTime timestamp, double rate) {
+        this.baseCurrency = baseCurrency;
+        this.quoteCurrency = quoteCurrency;
+        this.timestamp = timestamp;
+        this.rate = rate;
+    }
+
+    public CurrencyCode getBaseCurrency() {
+        return baseCurrency;
+    }
+
+    public CurrencyCode getQuoteCurrency() {
+        return quoteCurrency;
+    }
+
+    public LocalDateTime getTimestamp() {
+        return timestamp;
+    }
+
+    public double getRate() {
+        return rate;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        CrossRate crossRate = (CrossRate) o;
+        return Double.compare(crossRate.rate, rate) == 0 &&
+                Objects.equals(baseCurrency, crossRate.baseCurrency) &&
+                Objects.equals(quoteCurrency, crossRate.quoteCurrency) &&
+                Objects.equals(timestamp, crossRate.timestamp);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(baseCurrency, quoteCurrency, timestamp, rate);
+    }
+
+    @Override
+    public String toString() {
+        return "CrossRate{" +
+                "baseCurrency=" + baseCurrency +
+                ", quoteCurrency=" + quoteCurrency +
+                ", timestamp=" + timestamp +
+                ", rate=" + rate +
+                '}';
+    }
+}
@@ -1,41 +1,121 @@
 package swissre.model;
 
-import java.util.Objects;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 /**
  * Represents an ISO 4217 currency code.
+ *
+ * There is only ever one instance of each code so they can be compared by identity. The three letters are packed into
+ * an int which indexes a table of every possible code, so looking a code up never allocates once it has been seen.
+ * Each code is also given a small ordinal in the order codes are first seen, which stores can use to index arrays
+ * instead of hashing.
  */
-public class CurrencyCode {
+public final class CurrencyCode {
+
+    private static final int LETTERS = 26;
+    private static final AtomicReferenceArray<CurrencyCode> CODES = new AtomicReferenceArray<>(LETTERS * LETTERS * LETTERS);
+    private static int codesSeen;
 
     private final String val;
+    private final int packedLetters;
+    private final int ordinal;
 
-    private CurrencyCode(String val) {
+    private CurrencyCode(String val, int packedLetters, int ordinal) {
         this.val = val;
+        this.packedLetters = packedLetters;
+        this.ordinal = ordinal;
     }
 
+    /**
+     * @param currency three upper case letters
+     * @throws IllegalArgumentException if the currency is not three upper case letters
+     */
     public static CurrencyCode valueOf(String currency) {
-        return new CurrencyCode(currency);
+        if (currency.length() != 3) {
+            throw new IllegalArgumentException("Currency codes must be three letters, found '" + currency + "'");
+        }
+        return valueOf(currency.charAt(0), currency.charAt(1), currency.charAt(2));
+    }
+
+    /**
+     * @throws IllegalArgumentException if any of the letters are not upper case letters
+     */
+    public static CurrencyCode valueOf(char first, char second, char third) {
+        int packedLetters = (letterIndex(first) * LETTERS + letterIndex(second)) * LETTERS + letterIndex(third);
+        CurrencyCode currencyCode = CODES.get(packedLetters);
+        return currencyCode != null ? currencyCode : register(packedLetters, first, second, third);
+    }
+
+    /**
+     * @param packedLetters as returned by {@link #getPackedLetters()}
+     * @throws IllegalArgumentException if the value does not represent three letters
+     */
+    public static CurrencyCode fromPackedLetters(int packedLetters) {
+        if (packedLetters < 0 || packedLetters >= CODES.length()) {
+            throw new IllegalArgumentException("Not a currency code " + packedLetters);
+        }
+        return valueOf(
+                (char) ('A' + packedLetters / (LETTERS * LETTERS)),
+                (char) ('A' + packedLetters / LETTERS % LETTERS),
+                (char) ('A' + packedLetters % LETTERS));
+    }
+
+    /**
+     * @return the number of distinct codes seen so far, every ordinal is less than this.
+     */
+    public static synchronized int getCodesSeen() {
+        return codesSeen;
+    }
+
+    private static synchronized CurrencyCode register(int packedLetters, char first, char second, char third) {
+        CurrencyCode currencyCode = CODES.get(packedLetters);
+        if (currencyCode == null) {
+            currencyCode = new CurrencyCode(new String(new char[]{first, second, third}), packedLetters, codesSeen++);
+            CODES.set(packedLetters, currencyCode);
+        }
+        return currencyCode;
+    }
+
+    private static int letterIndex(char letter) {
+        if (letter < 'A' || letter > 'Z') {
+            throw new IllegalArgumentException("Currency codes must be upper case letters, found '" + letter + "'");
+        }
+        return letter - 'A';
     }
 
     public String getVal() {
         return val;
     }
 
+    /**
+     * @return the three letters packed into a number from 0 to 17575, which is the same in every process.
+     */
+    public int getPackedLetters() {
+        return packedLetters;
+    }
+
+    /**
+     * @return a small number unique to this code within this process, given out in the order codes are first seen.
+     */
+    public int getOrdinal() {
+        return ordinal;
+    }
+
     @Override
     public String toString() {
         return val;
     }
 
+    /**
+     * Codes are canonical so equality is identity.
+     */
     @Override
     public boolean equals(Object o) {
-        if (this == o) return true;
-        if (o == null || getClass() != o.getClass()) return false;
-        CurrencyCode currencyCode = (CurrencyCode) o;
-        return Objects.equals(val, currencyCode.val);
+        return this == o;
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(val);
+        return ordinal;
     }
 }
@@ -0,0 +1,63 @@
+package swissre.model;
+
+import java.util.Objects;
+
+/**
+ * The number, average, lowest and highest of the rates recorded for a currency over a period such as a month.
+ */
+public class RateSummary {
+
+    private final long count;
+    private final double average;
+    private final double min;
+    private final double max;
+
+    public RateSummary(long count, double average, double min, double max) {
+        this.count = count;
+        this.average = average;
+        this.min = min;
+        this.max = max;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public double getAverage() {
+        return average;
+    }
+
+    public double getMin() {
+        return min;
+    }
+
+    public double getMax() {
+        return max;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        RateSummary that = (RateSummary) o;
+        return count == that.count &&
+                Double.compare(that.average, average) == 0 &&
+                Double.compare(that.min, min) == 0 &&
+                Double.compare(that.max, max) == 0;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(count, average, min, max);
+    }
+
+    @Override
+    public String toString() {
+        return "RateSummary{" +
+                "count=" + count +
+                ", average=" + average +
+                ", min=" + min +
+                ", max=" + max +
+                '}';
+    }
+}
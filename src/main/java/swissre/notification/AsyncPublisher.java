@@ -0,0 +1,239 @@
+package swissre.notification;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A {@link Flow.Publisher} which never blocks the thread submitting items, much like the JDK's
+ * {@code SubmissionPublisher}.
+ *
+ * Each subscriber has its own bounded buffer and items are delivered from it on the executor as the subscriber
+ * requests them, so a slow subscriber holds up neither the submitting thread nor the other subscribers. A subscriber
+ * which falls so far behind that its buffer fills is sent {@link Flow.Subscriber#onError(Throwable)} with a
+ * {@link BufferOverflowException} and dropped, as is a subscriber which throws.
+ *
+ * @param <T> being the type of item published
+ * @author Duncan Atkinson
+ */
+public class AsyncPublisher<T> implements Flow.Publisher<T>, AutoCloseable {
+
+    public static final int DEFAULT_BUFFER_CAPACITY = 1024;
+
+    private final Executor executor;
+    private final int bufferCapacity;
+    private final List<BufferedSubscription<T>> subscriptions;
+    private volatile boolean closed;
+
+    public AsyncPublisher() {
+        this(ForkJoinPool.commonPool(), DEFAULT_BUFFER_CAPACITY);
+    }
+
+    /**
+     * @param executor to deliver items on
+     * @param bufferCapacity the number of items each subscriber can fall behind by
+     */
+    public AsyncPublisher(Executor executor, int bufferCapacity) {
+        this.executor = executor;
+        this.bufferCapacity = bufferCapacity;
+        this.subscriptions = new CopyOnWriteArrayList<>();
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super T> subscriber) {
+        subscribe(subscriber, Collections.emptyList());
+    }
+
+    /**
+     * Subscribe, delivering the items given before any submitted from now on.
+     *
+     * @param subscriber to add
+     * @param replay items to deliver first, which do not count towards the buffer capacity
+     */
+    public void subscribe(Flow.Subscriber<? super T> subscriber, Collection<? extends T> replay) {
+        BufferedSubscription<T> subscription =
+                new BufferedSubscription<>(subscriber, executor, bufferCapacity + replay.size());
+        replay.forEach(subscription::offer);
+        if (closed) {
+            subscription.complete();
+        } else {
+            subscriptions.add(subscription);
+        }
+        subscription.schedule();
+    }
+
+    /**
+     * Deliver the item to every subscriber without waiting for any of them.
+     */
+    public void submit(T item) {
+        if (closed) {
+            throw new IllegalStateException("Publisher is closed");
+        }
+        for (BufferedSubscription<T> subscription : subscriptions) {
+            if (!subscription.offer(item)) {
+                subscriptions.remove(subscription);
+            }
+        }
+    }
+
+    /**
+     * @return the number of subscribers still receiving items
+     */
+    public int getSubscriberCount() {
+        subscriptions.removeIf(BufferedSubscription::isCancelled);
+        return subscriptions.size();
+    }
+
+    /**
+     * Complete every subscriber once it has been delivered the items already submitted.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        subscriptions.forEach(BufferedSubscription::complete);
+        subscriptions.clear();
+    }
+
+    /**
+     * Sent to a subscriber which fell too far behind.
+     */
+    public static class BufferOverflowException extends RuntimeException {
+
+        BufferOverflowException(int capacity) {
+            super("Subscriber fell more than " + capacity + " items behind");
+        }
+    }
+
+    /**
+     * A subscriber's buffer and demand. Delivery runs on the executor with only one drain running at a time, which
+     * is what keeps calls to the subscriber one at a time.
+     */
+    private static final class BufferedSubscription<T> implements Flow.Subscription, Runnable {
+
+        private final Flow.Subscriber<? super T> subscriber;
+        private final Executor executor;
+        private final int capacity;
+        private final Queue<T> buffer;
+        private final AtomicInteger buffered;
+        private final AtomicLong demand;
+        private final AtomicInteger drainsPending;
+        private volatile boolean cancelled;
+        private volatile boolean completed;
+        private volatile Throwable error;
+        private boolean subscribed;
+
+        BufferedSubscription(Flow.Subscriber<? super T> subscriber, Executor executor, int capacity) {
+            this.subscriber = subscriber;
+            this.executor = executor;
+            this.capacity = capacity;
+            this.buffer = new ConcurrentLinkedQueue<>();
+            this.buffered = new AtomicInteger();
+            this.demand = new AtomicLong();
+            this.drainsPending = new AtomicInteger();
+        }
+
+        /**
+         * @return false if the subscription has been cancelled or has just overflowed
+         */
+        boolean offer(T item) {
+            if (cancelled || error != null) {
+                return false;
+            }
+            if (buffered.incrementAndGet() > capacity) {
+                buffered.decrementAndGet();
+                fail(new BufferOverflowException(capacity));
+                return false;
+            }
+            buffer.add(item);
+            schedule();
+            return true;
+        }
+
+        void complete() {
+            completed = true;
+            schedule();
+        }
+
+        boolean isCancelled() {
+            return cancelled;
+        }
+
+        private void fail(Throwable throwable) {
+            error = throwable;
+            schedule();
+        }
+
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                fail(new IllegalArgumentException("Must request a positive number of items, not " + n));
+                return;
+            }
+            demand.accumulateAndGet(n, (current, more) -> current + more < 0 ? Long.MAX_VALUE : current + more);
+            schedule();
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+        }
+
+        void schedule() {
+            if (drainsPending.getAndIncrement() == 0) {
+                try {
+                    executor.execute(this);
+                } catch (RejectedExecutionException e) {
+                    cancelled = true;
+                }
+            }
+        }
+
+        @Override
+        public void run() {
+            int pending = drainsPending.get();
+            while (true) {
+                try {
+                    drain();
+                } catch (RuntimeException e) {
+                    cancelled = true; // a subscriber breaking the rules by throwing is dropped
+                }
+                pending = drainsPending.addAndGet(-pending);
+                if (pending == 0) {
+                    return;
+                }
+            }
+        }
+
+        private void drain() {
+            if (!subscribed) {
+                subscribed = true;
+                subscriber.onSubscribe(this);
+            }
+            while (!cancelled) {
+                if (error != null) {
+                    cancelled = true;
+                    subscriber.onError(error);
+                    return;
+                }
+                if (demand.get() > 0) {
+                    T item = buffer.poll();
+                    if (item != null) {
+                        buffered.decrementAndGet();
+                        demand.decrementAndGet();
+                        subscriber.onNext(item);
+                        continue;
+                    }
+                }
+                if (completed && buffer.isEmpty()) {
+                    cancelled = true;
+                    subscriber.onComplete();
+                }
+                return;
+            }
+        }
+    }
+}
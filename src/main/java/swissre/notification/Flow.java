@@ -0,0 +1,54 @@
+package swissre.notification;
+
+/**
+ * The interfaces of reactive streams as found in {@code java.util.concurrent.Flow} from Java 9, repeated here as this
+ * project targets Java 8. They follow the same rules so moving to the JDK's versions is only a change of imports.
+ *
+ * @author Duncan Atkinson
+ */
+public final class Flow {
+
+    private Flow() {
+    }
+
+    /**
+     * A source of items which are delivered to each {@link Subscriber} only as fast as it requests them.
+     */
+    public interface Publisher<T> {
+
+        /**
+         * Add a subscriber, which is sent {@link Subscriber#onSubscribe(Subscription)} before anything else.
+         */
+        void subscribe(Subscriber<? super T> subscriber);
+    }
+
+    /**
+     * Receives the items of a {@link Publisher}, its methods are called one at a time and never concurrently.
+     */
+    public interface Subscriber<T> {
+
+        void onSubscribe(Subscription subscription);
+
+        void onNext(T item);
+
+        void onError(Throwable throwable);
+
+        void onComplete();
+    }
+
+    /**
+     * The link between a {@link Publisher} and one of its {@link Subscriber}s.
+     */
+    public interface Subscription {
+
+        /**
+         * Allow up to n more items to be delivered, n must be positive.
+         */
+        void request(long n);
+
+        /**
+         * Stop delivering items, some may still be delivered if already on their way.
+         */
+        void cancel();
+    }
+}
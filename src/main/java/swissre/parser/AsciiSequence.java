@@ -0,0 +1,52 @@
+package swissre.parser;
+
+import java.nio.ByteBuffer;
+
+import static java.nio.charset.StandardCharsets.US_ASCII;
+
+/**
+ * A reusable {@link CharSequence} view over a range of single byte characters in a {@link ByteBuffer}, which lets a
+ * line be examined without copying it onto the heap.
+ *
+ * Please note that this class is not thread safe.
+ */
+class AsciiSequence implements CharSequence {
+
+    private ByteBuffer buffer;
+    private int start;
+    private int end;
+
+    /**
+     * Point this sequence at a new range, the buffer must not be changed while the sequence is in use.
+     */
+    AsciiSequence set(ByteBuffer buffer, int start, int end) {
+        this.buffer = buffer;
+        this.start = start;
+        this.end = end;
+        return this;
+    }
+
+    @Override
+    public int length() {
+        return end - start;
+    }
+
+    @Override
+    public char charAt(int index) {
+        return (char) (buffer.get(start + index) & 0xff);
+    }
+
+    @Override
+    public CharSequence subSequence(int from, int to) {
+        return toString().substring(from, to);
+    }
+
+    @Override
+    public String toString() {
+        byte[] bytes = new byte[length()];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = buffer.get(start + i);
+        }
+        return new String(bytes, US_ASCII);
+    }
+}
@@ -0,0 +1,189 @@
+package swissre.parser;
+
+import swissre.model.ExchangeRateChange;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import static java.nio.channels.FileChannel.MapMode.READ_ONLY;
+import static swissre.parser.LineMarker.END_OF_EXCHANGE_RATES;
+
+/**
+ * Parses the exchange rate lines which start within one range of a mapped file, so the exchange rates of a large file
+ * can be split into chunks and parsed in parallel.
+ *
+ * A chunk owns every line whose first byte falls within its range, a line crossing the end of the range is read in
+ * full from the following bytes. Parsing stops at the end of the range, at the {@link LineMarker#END_OF_EXCHANGE_RATES}
+ * line or at the first malformed line, unless lenient when malformed lines are kept to be quarantined. Line numbers
+ * are counted from the start of the chunk as the number of lines in the chunks before it is not known until they have
+ * been parsed.
+ */
+class ExchangeRateChunk implements Callable<ExchangeRateChunk> {
+
+    private final FileChannel channel;
+    private final long fileSize;
+    private final long start;
+    private final long end;
+    private final boolean startsOnLine;
+    private final int maxLineLength;
+    private final boolean lenient;
+    private final FieldLayout fieldLayout;
+
+    private final List<ExchangeRateChange> changes = new ArrayList<>();
+    private final List<String> quarantinedLines = new ArrayList<>();
+    private final List<Integer> quarantinedLineCounts = new ArrayList<>();
+    private final List<String> quarantineReasons = new ArrayList<>();
+    private int lineCount;
+    private long endOfExchangeRatesOffset = -1;
+    private String malformedLine;
+    private boolean lineTooLong;
+
+    /**
+     * @param start of the range of the file, in bytes
+     * @param end of the range of the file, exclusive
+     * @param startsOnLine true if start is known to be the start of a line
+     * @param maxLineLength the longest line which may be read past the end of the range
+     * @param lenient true to carry on past malformed lines, keeping them to be quarantined
+     * @param fieldLayout of the exchange rate lines declared by the file
+     */
+    ExchangeRateChunk(FileChannel channel, long fileSize, long start, long end, boolean startsOnLine, int maxLineLength,
+                      boolean lenient, FieldLayout fieldLayout) {
+        this.channel = channel;
+        this.fileSize = fileSize;
+        this.start = start;
+        this.end = end;
+        this.startsOnLine = startsOnLine;
+        this.maxLineLength = maxLineLength;
+        this.lenient = lenient;
+        this.fieldLayout = fieldLayout;
+    }
+
+    @Override
+    public ExchangeRateChunk call() {
+        long mappedFrom = startsOnLine ? start : start - 1;
+        MappedByteBuffer buffer;
+        try {
+            buffer = channel.map(READ_ONLY, mappedFrom, Math.min(fileSize, end + maxLineLength) - mappedFrom);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        boolean mappedToEndOfFile = mappedFrom + buffer.limit() == fileSize;
+        int rangeEnd = (int) (end - mappedFrom);
+        int position = (int) (start - mappedFrom);
+        if (!startsOnLine && buffer.get(position - 1) != '\n') {
+            position = indexOfNewline(buffer, position) + 1;
+            if (position == 0) {
+                return this; // the line which started in an earlier chunk runs through the whole of this one
+            }
+        }
+
+        ExchangeRateLineDecoder decoder = new ExchangeRateLineDecoder(fieldLayout);
+        AsciiSequence line = new AsciiSequence();
+        while (position < rangeEnd) {
+            int lineEnd = indexOfNewline(buffer, position);
+            if (lineEnd < 0 && !mappedToEndOfFile) {
+                lineCount++;
+                lineTooLong = true;
+                return this;
+            }
+            int next = lineEnd < 0 ? buffer.limit() : lineEnd + 1;
+            if (lineEnd < 0) {
+                lineEnd = buffer.limit();
+            }
+            if (lineEnd > position && buffer.get(lineEnd - 1) == '\r') {
+                lineEnd--;
+            }
+            line.set(buffer, position, lineEnd);
+            position = next;
+            lineCount++;
+
+            if (line.length() == 0) {
+                continue;
+            }
+            if (END_OF_EXCHANGE_RATES.asString().contentEquals(line)) {
+                endOfExchangeRatesOffset = mappedFrom + position;
+                return this;
+            }
+            if (decoder.decode(line)) {
+                changes.add(decoder.getExchangeRateChange());
+            } else if (lenient) {
+                quarantinedLines.add(line.toString());
+                quarantinedLineCounts.add(lineCount);
+                quarantineReasons.add(decoder.getFailure());
+            } else {
+                malformedLine = line.toString();
+                return this;
+            }
+        }
+        return this;
+    }
+
+    private static int indexOfNewline(MappedByteBuffer buffer, int from) {
+        int limit = buffer.limit();
+        for (int i = from; i < limit; i++) {
+            if (buffer.get(i) == '\n') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return the exchange rate changes parsed, up to any malformed line
+     */
+    List<ExchangeRateChange> getChanges() {
+        return changes;
+    }
+
+    /**
+     * @return the number of lines read including blank ones, the end of exchange rates line and any malformed line
+     */
+    int getLineCount() {
+        return lineCount;
+    }
+
+    /**
+     * @return true if the end of exchange rates line was found in this chunk
+     */
+    boolean foundEndOfExchangeRates() {
+        return endOfExchangeRatesOffset >= 0;
+    }
+
+    /**
+     * @return the offset in the file of the line after the end of exchange rates line
+     */
+    long getEndOfExchangeRatesOffset() {
+        return endOfExchangeRatesOffset;
+    }
+
+    /**
+     * @param report to add the malformed lines skipped by a lenient chunk to
+     * @param firstLineNumber the line number of the first line of this chunk
+     */
+    void quarantineInto(QuarantineReport report, int firstLineNumber) {
+        for (int i = 0; i < quarantinedLines.size(); i++) {
+            report.add(firstLineNumber + quarantinedLineCounts.get(i) - 1, quarantinedLines.get(i),
+                    quarantineReasons.get(i));
+        }
+    }
+
+    /**
+     * @param firstLineNumber the line number of the first line of this chunk
+     * @return the error found parsing this chunk, or null if there wasn't one
+     */
+    InvalidExchangeRateFileException getError(int firstLineNumber) {
+        int lineNumber = firstLineNumber + lineCount - 1;
+        if (lineTooLong) {
+            return new InvalidExchangeRateFileException("Line " + lineNumber + " is longer than " + maxLineLength + " bytes");
+        }
+        if (malformedLine != null) {
+            return LineParser.unexpectedExchangeRateFormat(malformedLine, lineNumber);
+        }
+        return null;
+    }
+}
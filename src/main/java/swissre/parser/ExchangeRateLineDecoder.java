@@ -0,0 +1,310 @@
+package swissre.parser;
+
+import swissre.model.CurrencyCode;
+import swissre.model.ExchangeRateChange;
+
+import java.time.LocalDateTime;
+
+import static java.time.ZoneOffset.UTC;
+import static swissre.parser.FieldLayout.*;
+
+/**
+ * Decodes exchange rate lines such as {@code CCY|rate|HH:mm:ss MM/dd/yyyy|} straight from the characters of the line,
+ * without splitting it or creating any intermediate objects. The order of the columns is given by a {@link FieldLayout},
+ * columns which are not needed are skipped without being read.
+ *
+ * Rates with up to 15 significant digits, which covers every rate seen in practice, are converted with a single
+ * exactly rounded division so they are identical to {@link Double#parseDouble(String)}; anything else falls back to
+ * {@link Double#parseDouble(String)}. Dates are resolved as {@link java.time.format.ResolverStyle#SMART} would, so a
+ * day past the end of the month is moved back to the last day of the month and 24:00:00 is midnight the next day.
+ *
+ * A line which fails to decode leaves the reason in {@link #getFailure()}, naming the field at fault as the field list
+ * does, such as {@code Invalid EXCHANGE_RATE} or {@code Missing LAST_UPDATE}.
+ *
+ * Please note that this class is not thread safe, the decoded values are only valid until the next line is decoded.
+ *
+ * @author Duncan Atkinson
+ */
+final class ExchangeRateLineDecoder {
+
+    private static final char SEPARATOR = '|';
+    private static final long MAX_EXACT_MANTISSA = 1L << 53;
+    private static final double[] POWERS_OF_TEN = new double[23];
+    private static final long DAYS_0000_TO_1970 = 719528L;
+    private static final int SECONDS_PER_DAY = 86400;
+
+    static {
+        POWERS_OF_TEN[0] = 1;
+        for (int i = 1; i < POWERS_OF_TEN.length; i++) {
+            POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;
+        }
+    }
+
+    private final byte[] steps;
+    private final boolean trailingFields;
+
+    private CharSequence line;
+    private int length;
+    private int position;
+
+    private int currencyStart;
+    private double rate;
+    private long epochSecond;
+    private String failure;
+
+    /**
+     * @param layout of the columns of the lines to decode
+     */
+    ExchangeRateLineDecoder(FieldLayout layout) {
+        this.steps = layout.getSteps();
+        this.trailingFields = layout.hasTrailingFields();
+    }
+
+    /**
+     * @param line to decode
+     * @return true if the line was a well formed exchange rate, in which case the decoded values can be read,
+     * otherwise the reason can be read from {@link #getFailure()}.
+     */
+    boolean decode(CharSequence line) {
+        this.line = line;
+        this.length = line.length();
+        this.position = 0;
+        int last = steps.length - 1;
+        for (int i = 0; i < last; i++) {
+            int start = position;
+            if (!decodeField(steps[i])) {
+                return failed(i, start);
+            }
+            if (!expect(SEPARATOR)) {
+                return position < length ? failed(i, start) : failed(i + 1, position);
+            }
+        }
+        int start = position;
+        if (!decodeField(steps[last])) {
+            return failed(last, start);
+        }
+        if (trailingFields ? expect(SEPARATOR) : onlySeparatorsRemain()) {
+            return true;
+        }
+        String lastField = nameOf(steps[last]);
+        failure = trailingFields && position >= length
+                ? "Missing fields after " + lastField
+                : "Unexpected data after " + lastField;
+        return false;
+    }
+
+    /**
+     * @param step the index of the step at fault, a skipped column standing for the next field needed
+     * @param start of the column at fault, a column starting at the end of the line being missing
+     */
+    private boolean failed(int step, int start) {
+        while (steps[step] == SKIP) {
+            step++;
+        }
+        failure = (start < length ? "Invalid " : "Missing ") + nameOf(steps[step]);
+        return false;
+    }
+
+    /**
+     * @return why the last line could not be decoded, naming the field at fault
+     */
+    String getFailure() {
+        return failure;
+    }
+
+    /**
+     * @return the last line decoded as an {@link ExchangeRateChange}
+     */
+    ExchangeRateChange getExchangeRateChange() {
+        LocalDateTime timestamp = LocalDateTime.ofEpochSecond(epochSecond, 0, UTC);
+        return new ExchangeRateChange(getCurrencyCode(), timestamp, rate);
+    }
+
+    /**
+     * @return the currency of the last line decoded
+     */
+    CurrencyCode getCurrencyCode() {
+        return CurrencyCode.valueOf(line.charAt(currencyStart), line.charAt(currencyStart + 1), line.charAt(currencyStart + 2));
+    }
+
+    /**
+     * @return the rate of the last line decoded
+     */
+    double getRate() {
+        return rate;
+    }
+
+    /**
+     * @return the timestamp of the last line decoded in seconds since 1970-01-01T00:00:00
+     */
+    long getEpochSecond() {
+        return epochSecond;
+    }
+
+    private boolean decodeField(byte step) {
+        switch (step) {
+            case CURRENCY_FIELD:
+                return decodeCurrency();
+            case RATE_FIELD:
+                return decodeRate();
+            case TIMESTAMP_FIELD:
+                return decodeTimestamp();
+            default:
+                return skipField();
+        }
+    }
+
+    private boolean decodeCurrency() {
+        currencyStart = position;
+        for (int i = 0; i < 3; i++) {
+            if (!isUpperCaseLetter(charAt(position++))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean decodeRate() {
+        int start = position;
+        long mantissa = 0;
+        int digits = 0;
+        int fractionDigits = 0;
+        boolean inFraction = false;
+        boolean exact = true;
+        char c;
+        while ((c = charAt(position)) != SEPARATOR && c != 0) {
+            if (c >= '0' && c <= '9') {
+                digits++;
+                if (inFraction) {
+                    fractionDigits++;
+                }
+                if (mantissa < MAX_EXACT_MANTISSA / 10) {
+                    mantissa = mantissa * 10 + (c - '0');
+                } else {
+                    exact = false;
+                }
+            } else if (c == '.' && !inFraction) {
+                inFraction = true;
+            } else {
+                exact = false;
+            }
+            position++;
+        }
+        if (exact && digits > 0 && fractionDigits < POWERS_OF_TEN.length) {
+            rate = mantissa / POWERS_OF_TEN[fractionDigits];
+        } else {
+            try {
+                rate = Double.parseDouble(line.subSequence(start, position).toString());
+            } catch (NumberFormatException e) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean decodeTimestamp() {
+        int hour = number(1, 2);
+        int minute = expect(':') ? number(1, 2) : -1;
+        int second = expect(':') ? number(1, 2) : -1;
+        int month = expect(' ') ? number(1, 2) : -1;
+        int day = expect('/') ? number(2, 2) : -1;
+        int year = expect('/') ? number(4, 4) : -1;
+        if (hour < 0 || minute < 0 || minute > 59 || second < 0 || second > 59
+                || month < 1 || month > 12 || day < 1 || day > 31 || year < 0) {
+            return false;
+        }
+        long secondOfDay;
+        if (hour < 24) {
+            secondOfDay = hour * 3600 + minute * 60 + second;
+        } else if (hour == 24 && minute == 0 && second == 0) {
+            secondOfDay = SECONDS_PER_DAY;
+        } else {
+            return false;
+        }
+        day = Math.min(day, lengthOfMonth(year, month));
+        epochSecond = epochDay(year, month, day) * SECONDS_PER_DAY + secondOfDay;
+        return true;
+    }
+
+    private boolean skipField() {
+        while (position < length && line.charAt(position) != SEPARATOR) {
+            position++;
+        }
+        return true;
+    }
+
+    private boolean onlySeparatorsRemain() {
+        while (position < length) {
+            if (line.charAt(position++) != SEPARATOR) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the number read or -1 if there were not enough digits
+     */
+    private int number(int minDigits, int maxDigits) {
+        int value = 0;
+        int digits = 0;
+        char c;
+        while (digits < maxDigits && (c = charAt(position)) >= '0' && c <= '9') {
+            value = value * 10 + (c - '0');
+            digits++;
+            position++;
+        }
+        return digits < minDigits ? -1 : value;
+    }
+
+    private boolean expect(char expected) {
+        if (charAt(position) != expected) {
+            return false;
+        }
+        position++;
+        return true;
+    }
+
+    private char charAt(int index) {
+        return index < length ? line.charAt(index) : 0;
+    }
+
+    private static boolean isUpperCaseLetter(char c) {
+        return c >= 'A' && c <= 'Z';
+    }
+
+    private static boolean isLeapYear(long year) {
+        return (year & 3) == 0 && (year % 100 != 0 || year % 400 == 0);
+    }
+
+    private static int lengthOfMonth(int year, int month) {
+        switch (month) {
+            case 2:
+                return isLeapYear(year) ? 29 : 28;
+            case 4:
+            case 6:
+            case 9:
+            case 11:
+                return 30;
+            default:
+                return 31;
+        }
+    }
+
+    /**
+     * The same calculation as {@link java.time.LocalDate#toEpochDay()} for years from 0 onwards.
+     */
+    private static long epochDay(int year, int month, int day) {
+        long total = 365L * year;
+        total += (year + 3) / 4 - (year + 99) / 100 + (year + 399) / 400;
+        total += (367 * month - 362) / 12;
+        total += day - 1;
+        if (month > 2) {
+            total--;
+            if (!isLeapYear(year)) {
+                total--;
+            }
+        }
+        return total - DAYS_0000_TO_1970;
+    }
+}
@@ -0,0 +1,110 @@
+package swissre.parser;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static swissre.parser.LineMarker.*;
+
+/**
+ * The columns of the exchange rate lines of a file as declared by its field list, compiled into the plan the
+ * {@link ExchangeRateLineDecoder} follows for every line.
+ *
+ * The plan has a step for each column up to the last one needed, columns not needed are skipped over to the next
+ * separator without being read. Columns after the last one needed are not looked at at all, unless the layout is
+ * exactly the fields needed when, as before field lists were honoured, nothing but separators may follow them.
+ *
+ * @author Duncan Atkinson
+ */
+final class FieldLayout {
+
+    static final byte SKIP = 0;
+    static final byte CURRENCY_FIELD = 1;
+    static final byte RATE_FIELD = 2;
+    static final byte TIMESTAMP_FIELD = 3;
+
+    /**
+     * The layout of files without a field list.
+     */
+    static final FieldLayout DEFAULT = new FieldLayout(new byte[]{CURRENCY_FIELD, RATE_FIELD, TIMESTAMP_FIELD}, false);
+
+    private static final LineMarker[] NEEDED = {CURRENCY, EXCHANGE_RATE, LAST_UPDATE};
+
+    private final byte[] steps;
+    private final boolean trailingFields;
+
+    private FieldLayout(byte[] steps, boolean trailingFields) {
+        this.steps = steps;
+        this.trailingFields = trailingFields;
+    }
+
+    /**
+     * @param fieldNames in the order declared by the file
+     * @param lineNumber of the start of the field list, for errors
+     * @throws InvalidExchangeRateFileException if a needed field is missing or declared more than once
+     */
+    static FieldLayout compile(List<String> fieldNames, int lineNumber) {
+        int[] columns = new int[NEEDED.length];
+        Arrays.fill(columns, -1);
+        for (int column = 0; column < fieldNames.size(); column++) {
+            for (int field = 0; field < NEEDED.length; field++) {
+                if (NEEDED[field].asString().equals(fieldNames.get(column))) {
+                    if (columns[field] >= 0) {
+                        throw new InvalidExchangeRateFileException(
+                                "Field list on line " + lineNumber + " declares " + NEEDED[field] + " more than once");
+                    }
+                    columns[field] = column;
+                }
+            }
+        }
+        int lastColumn = -1;
+        for (int field = 0; field < NEEDED.length; field++) {
+            if (columns[field] < 0) {
+                throw new InvalidExchangeRateFileException(
+                        "Field list on line " + lineNumber + " is missing " + NEEDED[field]);
+            }
+            lastColumn = Math.max(lastColumn, columns[field]);
+        }
+        byte[] steps = new byte[lastColumn + 1];
+        for (int field = 0; field < NEEDED.length; field++) {
+            steps[columns[field]] = (byte) (field + 1);
+        }
+        FieldLayout layout = new FieldLayout(steps, fieldNames.size() > steps.length);
+        return DEFAULT.equals(layout) ? DEFAULT : layout;
+    }
+
+    /**
+     * @param step one of {@link #CURRENCY_FIELD}, {@link #RATE_FIELD} or {@link #TIMESTAMP_FIELD}
+     * @return the name of the field as declared in a field list
+     */
+    static String nameOf(byte step) {
+        return NEEDED[step - 1].asString();
+    }
+
+    /**
+     * @return a step for each column up to the last one needed, one of {@link #SKIP}, {@link #CURRENCY_FIELD},
+     * {@link #RATE_FIELD} or {@link #TIMESTAMP_FIELD}
+     */
+    byte[] getSteps() {
+        return steps.clone();
+    }
+
+    /**
+     * @return true if columns not needed follow the last one needed
+     */
+    boolean hasTrailingFields() {
+        return trailingFields;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        FieldLayout that = (FieldLayout) o;
+        return trailingFields == that.trailingFields && Arrays.equals(steps, that.steps);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * Arrays.hashCode(steps) + (trailingFields ? 1 : 0);
+    }
+}
@@ -0,0 +1,136 @@
+package swissre.parser;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Objects;
+
+import static java.nio.charset.StandardCharsets.US_ASCII;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardOpenOption.READ;
+
+/**
+ * Identifies the content of an exchange rate file by the SHA-256 of its bytes along with the DATE given in its header.
+ *
+ * The fingerprint of a file on disk is taken in a single streaming pass, the DATE being picked out of the first few
+ * kilobytes as they go past. A file without a DATE in its header has an empty date.
+ *
+ * @author Duncan Atkinson
+ */
+public final class FileFingerprint {
+
+    private static final String DATE_PREFIX = "DATE=";
+    private static final int HEADER_LIMIT = 4096;
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final String date;
+    private final String contentHash;
+
+    public FileFingerprint(String date, String contentHash) {
+        this.date = Objects.requireNonNull(date);
+        this.contentHash = Objects.requireNonNull(contentHash);
+    }
+
+    /**
+     * @param file is a path to an exchange rate file.
+     * @throws UncheckedIOException if the file could not be read.
+     */
+    public static FileFingerprint of(Path file) {
+        MessageDigest digest = sha256();
+        byte[] header = new byte[HEADER_LIMIT];
+        int headerLength = 0;
+        try (FileChannel channel = FileChannel.open(file, READ)) {
+            ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+            int read;
+            while ((read = channel.read(buffer)) >= 0) {
+                if (headerLength < HEADER_LIMIT) {
+                    int copied = Math.min(read, HEADER_LIMIT - headerLength);
+                    System.arraycopy(buffer.array(), 0, header, headerLength, copied);
+                    headerLength += copied;
+                }
+                digest.update(buffer.array(), 0, read);
+                buffer.clear();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to read " + file, e);
+        }
+        return new FileFingerprint(dateIn(new String(header, 0, headerLength, US_ASCII)), hex(digest.digest()));
+    }
+
+    /**
+     * @param file is a state of the art exchange rate file, hashed as UTF-8 so it matches the same file on disk.
+     */
+    public static FileFingerprint of(String file) {
+        String header = file.substring(0, Math.min(file.length(), HEADER_LIMIT));
+        return new FileFingerprint(dateIn(header), hex(sha256().digest(file.getBytes(UTF_8))));
+    }
+
+    private static String dateIn(String header) {
+        for (String line : header.split("\\r?\\n")) {
+            if (line.startsWith(DATE_PREFIX)) {
+                return line.substring(DATE_PREFIX.length()).trim();
+            }
+            if (LineMarker.START_OF_EXCHANGE_RATES.asString().equals(line)) {
+                break;
+            }
+        }
+        return "";
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is required of every Java platform", e);
+        }
+    }
+
+    private static String hex(byte[] bytes) {
+        char[] chars = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            chars[i * 2] = HEX[(bytes[i] >> 4) & 0xF];
+            chars[i * 2 + 1] = HEX[bytes[i] & 0xF];
+        }
+        return new String(chars);
+    }
+
+    /**
+     * @return the DATE from the header of the file, or an empty string if it had none.
+     */
+    public String getDate() {
+        return date;
+    }
+
+    /**
+     * @return the SHA-256 of the content of the file in lower case hex.
+     */
+    public String getContentHash() {
+        return contentHash;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        FileFingerprint that = (FileFingerprint) o;
+        return date.equals(that.date) && contentHash.equals(that.contentHash);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(date, contentHash);
+    }
+
+    @Override
+    public String toString() {
+        return "FileFingerprint{" +
+                "date='" + date + '\'' +
+                ", contentHash='" + contentHash + '\'' +
+                '}';
+    }
+}
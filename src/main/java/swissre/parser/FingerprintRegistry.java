@@ -0,0 +1,78 @@
+package swissre.parser;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+import static java.nio.charset.StandardCharsets.US_ASCII;
+import static java.nio.file.StandardOpenOption.*;
+
+/**
+ * The fingerprints of every exchange rate file ingested so far, kept in a small text file of one DATE and content
+ * hash per line which is expected to live next to whatever the {@link swissre.persistence.DataStore} persists to.
+ *
+ * A file whose fingerprint has been registered is a {@link Status#DUPLICATE}, a different file for a DATE already
+ * registered is a {@link Status#REVISION} and anything else is {@link Status#NEW}.
+ *
+ * @author Duncan Atkinson
+ */
+public class FingerprintRegistry {
+
+    public enum Status {
+        NEW,
+        DUPLICATE,
+        REVISION
+    }
+
+    private final Path registryFile;
+    private final Map<String, Set<String>> contentHashesByDate;
+
+    private FingerprintRegistry(Path registryFile, Map<String, Set<String>> contentHashesByDate) {
+        this.registryFile = registryFile;
+        this.contentHashesByDate = contentHashesByDate;
+    }
+
+    /**
+     * Load the fingerprints registered so far, the registry file is created when the first one is registered.
+     *
+     * @param registryFile to load from and append to
+     * @throws IOException if the registry file exists but could not be read
+     */
+    public static FingerprintRegistry open(Path registryFile) throws IOException {
+        Map<String, Set<String>> contentHashesByDate = new HashMap<>();
+        if (Files.exists(registryFile)) {
+            for (String line : Files.readAllLines(registryFile, US_ASCII)) {
+                int separator = line.indexOf(' ');
+                if (separator >= 0) {
+                    contentHashesByDate.computeIfAbsent(line.substring(0, separator), date -> new HashSet<>())
+                            .add(line.substring(separator + 1));
+                }
+            }
+        }
+        return new FingerprintRegistry(registryFile, contentHashesByDate);
+    }
+
+    public synchronized Status statusOf(FileFingerprint fingerprint) {
+        Set<String> contentHashes = contentHashesByDate.get(fingerprint.getDate());
+        if (contentHashes == null) {
+            return Status.NEW;
+        }
+        return contentHashes.contains(fingerprint.getContentHash()) ? Status.DUPLICATE : Status.REVISION;
+    }
+
+    /**
+     * Register a file as ingested, appending it to the registry file unless it was already registered.
+     *
+     * @throws IOException if the registry file could not be written
+     */
+    public synchronized void register(FileFingerprint fingerprint) throws IOException {
+        if (statusOf(fingerprint) == Status.DUPLICATE) {
+            return;
+        }
+        String line = fingerprint.getDate() + ' ' + fingerprint.getContentHash() + '\n';
+        Files.write(registryFile, line.getBytes(US_ASCII), CREATE, WRITE, APPEND);
+        contentHashesByDate.computeIfAbsent(fingerprint.getDate(), date -> new HashSet<>())
+                .add(fingerprint.getContentHash());
+    }
+}
@@ -0,0 +1,80 @@
+package swissre.parser;
+
+import swissre.parser.FingerprintRegistry.Status;
+import swissre.persistence.DataStore;
+
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.function.Function;
+
+/**
+ * Decorates another {@link Parser} so a file identical to one already ingested is skipped rather than parsed and
+ * recorded all over again.
+ *
+ * Each file is fingerprinted and checked against the {@link FingerprintRegistry} first. Files are only registered once
+ * they have been parsed without error, and the data store flushed if it is {@link Flushable}, so a file which failed
+ * part way through or whose changes were lost to a crash is parsed again when it is resent.
+ * A revision of a file is parsed like a new one, the data store ignoring the changes in it which were already recorded.
+ *
+ * @param <T> being the type of the file to process
+ * @author Duncan Atkinson
+ */
+public class FingerprintingParser<T> implements Parser<T> {
+
+    private final Parser<T> parser;
+    private final DataStore dataStore;
+    private final FingerprintRegistry registry;
+    private final Function<T, FileFingerprint> fingerprinter;
+
+    /**
+     * @param dataStore the parser records to, flushed before a file is registered if it is {@link Flushable}
+     */
+    public FingerprintingParser(Parser<T> parser, DataStore dataStore, FingerprintRegistry registry,
+                                Function<T, FileFingerprint> fingerprinter) {
+        this.parser = parser;
+        this.dataStore = dataStore;
+        this.registry = registry;
+        this.fingerprinter = fingerprinter;
+    }
+
+    public static FingerprintingParser<Path> ofFiles(Parser<Path> parser, DataStore dataStore,
+                                                     FingerprintRegistry registry) {
+        return new FingerprintingParser<>(parser, dataStore, registry, FileFingerprint::of);
+    }
+
+    public static FingerprintingParser<String> ofStrings(Parser<String> parser, DataStore dataStore,
+                                                         FingerprintRegistry registry) {
+        return new FingerprintingParser<>(parser, dataStore, registry, FileFingerprint::of);
+    }
+
+    /**
+     * @param file is a state of the art exchange rate file.
+     * @return whether the file was new, a revision of a file already ingested or a duplicate which was skipped.
+     * @throws InvalidExchangeRateFileException if there was an error detected during parsing for example non well formed.
+     * @throws UncheckedIOException if the data store could not be flushed or the registry written.
+     */
+    public Status receive(T file) throws InvalidExchangeRateFileException {
+        FileFingerprint fingerprint = fingerprinter.apply(file);
+        Status status = registry.statusOf(fingerprint);
+        if (status == Status.DUPLICATE) {
+            return status;
+        }
+        parser.receiveFile(file);
+        try {
+            if (dataStore instanceof Flushable) {
+                ((Flushable) dataStore).flush();
+            }
+            registry.register(fingerprint);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to register " + fingerprint, e);
+        }
+        return status;
+    }
+
+    @Override
+    public void receiveFile(T file) throws InvalidExchangeRateFileException {
+        receive(file);
+    }
+}
@@ -0,0 +1,216 @@
+package swissre.parser;
+
+import swissre.model.ExchangeRateChange;
+import swissre.persistence.DataStore;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static java.text.MessageFormat.format;
+import static swissre.parser.LineMarker.*;
+
+/**
+ * The grammar of the exchange rate file described by {@link Parser}, for parsers which can read the file a line at a
+ * time. Blank lines are skipped but still counted so errors can name the line they were found on. Malformed exchange
+ * rate lines are dealt with according to the {@link ParseMode}.
+ *
+ * The columns of the exchange rates are taken from the field list in the header, which may order them differently or
+ * declare columns which are not needed, and are compiled into a {@link FieldLayout} once per file. Files without a
+ * field list are read as {@link FieldLayout#DEFAULT}.
+ *
+ * Please note that this class is not thread safe.
+ *
+ * @param <T> being the type of the file to process
+ * @author Duncan Atkinson
+ */
+abstract class LineParser<T> implements Parser<T> {
+
+    private static final String MALFORMED_REASON = "Unexpected exchange rate format";
+
+    private final DataStore dataStore;
+    private final ParseMode mode;
+
+    private FieldLayout fieldLayout = FieldLayout.DEFAULT;
+    private ExchangeRateLineDecoder decoder;
+    private int lineCounter;
+    private CharSequence currentLine = "";
+    private QuarantineReport quarantineReport = new QuarantineReport();
+    private List<ExchangeRateChange> staged;
+
+    LineParser(DataStore dataStore, ParseMode mode) {
+        this.dataStore = dataStore;
+        this.mode = mode;
+    }
+
+    /**
+     * Read the next line of the file, the returned line only needs to remain valid until the next call.
+     *
+     * @return the next line without its line terminator, or null if the end of the file has been reached.
+     */
+    abstract CharSequence readLine();
+
+    /**
+     * @return the layout of the exchange rate lines of the file being processed.
+     */
+    FieldLayout getFieldLayout() {
+        return fieldLayout;
+    }
+
+    /**
+     * @return the number of lines read so far, including blank ones.
+     */
+    int getLineCount() {
+        return lineCounter;
+    }
+
+    public ParseMode getMode() {
+        return mode;
+    }
+
+    /**
+     * @return the malformed lines skipped in the last file received, always empty unless {@link ParseMode#LENIENT}
+     */
+    public QuarantineReport getQuarantineReport() {
+        return quarantineReport;
+    }
+
+    /**
+     * Process the whole file from the first line, the file should be ready for {@link #readLine()} to be called.
+     */
+    void processFile() {
+        lineCounter = 0;
+        quarantineReport = new QuarantineReport();
+        staged = mode == ParseMode.TRANSACTIONAL ? new ArrayList<>() : null;
+        try {
+            ensureNextLineMatches(START_OF_FILE);
+
+            FieldLayout layout = FieldLayout.DEFAULT;
+            while (!currentLineMatches(START_OF_EXCHANGE_RATES)) {
+                scanNextLine();
+                if (currentLineMatches(START_OF_FIELD_LIST)) {
+                    layout = readFieldList();
+                }
+            }
+            useFieldLayout(layout);
+            processExchangeRates();
+            ensureNextLineMatches(END_OF_FILE);
+            if (staged != null) {
+                dataStore.recordAll(staged);
+            }
+        } finally {
+            staged = null;
+        }
+    }
+
+    /**
+     * Record every exchange rate following the current line, stopping once the {@link LineMarker#END_OF_EXCHANGE_RATES}
+     * line has been read.
+     */
+    void processExchangeRates() {
+        scanNextLine();
+        while (!currentLineMatches(END_OF_EXCHANGE_RATES)) {
+            if (decoder.decode(currentLine)) {
+                record(decoder.getExchangeRateChange());
+            } else {
+                malformedLine(currentLine, lineCounter, decoder.getFailure());
+            }
+            scanNextLine();
+        }
+    }
+
+    /**
+     * Read the field names following the current {@link LineMarker#START_OF_FIELD_LIST} line, up to and including the
+     * {@link LineMarker#END_OF_FIELD_LIST} line.
+     */
+    private FieldLayout readFieldList() {
+        int startOfFieldList = lineCounter;
+        List<String> fieldNames = new ArrayList<>();
+        scanNextLine();
+        while (!currentLineMatches(END_OF_FIELD_LIST)) {
+            if (currentLineMatches(START_OF_EXCHANGE_RATES)) {
+                String message = format("Expected ''{0}'' on line {1}, found ''{2}''",
+                        END_OF_FIELD_LIST, lineCounter, currentLine);
+                throw new InvalidExchangeRateFileException(message);
+            }
+            fieldNames.add(currentLine.toString());
+            scanNextLine();
+        }
+        return FieldLayout.compile(fieldNames, startOfFieldList);
+    }
+
+    private void useFieldLayout(FieldLayout layout) {
+        if (decoder == null || !layout.equals(fieldLayout)) {
+            decoder = new ExchangeRateLineDecoder(layout);
+        }
+        fieldLayout = layout;
+    }
+
+    private void record(ExchangeRateChange exchangeRateChange) {
+        if (staged != null) {
+            staged.add(exchangeRateChange);
+        } else {
+            dataStore.record(exchangeRateChange);
+        }
+    }
+
+    /**
+     * Record the changes as a batch, or hold them until the file is committed in {@link ParseMode#TRANSACTIONAL} mode.
+     */
+    void recordAll(List<ExchangeRateChange> exchangeRateChanges) {
+        if (staged != null) {
+            staged.addAll(exchangeRateChanges);
+        } else {
+            dataStore.recordAll(exchangeRateChanges);
+        }
+    }
+
+    /**
+     * Quarantine the line in {@link ParseMode#LENIENT} mode, otherwise reject the file.
+     *
+     * @param reason the line could not be decoded, see {@link ExchangeRateLineDecoder#getFailure()}
+     * @throws InvalidExchangeRateFileException unless in {@link ParseMode#LENIENT} mode
+     */
+    private void malformedLine(CharSequence line, int lineNumber, String reason) {
+        if (mode != ParseMode.LENIENT) {
+            throw unexpectedExchangeRateFormat(line, lineNumber);
+        }
+        quarantineReport.add(lineNumber, line, reason);
+    }
+
+    /**
+     * For subclasses which read some of the lines themselves.
+     *
+     * @param lineCount being the number of lines read so far, including blank ones.
+     */
+    void setLineCount(int lineCount) {
+        this.lineCounter = lineCount;
+    }
+
+    static InvalidExchangeRateFileException unexpectedExchangeRateFormat(CharSequence line, int lineNumber) {
+        String message = MALFORMED_REASON + " found unable to parse '" + line + "' on line " + lineNumber;
+        return new InvalidExchangeRateFileException(message);
+    }
+
+    private boolean currentLineMatches(LineMarker lineMarker) {
+        return lineMarker.asString().contentEquals(currentLine);
+    }
+
+    private void scanNextLine() {
+        do {
+            currentLine = readLine();
+            if (currentLine == null) {
+                throw new InvalidExchangeRateFileException("Unexpected end of file");
+            }
+            lineCounter++;
+        } while (currentLine.length() == 0);
+    }
+
+    private void ensureNextLineMatches(LineMarker lineMarker) throws InvalidExchangeRateFileException {
+        scanNextLine();
+
+        if (!currentLineMatches(lineMarker)) {
+            String message = format("Expected ''{0}'' on line {1}, found ''{2}''", lineMarker, lineCounter, currentLine);
+            throw new InvalidExchangeRateFileException(message);
+        }
+    }
+}
@@ -0,0 +1,208 @@
+package swissre.parser;
+
+import swissre.persistence.DataStore;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+import static java.nio.channels.FileChannel.MapMode.READ_ONLY;
+import static java.nio.file.StandardOpenOption.READ;
+
+/**
+ * Implementation of the {@link Parser} for files on disk of any size.
+ *
+ * The file is memory mapped a window at a time and lines are read directly from the mapped bytes, so the heap used
+ * does not depend on the size of the file. Lines are expected to be single byte characters and to be shorter than
+ * the window.
+ *
+ * Given a {@link ForkJoinPool} the exchange rates are split into chunks of whole lines which are parsed in parallel,
+ * the header and trailer of the file are still read in order. Chunks are recorded in file order, each as a batch
+ * through {@link DataStore#recordAll(java.util.Collection)}, and errors and quarantined lines still name the line of
+ * the file they were found on.
+ *
+ * Please note that this class is not thread safe.
+ *
+ * @author Duncan Atkinson
+ */
+public class MappedFileParser extends LineParser<Path> {
+
+    static final int DEFAULT_WINDOW_SIZE = 64 * 1024 * 1024;
+    static final int DEFAULT_CHUNK_SIZE = 8 * 1024 * 1024;
+
+    private final int windowSize;
+    private final ForkJoinPool pool;
+    private final int chunkSize;
+    private final AsciiSequence line = new AsciiSequence();
+
+    private FileChannel channel;
+    private long fileSize;
+    private MappedByteBuffer window;
+    private long windowStart;
+    private int position;
+
+    public MappedFileParser(DataStore dataStore) {
+        this(dataStore, DEFAULT_WINDOW_SIZE);
+    }
+
+    /**
+     * @param mode to deal with malformed exchange rate lines in
+     */
+    public MappedFileParser(DataStore dataStore, ParseMode mode) {
+        this(dataStore, DEFAULT_WINDOW_SIZE, null, DEFAULT_CHUNK_SIZE, mode);
+    }
+
+    /**
+     * @param windowSize the number of bytes of the file to map at once, which is also the longest line allowed.
+     */
+    public MappedFileParser(DataStore dataStore, int windowSize) {
+        this(dataStore, windowSize, null, DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * @param pool to parse the exchange rates on in parallel
+     */
+    public MappedFileParser(DataStore dataStore, ForkJoinPool pool) {
+        this(dataStore, DEFAULT_WINDOW_SIZE, pool, DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * @param windowSize the number of bytes of the file to map at once, which is also the longest line allowed.
+     * @param pool to parse the exchange rates on in parallel, or null to parse them in order on the calling thread.
+     * @param chunkSize the number of bytes of exchange rates to parse in each parallel task.
+     */
+    public MappedFileParser(DataStore dataStore, int windowSize, ForkJoinPool pool, int chunkSize) {
+        this(dataStore, windowSize, pool, chunkSize, ParseMode.STRICT);
+    }
+
+    /**
+     * @param windowSize the number of bytes of the file to map at once, which is also the longest line allowed.
+     * @param pool to parse the exchange rates on in parallel, or null to parse them in order on the calling thread.
+     * @param chunkSize the number of bytes of exchange rates to parse in each parallel task.
+     * @param mode to deal with malformed exchange rate lines in
+     */
+    public MappedFileParser(DataStore dataStore, int windowSize, ForkJoinPool pool, int chunkSize, ParseMode mode) {
+        super(dataStore, mode);
+        if ((long) windowSize + chunkSize >= Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("The window and chunk sizes must add up to less than 2GB");
+        }
+        this.windowSize = windowSize;
+        this.pool = pool;
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * @param file is a path to a state of the art exchange rate file.
+     * @throws InvalidExchangeRateFileException if there was an error detected during parsing for example non well formed.
+     * @throws UncheckedIOException if the file could not be read.
+     */
+    @Override
+    public void receiveFile(Path file) throws InvalidExchangeRateFileException {
+        try (FileChannel fileChannel = FileChannel.open(file, READ)) {
+            channel = fileChannel;
+            fileSize = fileChannel.size();
+            mapWindow(0);
+            processFile();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to read " + file, e);
+        } finally {
+            channel = null;
+            window = null;
+        }
+    }
+
+    @Override
+    void processExchangeRates() {
+        if (pool == null) {
+            super.processExchangeRates();
+            return;
+        }
+        long bodyStart = windowStart + position;
+        int chunkFirstLine = getLineCount() + 1;
+        boolean lenient = getMode() == ParseMode.LENIENT;
+        int inFlightLimit = pool.getParallelism() * 2;
+        Deque<ForkJoinTask<ExchangeRateChunk>> inFlight = new ArrayDeque<>();
+        long nextChunkStart = bodyStart;
+        try {
+            while (true) {
+                while (inFlight.size() < inFlightLimit && nextChunkStart < fileSize) {
+                    long chunkEnd = Math.min(fileSize, nextChunkStart + chunkSize);
+                    inFlight.add(pool.submit(new ExchangeRateChunk(
+                            channel, fileSize, nextChunkStart, chunkEnd, nextChunkStart == bodyStart, windowSize,
+                            lenient, getFieldLayout())));
+                    nextChunkStart = chunkEnd;
+                }
+                if (inFlight.isEmpty()) {
+                    throw new InvalidExchangeRateFileException("Unexpected end of file");
+                }
+                ExchangeRateChunk chunk = inFlight.poll().join();
+                recordAll(chunk.getChanges());
+                chunk.quarantineInto(getQuarantineReport(), chunkFirstLine);
+                InvalidExchangeRateFileException error = chunk.getError(chunkFirstLine);
+                if (error != null) {
+                    throw error;
+                }
+                chunkFirstLine += chunk.getLineCount();
+                if (chunk.foundEndOfExchangeRates()) {
+                    setLineCount(chunkFirstLine - 1);
+                    mapWindow(chunk.getEndOfExchangeRatesOffset());
+                    return;
+                }
+            }
+        } finally {
+            inFlight.forEach(task -> task.cancel(false));
+        }
+    }
+
+    @Override
+    CharSequence readLine() {
+        if (windowStart + position >= fileSize) {
+            return null;
+        }
+        int end = indexOfNewline(position);
+        if (end < 0 && windowStart + window.limit() < fileSize) {
+            mapWindow(windowStart + position);
+            end = indexOfNewline(position);
+            if (end < 0 && windowStart + window.limit() < fileSize) {
+                throw new InvalidExchangeRateFileException(
+                        "Line " + (getLineCount() + 1) + " is longer than " + windowSize + " bytes");
+            }
+        }
+        int next = end < 0 ? window.limit() : end + 1;
+        if (end < 0) {
+            end = window.limit();
+        }
+        if (end > position && window.get(end - 1) == '\r') {
+            end--;
+        }
+        line.set(window, position, end);
+        position = next;
+        return line;
+    }
+
+    private int indexOfNewline(int from) {
+        int limit = window.limit();
+        for (int i = from; i < limit; i++) {
+            if (window.get(i) == '\n') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private void mapWindow(long start) {
+        try {
+            window = channel.map(READ_ONLY, start, Math.min(windowSize, fileSize - start));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        windowStart = start;
+        position = 0;
+    }
+}
@@ -0,0 +1,36 @@
+package swissre.parser;
+
+import swissre.metrics.IngestMetrics;
+
+/**
+ * Decorates another {@link Parser} to time each file parsed into {@link IngestMetrics}. Lines are counted when the
+ * parser decorated reads the file a line at a time, such as the {@link StringParser} and {@link MappedFileParser}.
+ *
+ * Please note that, like the parsers, this class is not thread safe.
+ *
+ * @param <T> being the type of the file to process
+ * @author Duncan Atkinson
+ */
+public class MetricsParser<T> implements Parser<T> {
+
+    private final Parser<T> parser;
+    private final IngestMetrics metrics;
+
+    public MetricsParser(Parser<T> parser, IngestMetrics metrics) {
+        this.parser = parser;
+        this.metrics = metrics;
+    }
+
+    @Override
+    public void receiveFile(T file) throws InvalidExchangeRateFileException {
+        long start = System.nanoTime();
+        boolean failed = true;
+        try {
+            parser.receiveFile(file);
+            failed = false;
+        } finally {
+            int lines = parser instanceof LineParser ? ((LineParser<?>) parser).getLineCount() : 0;
+            metrics.fileParsed(System.nanoTime() - start, lines, failed);
+        }
+    }
+}
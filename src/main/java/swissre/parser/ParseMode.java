@@ -0,0 +1,28 @@
+package swissre.parser;
+
+import swissre.persistence.DataStore;
+
+/**
+ * How a parser deals with a malformed exchange rate line. A file whose structure is broken, such as one missing its
+ * markers or ending early, is always rejected with an {@link InvalidExchangeRateFileException}.
+ */
+public enum ParseMode {
+
+    /**
+     * Reject the file at the first malformed line, the changes before it having already been recorded.
+     */
+    STRICT,
+
+    /**
+     * Record every well formed line and skip the malformed ones, which are collected into the parser's
+     * {@link QuarantineReport}.
+     */
+    LENIENT,
+
+    /**
+     * Hold every change until the whole file has been read and only then record them all as a single batch through
+     * {@link DataStore#recordAll(java.util.Collection)}, so a rejected file records nothing. The changes of the file
+     * are held in memory until it is committed.
+     */
+    TRANSACTIONAL
+}
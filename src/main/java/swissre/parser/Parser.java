@@ -19,6 +19,8 @@ package swissre.parser;
  * END-OF-FILE
  *
  * The EXCHANGE_RATE is always against the US Dollar e.g. 1 USD = 0.7846 GBP.
+ * The field list gives the order of the columns of each exchange rate, which may include columns other than CURRENCY,
+ * EXCHANGE_RATE and LAST_UPDATE, these are ignored.
  * @param <T> being the type of the file to process
  */
 public interface Parser<T> {
@@ -0,0 +1,81 @@
+package swissre.parser;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * The malformed lines skipped while parsing a file in {@link ParseMode#LENIENT} mode.
+ *
+ * Every malformed line is counted but only the first so many are kept, so a file which is malformed throughout does
+ * not hold a copy of itself in memory.
+ */
+public class QuarantineReport {
+
+    public static final int DEFAULT_LIMIT = 1000;
+
+    private final int limit;
+    private final List<QuarantinedLine> lines;
+    private int count;
+
+    public QuarantineReport() {
+        this(DEFAULT_LIMIT);
+    }
+
+    /**
+     * @param limit the number of malformed lines to keep
+     */
+    public QuarantineReport(int limit) {
+        this.limit = limit;
+        this.lines = new ArrayList<>();
+    }
+
+    void add(int lineNumber, CharSequence line, String reason) {
+        count++;
+        if (lines.size() < limit) {
+            lines.add(new QuarantinedLine(lineNumber, line.toString(), reason));
+        }
+    }
+
+    /**
+     * @return the malformed lines kept, in file order
+     */
+    public List<QuarantinedLine> getLines() {
+        return Collections.unmodifiableList(lines);
+    }
+
+    /**
+     * @return the number of malformed lines skipped, including those beyond the limit kept
+     */
+    public int getCount() {
+        return count;
+    }
+
+    public boolean isEmpty() {
+        return count == 0;
+    }
+
+    /**
+     * Write a line per malformed line kept, its line number, reason and the line itself separated by tabs.
+     *
+     * @param report file to write
+     */
+    public void writeTo(Path report) throws IOException {
+        try (BufferedWriter writer = Files.newBufferedWriter(report, UTF_8)) {
+            for (QuarantinedLine line : lines) {
+                writer.write(line.getLineNumber() + "\t" + line.getReason() + "\t" + line.getLine());
+                writer.newLine();
+            }
+            if (count > lines.size()) {
+                writer.write("and " + (count - lines.size()) + " more malformed lines");
+                writer.newLine();
+            }
+        }
+    }
+}
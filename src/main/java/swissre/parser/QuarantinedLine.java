@@ -0,0 +1,58 @@
+package swissre.parser;
+
+import java.util.Objects;
+
+/**
+ * A malformed exchange rate line skipped by a parser in {@link ParseMode#LENIENT} mode.
+ */
+public class QuarantinedLine {
+
+    private final int lineNumber;
+    private final String line;
+    private final String reason;
+
+    public QuarantinedLine(int lineNumber, String line, String reason) {
+        this.lineNumber = lineNumber;
+        this.line = line;
+        this.reason = reason;
+    }
+
+    /**
+     * @return the number of the line in the file, counting from 1 and including blank lines
+     */
+    public int getLineNumber() {
+        return lineNumber;
+    }
+
+    public String getLine() {
+        return line;
+    }
+
+    public String getReason() {
+        return reason;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        QuarantinedLine that = (QuarantinedLine) o;
+        return lineNumber == that.lineNumber &&
+                Objects.equals(line, that.line) &&
+                Objects.equals(reason, that.reason);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(lineNumber, line, reason);
+    }
+
+    @Override
+    public String toString() {
+        return "QuarantinedLine{" +
+                "lineNumber=" + lineNumber +
+                ", line='" + line + '\'' +
+                ", reason='" + reason + '\'' +
+                '}';
+    }
+}
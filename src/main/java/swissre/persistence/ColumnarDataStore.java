@@ -0,0 +1,241 @@
+package swissre.persistence;
+
+import swissre.model.CurrencyCode;
+import swissre.model.ExchangeRateChange;
+import swissre.model.FlaggedChange;
+import swissre.model.RateSummary;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.stream.Stream;
+
+import static java.time.ZoneOffset.UTC;
+
+/**
+ * Compact in memory implementation of the {@link DataStore}.
+ *
+ * Each currency's history is held as sorted columns of primitive timestamps and rates rather than as
+ * {@link ExchangeRateChange} objects, which are only created when they are asked for. This holds around ten times as
+ * many changes as {@link SimpleDataStore} in the same heap, at the cost of having to shift the columns when a change
+ * arrives out of time order. Histories are found by the currency's ordinal rather than by hashing. Compacting trims
+ * the columns of each history to the changes from the horizon on.
+ *
+ * Please note that this class is not thread safe.
+ *
+ * @author Duncan Atkinson
+ */
+public class ColumnarDataStore implements DataStore, LogSnapshottable, Compactable {
+
+    /**
+     * Indexed by {@link CurrencyCode#getOrdinal()}, null for currencies without any changes.
+     */
+    private RateHistory[] histories;
+
+    private final FlaggedChangePublisher flaggedChanges;
+
+    private long version;
+
+    public ColumnarDataStore() {
+        this(FlaggedChangePublisher.DEFAULT_RETENTION);
+    }
+
+    /**
+     * @param flagRetention the number of the most recently flagged changes to keep, or
+     *                      {@link FlaggedChangePublisher#UNBOUNDED}
+     */
+    public ColumnarDataStore(int flagRetention) {
+        this.histories = new RateHistory[Math.max(16, CurrencyCode.getCodesSeen())];
+        this.flaggedChanges = new FlaggedChangePublisher(flagRetention);
+    }
+
+    /**
+     * Restore a store from the histories and flagged changes read from a {@link Snapshot}.
+     */
+    ColumnarDataStore(List<RateHistory> histories, List<FlaggedChange> flaggedChanges) {
+        this();
+        for (RateHistory history : histories) {
+            int ordinal = history.getCurrencyCode().getOrdinal();
+            ensureCapacity(ordinal);
+            this.histories[ordinal] = history;
+        }
+        this.flaggedChanges.restore(flaggedChanges);
+        this.version = RateAverages.RESTORED_VERSION;
+    }
+
+    @Override
+    public Set<ExchangeRateChange> getExchangeRateChanges() {
+        Set<ExchangeRateChange> exchangeRateChanges = new HashSet<>();
+        for (RateHistory history : histories) {
+            if (history != null) {
+                history.forEach(exchangeRateChanges::add);
+            }
+        }
+        return exchangeRateChanges;
+    }
+
+    @Override
+    public void record(ExchangeRateChange exchangeRateChange) {
+        historyFor(exchangeRateChange.getCurrencyCode()).record(exchangeRateChange, flaggedChanges, ++version);
+    }
+
+    private RateHistory historyOf(CurrencyCode currencyCode) {
+        int ordinal = currencyCode.getOrdinal();
+        return ordinal < histories.length ? histories[ordinal] : null;
+    }
+
+    private RateHistory historyFor(CurrencyCode currencyCode) {
+        int ordinal = currencyCode.getOrdinal();
+        ensureCapacity(ordinal);
+        RateHistory history = histories[ordinal];
+        if (history == null) {
+            history = new RateHistory(currencyCode);
+            histories[ordinal] = history;
+        }
+        return history;
+    }
+
+    private void ensureCapacity(int ordinal) {
+        if (ordinal >= histories.length) {
+            histories = Arrays.copyOf(histories, Math.max(ordinal + 1, histories.length * 2));
+        }
+    }
+
+    /**
+     * Each currency's changes are sorted and then merged into its history in a single pass.
+     */
+    @Override
+    public void recordAll(Collection<ExchangeRateChange> exchangeRateChanges) {
+        long batchVersion = ++version;
+        RateHistory.byCurrencyInTimeOrder(exchangeRateChanges).forEach((currencyCode, changes) ->
+                historyFor(currencyCode).recordAll(changes, flaggedChanges, batchVersion));
+    }
+
+    @Override
+    public void writeSnapshot(Path snapshot) throws IOException {
+        writeSnapshot(snapshot, 0);
+    }
+
+    @Override
+    public void writeSnapshot(Path snapshot, long logPosition) throws IOException {
+        List<RateHistory> written = new ArrayList<>();
+        for (RateHistory history : histories) {
+            if (history != null) {
+                written.add(history);
+            }
+        }
+        Snapshot.write(snapshot, logPosition, written, flaggedChanges.getRetained());
+    }
+
+    @Override
+    public long compact(LocalDateTime horizon, Duration lateGrace) {
+        long lateFrom = horizon.minus(lateGrace).toEpochSecond(UTC);
+        long evicted = 0;
+        for (RateHistory history : histories) {
+            if (history != null) {
+                evicted += history.compact(horizon, lateFrom);
+            }
+        }
+        return evicted;
+    }
+
+    @Override
+    public long getChangesTooLate() {
+        long tooLate = 0;
+        for (RateHistory history : histories) {
+            if (history != null) {
+                tooLate += history.getChangesTooLate();
+            }
+        }
+        return tooLate;
+    }
+
+    @Override
+    public Optional<LocalDateTime> getCompactionWatermark() {
+        LocalDateTime watermark = null;
+        for (RateHistory history : histories) {
+            if (history != null && history.getWatermark() != null
+                    && (watermark == null || history.getWatermark().isAfter(watermark))) {
+                watermark = history.getWatermark();
+            }
+        }
+        return Optional.ofNullable(watermark);
+    }
+
+    @Override
+    public Optional<ExchangeRateChange> getRateAsOf(CurrencyCode currencyCode, LocalDateTime asOf) {
+        RateHistory history = historyOf(currencyCode);
+        return history == null ? Optional.empty() : Optional.ofNullable(history.changeAsOf(asOf));
+    }
+
+    /**
+     * Changes are created from the columns as the stream is consumed, so it should be consumed before any more
+     * changes are recorded.
+     */
+    @Override
+    public Stream<ExchangeRateChange> getExchangeRateChanges(CurrencyCode currencyCode, LocalDateTime from,
+                                                             LocalDateTime to) {
+        RateHistory history = historyOf(currencyCode);
+        return history == null ? Stream.empty() : history.changesBetween(from, to);
+    }
+
+    @Override
+    public List<FlaggedChange> getFlaggedChanges() {
+        return flaggedChanges.getRetained();
+    }
+
+    @Override
+    public FlaggedChangePublisher getFlaggedChangePublisher() {
+        return flaggedChanges;
+    }
+
+    @Override
+    public Set<CurrencyCode> getCurrencies() {
+        Set<CurrencyCode> currencies = new HashSet<>();
+        for (RateHistory history : histories) {
+            if (history != null) {
+                currencies.add(history.getCurrencyCode());
+            }
+        }
+        return currencies;
+    }
+
+    @Override
+    public long getVersion() {
+        return version;
+    }
+
+    @Override
+    public StoreChanges changesSince(long version) {
+        StoreChanges changes = new StoreChanges(this.version);
+        for (RateHistory history : histories) {
+            if (history != null && history.getVersion() > version) {
+                Set<String> months = new HashSet<>();
+                Set<Integer> years = new HashSet<>();
+                history.getAverages().changedSince(version, months, years);
+                changes.add(history.getCurrencyCode(), months, years);
+            }
+        }
+        return changes;
+    }
+
+    @Override
+    public Map<String, Double> getAveragesByMonth(CurrencyCode currencyCode) {
+        RateHistory history = historyOf(currencyCode);
+        return history == null ? new HashMap<>() : history.getAverages().averagesByMonth();
+    }
+
+    @Override
+    public Map<Integer, Double> getAveragesByYear(CurrencyCode currencyCode) {
+        RateHistory history = historyOf(currencyCode);
+        return history == null ? new HashMap<>() : history.getAverages().averagesByYear();
+    }
+
+    @Override
+    public Map<String, RateSummary> getSummariesByMonth(CurrencyCode currencyCode) {
+        RateHistory history = historyOf(currencyCode);
+        return history == null ? new HashMap<>() : history.getAverages().summariesByMonth();
+    }
+}
@@ -0,0 +1,55 @@
+package swissre.persistence;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.Optional;
+
+/**
+ * A {@link DataStore} able to evict the changes older than a horizon to bound the memory it holds.
+ *
+ * The monthly and yearly buckets are maintained as changes are recorded and are kept when the changes are evicted, so
+ * {@link DataStore#getAveragesByMonth}, {@link DataStore#getAveragesByYear} and
+ * {@link DataStore#getSummariesByMonth} answer exactly as before. Queries of the changes themselves only see those
+ * from the horizon on. The horizon becomes the store's compaction watermark. A change recorded with a timestamp before
+ * it is checked for being a duplicate against a compact index of hashes of the changes evicted, and unless it is one is
+ * added to the buckets, but it is neither held nor flagged as its neighbours are gone.
+ *
+ * The index only reaches back a late grace period before the horizon so it does not grow with the changes evicted. A
+ * change before that is too late to be told apart from a duplicate, so it is refused and only counted.
+ */
+public interface Compactable {
+
+    Duration DEFAULT_LATE_GRACE = Duration.ofDays(7);
+
+    /**
+     * Evict every change with a timestamp before the horizon, allowing the {@link #DEFAULT_LATE_GRACE} for late
+     * changes.
+     *
+     * @see #compact(LocalDateTime, Duration)
+     */
+    default long compact(LocalDateTime horizon) {
+        return compact(horizon, DEFAULT_LATE_GRACE);
+    }
+
+    /**
+     * Evict every change with a timestamp before the horizon. A horizon at or before the current watermark does
+     * nothing.
+     *
+     * @param horizon the earliest time to keep the changes from
+     * @param lateGrace how long before the horizon a change may still be recorded late, to the second, must not be
+     *                  negative
+     * @return the number of changes evicted
+     */
+    long compact(LocalDateTime horizon, Duration lateGrace);
+
+    /**
+     * @return the number of changes refused for being before the late grace period of the latest compaction, since the
+     * store was created or restored
+     */
+    long getChangesTooLate();
+
+    /**
+     * @return the horizon of the latest compaction, or empty if the store has not been compacted
+     */
+    Optional<LocalDateTime> getCompactionWatermark();
+}
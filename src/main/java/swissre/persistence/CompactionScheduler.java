@@ -0,0 +1,120 @@
+package swissre.persistence;
+
+import java.io.Closeable;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Periodically compacts a store on a background thread so only the changes within a retention period are held, older
+ * changes being left only in the monthly and yearly buckets.
+ *
+ * The horizon is the time on the clock, in UTC as the timestamps are read, less the retention period. The store is
+ * compacted while it may be being recorded to, so it must be thread safe such as the {@link ConcurrentDataStore},
+ * which only locks one currency at a time while compacting. A compaction that fails leaves the store as it was and
+ * is retried at the next period, the failure being kept for {@link #getLastFailure()}. Changes may still arrive late
+ * for a grace period before the horizon, the {@link Compactable#DEFAULT_LATE_GRACE} unless given.
+ *
+ * @author Duncan Atkinson
+ */
+public class CompactionScheduler implements Closeable {
+
+    private final Compactable dataStore;
+    private final Duration retention;
+    private final Duration lateGrace;
+    private final Clock clock;
+    private final ScheduledExecutorService executor;
+    private final AtomicLong evicted;
+    private volatile RuntimeException lastFailure;
+
+    private CompactionScheduler(Compactable dataStore, Duration retention, Duration lateGrace, Clock clock) {
+        this.dataStore = dataStore;
+        this.retention = retention;
+        this.lateGrace = lateGrace;
+        this.clock = clock;
+        this.evicted = new AtomicLong();
+        this.executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "compaction");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * @see #start(Compactable, Duration, Duration, Clock, long, TimeUnit)
+     */
+    public static CompactionScheduler start(Compactable dataStore, Duration retention, long period, TimeUnit unit) {
+        return start(dataStore, retention, Compactable.DEFAULT_LATE_GRACE, period, unit);
+    }
+
+    /**
+     * @see #start(Compactable, Duration, Duration, Clock, long, TimeUnit)
+     */
+    public static CompactionScheduler start(Compactable dataStore, Duration retention, Duration lateGrace, long period,
+                                            TimeUnit unit) {
+        return start(dataStore, retention, lateGrace, Clock.systemUTC(), period, unit);
+    }
+
+    /**
+     * @see #start(Compactable, Duration, Duration, Clock, long, TimeUnit)
+     */
+    public static CompactionScheduler start(Compactable dataStore, Duration retention, Clock clock, long period,
+                                            TimeUnit unit) {
+        return start(dataStore, retention, Compactable.DEFAULT_LATE_GRACE, clock, period, unit);
+    }
+
+    /**
+     * @param dataStore to compact, must be thread safe
+     * @param retention how far back from the clock to keep the changes
+     * @param lateGrace how long before the horizon a change may still be recorded late
+     * @param clock to find the horizon from
+     * @param period between the end of one compaction and the start of the next
+     * @param unit of the period
+     */
+    public static CompactionScheduler start(Compactable dataStore, Duration retention, Duration lateGrace, Clock clock,
+                                            long period, TimeUnit unit) {
+        CompactionScheduler scheduler = new CompactionScheduler(dataStore, retention, lateGrace, clock);
+        scheduler.executor.scheduleWithFixedDelay(scheduler::compact, period, period, unit);
+        return scheduler;
+    }
+
+    private void compact() {
+        try {
+            evicted.addAndGet(dataStore.compact(LocalDateTime.now(clock).minus(retention), lateGrace));
+            lastFailure = null;
+        } catch (RuntimeException e) {
+            lastFailure = e;
+        }
+    }
+
+    /**
+     * @return the number of changes evicted since the scheduler was started
+     */
+    public long getEvicted() {
+        return evicted.get();
+    }
+
+    /**
+     * @return why the last compaction failed, or null if it succeeded
+     */
+    public RuntimeException getLastFailure() {
+        return lastFailure;
+    }
+
+    /**
+     * Stop compacting, waiting for any compaction running to finish.
+     */
+    @Override
+    public void close() {
+        executor.shutdown();
+        try {
+            executor.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
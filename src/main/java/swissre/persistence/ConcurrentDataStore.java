@@ -0,0 +1,285 @@
+package swissre.persistence;
+
+import swissre.model.CurrencyCode;
+import swissre.model.ExchangeRateChange;
+import swissre.model.FlaggedChange;
+import swissre.model.RateSummary;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static java.time.ZoneOffset.UTC;
+
+/**
+ * Thread safe implementation of the {@link DataStore} allowing several files to be received at once.
+ *
+ * Each currency's history is held in the same compact form as the {@link ColumnarDataStore} and is guarded by its own
+ * lock, so recording changes for different currencies never contends. Finding a change's neighbours and inserting it
+ * happen under the one lock so two changes racing for the same currency are still flagged against each other.
+ * Queries take the lock of each currency they read only for as long as it takes to copy out the results, and
+ * compaction takes the lock of one currency at a time, so neither pauses recording to the other currencies.
+ *
+ * @author Duncan Atkinson
+ */
+public class ConcurrentDataStore implements DataStore, LogSnapshottable, Compactable {
+
+    private final ConcurrentMap<CurrencyCode, RateHistory> histories;
+
+    private final FlaggedChangePublisher flaggedChanges;
+
+    private final AtomicLong version;
+
+    public ConcurrentDataStore() {
+        this(FlaggedChangePublisher.DEFAULT_RETENTION);
+    }
+
+    /**
+     * @param flagRetention the number of the most recently flagged changes to keep, or
+     *                      {@link FlaggedChangePublisher#UNBOUNDED}
+     */
+    public ConcurrentDataStore(int flagRetention) {
+        this.histories = new ConcurrentHashMap<>();
+        this.version = new AtomicLong();
+        this.flaggedChanges = new FlaggedChangePublisher(flagRetention);
+    }
+
+    /**
+     * Restore this empty store from a snapshot, reading every change straight away rather than mapping the snapshot as
+     * the {@link SnapshotDataStore} does, so the restored store is just as thread safe.
+     *
+     * @param snapshot file written by {@link Snapshottable#writeSnapshot(Path)}
+     * @return the number of changes of a {@link DurableDataStore} log held by the snapshot, to replay the log from
+     * @throws IOException if the snapshot could not be read or is not a complete snapshot
+     * @throws IllegalStateException if the store is not empty
+     */
+    public synchronized long restore(Path snapshot) throws IOException {
+        if (!histories.isEmpty()) {
+            throw new IllegalStateException("Only an empty store can be restored from a snapshot");
+        }
+        ByteBuffer buffer = Snapshot.map(snapshot);
+        long logPosition = buffer.getLong();
+        List<RateHistory> restored;
+        List<FlaggedChange> flagged;
+        try {
+            restored = Snapshot.readHistories(buffer);
+            flagged = Snapshot.readFlaggedChanges(buffer);
+        } catch (BufferUnderflowException | IllegalArgumentException e) {
+            throw new IOException("Truncated exchange rate snapshot " + snapshot, e);
+        }
+        restored.forEach(history -> histories.put(history.getCurrencyCode(), history));
+        flaggedChanges.restore(flagged);
+        version.set(RateAverages.RESTORED_VERSION);
+        return logPosition;
+    }
+
+    @Override
+    public Set<ExchangeRateChange> getExchangeRateChanges() {
+        Set<ExchangeRateChange> exchangeRateChanges = new HashSet<>();
+        histories.values().forEach(history -> {
+            synchronized (history) {
+                history.forEach(exchangeRateChanges::add);
+            }
+        });
+        return exchangeRateChanges;
+    }
+
+    @Override
+    public void record(ExchangeRateChange exchangeRateChange) {
+        RateHistory history = histories.computeIfAbsent(exchangeRateChange.getCurrencyCode(), RateHistory::new);
+        synchronized (history) {
+            history.record(exchangeRateChange, flaggedChanges, version.incrementAndGet());
+        }
+    }
+
+    /**
+     * Each currency's changes are sorted and then merged into its history in a single pass under its lock, so readers
+     * see either none or all of a currency's changes from the batch.
+     */
+    @Override
+    public void recordAll(Collection<ExchangeRateChange> exchangeRateChanges) {
+        RateHistory.byCurrencyInTimeOrder(exchangeRateChanges).forEach((currencyCode, changes) -> {
+            RateHistory history = histories.computeIfAbsent(currencyCode, RateHistory::new);
+            synchronized (history) {
+                history.recordAll(changes, flaggedChanges, version.incrementAndGet());
+            }
+        });
+    }
+
+    /**
+     * Each currency's history is copied under its lock so recording carries on while the snapshot is written. Every
+     * currency is consistent with itself, but changes recorded while the snapshot is taken may be missing from it or
+     * have their flags missing from it.
+     */
+    @Override
+    public void writeSnapshot(Path snapshot) throws IOException {
+        writeSnapshot(snapshot, 0);
+    }
+
+    @Override
+    public void writeSnapshot(Path snapshot, long logPosition) throws IOException {
+        List<FlaggedChange> flagged = getFlaggedChanges();
+        List<RateHistory> copies = new ArrayList<>();
+        histories.values().forEach(history -> {
+            synchronized (history) {
+                copies.add(history.copy());
+            }
+        });
+        Snapshot.write(snapshot, logPosition, copies, flagged);
+    }
+
+    /**
+     * Each currency is compacted under its own lock, so recording to the others carries on meanwhile.
+     */
+    @Override
+    public long compact(LocalDateTime horizon, Duration lateGrace) {
+        long lateFrom = horizon.minus(lateGrace).toEpochSecond(UTC);
+        long evicted = 0;
+        for (RateHistory history : histories.values()) {
+            synchronized (history) {
+                evicted += history.compact(horizon, lateFrom);
+            }
+        }
+        return evicted;
+    }
+
+    @Override
+    public long getChangesTooLate() {
+        long tooLate = 0;
+        for (RateHistory history : histories.values()) {
+            synchronized (history) {
+                tooLate += history.getChangesTooLate();
+            }
+        }
+        return tooLate;
+    }
+
+    @Override
+    public Optional<LocalDateTime> getCompactionWatermark() {
+        LocalDateTime watermark = null;
+        for (RateHistory history : histories.values()) {
+            LocalDateTime historyWatermark;
+            synchronized (history) {
+                historyWatermark = history.getWatermark();
+            }
+            if (historyWatermark != null && (watermark == null || historyWatermark.isAfter(watermark))) {
+                watermark = historyWatermark;
+            }
+        }
+        return Optional.ofNullable(watermark);
+    }
+
+    @Override
+    public Optional<ExchangeRateChange> getRateAsOf(CurrencyCode currencyCode, LocalDateTime asOf) {
+        RateHistory history = histories.get(currencyCode);
+        if (history == null) {
+            return Optional.empty();
+        }
+        synchronized (history) {
+            return Optional.ofNullable(history.changeAsOf(asOf));
+        }
+    }
+
+    /**
+     * The changes in the range are copied out under the currency's lock, so the stream is unaffected by changes
+     * recorded while it is consumed.
+     */
+    @Override
+    public Stream<ExchangeRateChange> getExchangeRateChanges(CurrencyCode currencyCode, LocalDateTime from,
+                                                             LocalDateTime to) {
+        RateHistory history = histories.get(currencyCode);
+        if (history == null) {
+            return Stream.empty();
+        }
+        List<ExchangeRateChange> changes;
+        synchronized (history) {
+            changes = history.changesBetween(from, to).collect(Collectors.toList());
+        }
+        return changes.stream();
+    }
+
+    /**
+     * @return a copy of the rate changes which have been flagged so far
+     */
+    @Override
+    public List<FlaggedChange> getFlaggedChanges() {
+        return flaggedChanges.getRetained();
+    }
+
+    @Override
+    public FlaggedChangePublisher getFlaggedChangePublisher() {
+        return flaggedChanges;
+    }
+
+    @Override
+    public Set<CurrencyCode> getCurrencies() {
+        return new HashSet<>(histories.keySet());
+    }
+
+    @Override
+    public long getVersion() {
+        return version.get();
+    }
+
+    /**
+     * Versions are taken under the lock of the currency being recorded to, so a change recorded while this runs is
+     * either reported now or the next time.
+     */
+    @Override
+    public StoreChanges changesSince(long version) {
+        StoreChanges changes = new StoreChanges(this.version.get());
+        histories.forEach((currencyCode, history) -> {
+            synchronized (history) {
+                if (history.getVersion() > version) {
+                    Set<String> months = new HashSet<>();
+                    Set<Integer> years = new HashSet<>();
+                    history.getAverages().changedSince(version, months, years);
+                    changes.add(currencyCode, months, years);
+                }
+            }
+        });
+        return changes;
+    }
+
+    @Override
+    public Map<String, Double> getAveragesByMonth(CurrencyCode currencyCode) {
+        RateHistory history = histories.get(currencyCode);
+        if (history == null) {
+            return new HashMap<>();
+        }
+        synchronized (history) {
+            return history.getAverages().averagesByMonth();
+        }
+    }
+
+    @Override
+    public Map<Integer, Double> getAveragesByYear(CurrencyCode currencyCode) {
+        RateHistory history = histories.get(currencyCode);
+        if (history == null) {
+            return new HashMap<>();
+        }
+        synchronized (history) {
+            return history.getAverages().averagesByYear();
+        }
+    }
+
+    @Override
+    public Map<String, RateSummary> getSummariesByMonth(CurrencyCode currencyCode) {
+        RateHistory history = histories.get(currencyCode);
+        if (history == null) {
+            return new HashMap<>();
+        }
+        synchronized (history) {
+            return history.getAverages().summariesByMonth();
+        }
+    }
+}
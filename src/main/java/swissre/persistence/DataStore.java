@@ -3,10 +3,21 @@ package swissre.persistence;
 import swissre.model.ExchangeRateChange;
 import swissre.model.CurrencyCode;
 import swissre.model.FlaggedChange;
+import swissre.model.RateSummary;
 
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.DoubleSummaryStatistics;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
 import java.util.Set;
+import java.util.stream.Stream;
+
+import static java.util.Comparator.comparing;
+import static java.util.stream.Collectors.toSet;
 
 /**
  * Data store for the purposes of this test.
@@ -20,17 +31,71 @@ public interface DataStore {
     Set<ExchangeRateChange> getExchangeRateChanges();
 
     /**
-     * Record an exchange rate change along with the file date.
+     * The default searches {@link #getExchangeRateChanges()}, which cannot tell which of several changes sharing a
+     * timestamp was recorded last, stores should override it with a search of their time ordering.
+     *
+     * @param currencyCode to find the rate of
+     * @param asOf the time to find the rate at
+     * @return the latest change at or before the time, where several share that timestamp the last one recorded, or
+     * empty if there were no changes by then
+     */
+    default Optional<ExchangeRateChange> getRateAsOf(CurrencyCode currencyCode, LocalDateTime asOf) {
+        return getExchangeRateChanges().stream()
+                .filter(change -> change.getCurrencyCode().equals(currencyCode))
+                .filter(change -> !change.getTimestamp().isAfter(asOf))
+                .max(comparing(ExchangeRateChange::getTimestamp));
+    }
+
+    /**
+     * The default filters {@link #getExchangeRateChanges()}, stores should override it with a search of their time
+     * ordering.
+     *
+     * @param currencyCode to find the changes of
+     * @param from the earliest time to include
+     * @param to the time to stop before
+     * @return the changes from the first time up to but excluding the second in time order, changes sharing a
+     * timestamp being in the order they were recorded
+     */
+    default Stream<ExchangeRateChange> getExchangeRateChanges(CurrencyCode currencyCode, LocalDateTime from,
+                                                              LocalDateTime to) {
+        return getExchangeRateChanges().stream()
+                .filter(change -> change.getCurrencyCode().equals(currencyCode))
+                .filter(change -> !change.getTimestamp().isBefore(from) && change.getTimestamp().isBefore(to))
+                .sorted(comparing(ExchangeRateChange::getTimestamp));
+    }
+
+    /**
+     * Record an exchange rate change along with the file date. A change with the same currency, timestamp and rate as
+     * one already recorded is a duplicate and is ignored, it is neither flagged nor included in the averages.
      *
      * @param exchangeRateChange to record
      */
     void record(ExchangeRateChange exchangeRateChange);
 
+    /**
+     * Record a batch of exchange rate changes. The changes flagged are the same as recording each change in timestamp
+     * order, where changes share a timestamp they are recorded in the order given.
+     *
+     * @param exchangeRateChanges to record
+     */
+    default void recordAll(Collection<ExchangeRateChange> exchangeRateChanges) {
+        exchangeRateChanges.stream()
+                .sorted(comparing(ExchangeRateChange::getTimestamp))
+                .forEachOrdered(this::record);
+    }
+
     /**
      * @return a list of rate changes which have been flagged
      */
     List<FlaggedChange> getFlaggedChanges();
 
+    /**
+     * Subscribe to changes as they are flagged rather than polling {@link #getFlaggedChanges()}.
+     *
+     * @return the publisher of the changes flagged by this store
+     */
+    FlaggedChangePublisher getFlaggedChangePublisher();
+
     /**
      * @param currencyCode to retrieve averages for
      * @return a Map where the key is a String in the format 2018_JANUARY
@@ -42,4 +107,65 @@ public interface DataStore {
      * @return a Map where the key is the year as an Integer
      */
     Map<Integer, Double> getAveragesByYear(CurrencyCode currencyCode);
+
+    /**
+     * The default summarises {@link #getExchangeRateChanges()}, stores should override it with summaries maintained as
+     * changes are recorded.
+     *
+     * @param currencyCode to retrieve summaries for
+     * @return a Map where the key is a String in the format 2018_JANUARY
+     */
+    default Map<String, RateSummary> getSummariesByMonth(CurrencyCode currencyCode) {
+        Map<String, DoubleSummaryStatistics> byMonth = new HashMap<>();
+        getExchangeRateChanges().stream()
+                .filter(change -> change.getCurrencyCode().equals(currencyCode))
+                .forEach(change -> byMonth.computeIfAbsent(
+                        change.getTimestamp().getYear() + "_" + change.getTimestamp().getMonth(),
+                        month -> new DoubleSummaryStatistics()).accept(change.getRateAgainstUSD()));
+        Map<String, RateSummary> summaries = new HashMap<>();
+        byMonth.forEach((month, statistics) -> summaries.put(month, new RateSummary(statistics.getCount(),
+                statistics.getAverage(), statistics.getMin(), statistics.getMax())));
+        return summaries;
+    }
+
+    /**
+     * The default finds the currencies from {@link #getExchangeRateChanges()}, stores should override it with a way
+     * which does not create every change.
+     *
+     * @return the currencies with changes recorded
+     */
+    default Set<CurrencyCode> getCurrencies() {
+        return getExchangeRateChanges().stream()
+                .map(ExchangeRateChange::getCurrencyCode)
+                .collect(toSet());
+    }
+
+    /**
+     * The default counts the changes held, stores should override it along with {@link #changesSince(long)}.
+     *
+     * @return the version of the store, which is 0 when empty and increases as changes are recorded
+     */
+    default long getVersion() {
+        return getExchangeRateChanges().size();
+    }
+
+    /**
+     * Find what has changed since a version so only the averages which have changed need to be fetched again. The
+     * default reports every bucket of every currency as changed whenever the version has moved on.
+     *
+     * @param version from {@link #getVersion()} or {@link StoreChanges#getVersion()}, 0 for every change
+     * @return the currencies and buckets whose averages have changed since the version given
+     */
+    default StoreChanges changesSince(long version) {
+        long currentVersion = getVersion();
+        StoreChanges changes = new StoreChanges(currentVersion);
+        if (currentVersion > version) {
+            for (CurrencyCode currencyCode : getCurrencies()) {
+                changes.add(currencyCode,
+                        new HashSet<>(getAveragesByMonth(currencyCode).keySet()),
+                        new HashSet<>(getAveragesByYear(currencyCode).keySet()));
+            }
+        }
+        return changes;
+    }
 }
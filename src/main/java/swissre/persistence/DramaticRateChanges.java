@@ -0,0 +1,92 @@
+package swissre.persistence;
+
+import java.math.BigDecimal;
+
+import static java.math.BigDecimal.ROUND_HALF_UP;
+
+/**
+ * Decides when the change between two exchange rates is dramatic enough to be flagged.
+ *
+ * The percentage change is calculated with {@link BigDecimal}, rounding the ratio of the change to the smaller rate at
+ * the scale of the change, and flagged when it is 20% or more. Because of that rounding a change of anything from 15%
+ * upwards can be flagged. {@link #isDramatic(double, double)} compares the bigger rate with multiples of the smaller
+ * one to decide without dividing, only falling back to {@link BigDecimal} for changes between roughly 15% and 20%, or
+ * rates which the cross multiplication cannot be relied upon for.
+ *
+ * @author Duncan Atkinson
+ */
+final class DramaticRateChanges {
+
+    /**
+     * Rate changes of this percentage or more are flagged.
+     */
+    static final double THRESHOLD_PERCENTAGE = 20;
+
+    /**
+     * A bigger rate at least this multiple of the smaller rate is 20% or more higher, the margin being far wider than
+     * any error in multiplying doubles.
+     */
+    private static final double CERTAINLY_DRAMATIC_RATIO = 1.2 + 1e-9;
+
+    /**
+     * A bigger rate less than this multiple of the smaller rate is too small a change to round up to 20%. Rates below
+     * {@link #PLAIN_RATE_LIMIT} are written with at least one decimal place so the ratio is rounded to at least one
+     * decimal place, which can raise it by at most 0.05.
+     */
+    private static final double CERTAINLY_NOT_DRAMATIC_RATIO = 1.15 - 1e-9;
+
+    /**
+     * {@link Double#toString(double)} switches to scientific notation at this value, giving {@link BigDecimal}s with a
+     * negative scale.
+     */
+    private static final double PLAIN_RATE_LIMIT = 1e7;
+
+    private DramaticRateChanges() {
+    }
+
+    /**
+     * @return true if the change between the two rates should be flagged, the same decision as calling
+     * {@link #isDramatic(double)} with the {@link #getPercentageRateChange(double, double)}.
+     */
+    static boolean isDramatic(double rate, double otherRate) {
+        double smallerRate = Math.min(rate, otherRate);
+        double biggerRate = Math.max(rate, otherRate);
+        if (smallerRate > 0 && biggerRate < PLAIN_RATE_LIMIT) {
+            if (biggerRate >= smallerRate * CERTAINLY_DRAMATIC_RATIO) {
+                return true;
+            }
+            if (biggerRate < smallerRate * CERTAINLY_NOT_DRAMATIC_RATIO) {
+                return false;
+            }
+        }
+        return isDramatic(getPercentageRateChange(rate, otherRate));
+    }
+
+    /**
+     * @param percentageRateChange as returned by {@link #getPercentageRateChange(double, double)}
+     * @return true if the change should be flagged
+     */
+    static boolean isDramatic(double percentageRateChange) {
+        return percentageRateChange >= THRESHOLD_PERCENTAGE;
+    }
+
+    /**
+     * @return the change between the two rates as a percentage of the smaller one.
+     */
+    static double getPercentageRateChange(double rate, double otherRate) {
+        BigDecimal smallerRate;
+        BigDecimal biggerRate;
+        if (otherRate < rate) {
+            smallerRate = BigDecimal.valueOf(otherRate);
+            biggerRate = BigDecimal.valueOf(rate);
+        }else{
+            biggerRate = BigDecimal.valueOf(otherRate);
+            smallerRate = BigDecimal.valueOf(rate);
+        }
+
+        BigDecimal absoluteChange = biggerRate.subtract(smallerRate).abs();
+        BigDecimal divide = absoluteChange.divide(smallerRate, ROUND_HALF_UP);
+        BigDecimal percentageChange = divide.multiply(BigDecimal.valueOf(100.0));
+        return percentageChange.doubleValue();
+    }
+}
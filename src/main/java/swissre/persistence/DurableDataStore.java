@@ -0,0 +1,454 @@
+package swissre.persistence;
+
+import swissre.model.CurrencyCode;
+import swissre.model.ExchangeRateChange;
+import swissre.model.FlaggedChange;
+import swissre.model.RateSummary;
+
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.stream.Stream;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.nio.file.StandardOpenOption.*;
+import static java.time.ZoneOffset.UTC;
+import static java.util.Comparator.comparing;
+
+/**
+ * Decorates another {@link DataStore} with an append only log of every change recorded, so the store can be rebuilt
+ * after a restart by replaying the log rather than re-parsing every exchange rate file.
+ *
+ * Each change is logged as a fixed size binary record with a checksum. Records are buffered and the log is only
+ * forced to disk every so many records, on {@link #flush()} and on {@link #close()}, so a crash can lose the changes
+ * recorded since the last sync. As records are written a buffer at a time a crash can leave several torn or zeroed
+ * records at the end of the log, any run of bad records which reaches the end of the log is discarded when it is
+ * opened. A bad record followed by a good one is corruption and the log is refused.
+ *
+ * A snapshot written through {@link #writeSnapshot(Path)} records the number of changes logged before it, and once it
+ * is written the log is rolled to only keep the changes logged since. Recovery with {@link #recover(Path, Path)}, or by
+ * restoring the store from the snapshot and opening the log with the snapshot's log position, then only replays the
+ * changes the snapshot does not hold, so a restart costs the snapshot plus the changes since rather than every change
+ * ever logged. The log header holds the position of its first change, so a log without the changes a store is missing
+ * is refused rather than leaving a gap.
+ *
+ * Changes are logged before they are passed on. Batches are logged in timestamp order, which is the order
+ * {@link DataStore#recordAll(Collection)} records them in, so replaying the log a change at a time rebuilds exactly
+ * the same changes, flags and averages. Logging and passing each change on are synchronised together, so the store
+ * can decorate a thread safe store and still apply changes in the order they were logged.
+ *
+ * @author Duncan Atkinson
+ */
+public class DurableDataStore implements DataStore, Snapshottable, Closeable, Flushable {
+
+    static final int MAGIC = 0x46585741; // FXWA
+    static final int VERSION = 2;
+    static final int HEADER_SIZE = 16;
+    static final int RECORD_SIZE = 28;
+    public static final int DEFAULT_SYNC_EVERY = 4096;
+
+    private static final int BUFFER_RECORDS = 2048;
+    private static final long CHECKSUM_SEED = 0x5DEECE66DL;
+    private static final long CHECKSUM_MULTIPLIER = 0x9E3779B97F4A7C15L;
+
+    private final Path logFile;
+    private final DataStore dataStore;
+    private final int syncEvery;
+    private final ByteBuffer buffer;
+    private final Object snapshotLock = new Object();
+    private FileChannel log;
+    private long firstPosition;
+    private long position;
+    private int unsynced;
+
+    private DurableDataStore(Path logFile, DataStore dataStore, FileChannel log, int syncEvery, long firstPosition,
+                             long position) {
+        this.logFile = logFile;
+        this.dataStore = dataStore;
+        this.log = log;
+        this.syncEvery = syncEvery;
+        this.firstPosition = firstPosition;
+        this.position = position;
+        this.buffer = ByteBuffer.allocateDirect(BUFFER_RECORDS * RECORD_SIZE);
+    }
+
+    /**
+     * @see #open(Path, DataStore, long, int)
+     */
+    public static DurableDataStore open(Path logFile, DataStore dataStore) throws IOException {
+        return open(logFile, dataStore, 0, DEFAULT_SYNC_EVERY);
+    }
+
+    /**
+     * @see #open(Path, DataStore, long, int)
+     */
+    public static DurableDataStore open(Path logFile, DataStore dataStore, int syncEvery) throws IOException {
+        return open(logFile, dataStore, 0, syncEvery);
+    }
+
+    /**
+     * Recover a store from the latest snapshot written by {@link #writeSnapshot(Path)} and the changes logged since.
+     *
+     * The snapshot is opened as a {@link SnapshotDataStore}, so nothing is materialised unless there are changes to
+     * replay or something other than the averages is asked for. Without a snapshot an empty {@link ColumnarDataStore}
+     * is recovered from the whole log. Like those stores, the recovered store is not thread safe, see
+     * {@link ConcurrentDataStore#restore(Path)} for recovering a thread safe one.
+     *
+     * @param logFile to replay and append changes to
+     * @param snapshot file to recover from, which need not exist yet
+     * @throws IOException if the snapshot or log could not be read
+     */
+    public static DurableDataStore recover(Path logFile, Path snapshot) throws IOException {
+        if (!Files.exists(snapshot)) {
+            return open(logFile, new ColumnarDataStore(), 0, DEFAULT_SYNC_EVERY);
+        }
+        SnapshotDataStore restored = SnapshotDataStore.open(snapshot);
+        return open(logFile, restored, restored.getLogPosition(), DEFAULT_SYNC_EVERY);
+    }
+
+    /**
+     * Open the log, creating it if it does not exist, and replay the changes in it from the log position on into the
+     * data store.
+     *
+     * @param logFile to append changes to
+     * @param dataStore to decorate, which should be empty or restored from a snapshot
+     * @param logPosition the number of changes from the start of the log already in the data store, as held by the
+     *                    snapshot it was restored from, 0 for an empty store
+     * @param syncEvery the number of changes to record between forcing the log to disk
+     * @throws IOException if the log could not be read, is corrupt anywhere other than a torn tail, or has been rolled
+     *                     past the log position so no longer holds all the changes the data store is missing
+     */
+    public static DurableDataStore open(Path logFile, DataStore dataStore, long logPosition, int syncEvery)
+            throws IOException {
+        FileChannel log = FileChannel.open(logFile, CREATE, READ, WRITE);
+        try {
+            if (log.size() == 0) {
+                writeHeader(log, logPosition);
+            }
+            long firstPosition = readHeader(log);
+            if (firstPosition > logPosition) {
+                throw new IOException("The exchange rate log starts at change " + firstPosition
+                        + " but the store only holds the first " + logPosition);
+            }
+            long end = replay(log, dataStore, firstPosition, logPosition);
+            long position = firstPosition + (end - HEADER_SIZE) / RECORD_SIZE;
+            if (position < logPosition) {
+                // the store already holds every change in the log, start again from the store's position
+                log.truncate(0);
+                writeHeader(log, logPosition);
+                firstPosition = logPosition;
+                position = logPosition;
+                end = HEADER_SIZE;
+            }
+            log.truncate(end);
+            log.position(end);
+            return new DurableDataStore(logFile, dataStore, log, syncEvery, firstPosition, position);
+        } catch (IOException | RuntimeException e) {
+            log.close();
+            throw e;
+        }
+    }
+
+    private static void writeHeader(FileChannel log, long firstPosition) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).putInt(MAGIC).putInt(VERSION).putLong(firstPosition);
+        header.flip();
+        log.position(0);
+        while (header.hasRemaining()) {
+            log.write(header);
+        }
+        log.force(true);
+    }
+
+    /**
+     * @return the position of the first change in the log
+     */
+    private static long readHeader(FileChannel log) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        log.position(0);
+        readFully(log, header, HEADER_SIZE);
+        if (header.remaining() < HEADER_SIZE || header.getInt() != MAGIC || header.getInt() != VERSION) {
+            throw new IOException("Not an exchange rate log");
+        }
+        return header.getLong();
+    }
+
+    /**
+     * @param firstPosition the position of the first change in the log
+     * @param logPosition the position of the first change not already in the data store
+     * @return the offset just after the last good record
+     */
+    private static long replay(FileChannel log, DataStore dataStore, long firstPosition, long logPosition)
+            throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_RECORDS * RECORD_SIZE);
+        buffer.limit(0);
+        log.position(HEADER_SIZE);
+        long changePosition = firstPosition;
+        long offset = HEADER_SIZE;
+        long firstBadOffset = -1;
+        while (true) {
+            buffer.compact();
+            readFully(log, buffer, buffer.capacity());
+            if (buffer.remaining() < RECORD_SIZE) {
+                return firstBadOffset < 0 ? offset : firstBadOffset;
+            }
+            while (buffer.remaining() >= RECORD_SIZE) {
+                ExchangeRateChange change = readRecord(buffer);
+                if (change == null) {
+                    if (firstBadOffset < 0) {
+                        firstBadOffset = offset;
+                    }
+                } else if (firstBadOffset >= 0) {
+                    throw new IOException("Corrupt exchange rate log record at offset " + firstBadOffset);
+                } else if (changePosition++ >= logPosition) {
+                    dataStore.record(change);
+                }
+                offset += RECORD_SIZE;
+            }
+        }
+    }
+
+    private static void readFully(FileChannel log, ByteBuffer buffer, int limit) throws IOException {
+        buffer.limit(Math.min(buffer.capacity(), limit));
+        while (buffer.hasRemaining() && log.read(buffer) >= 0) {
+            // keep reading until the buffer is full or the log ends
+        }
+        buffer.flip();
+    }
+
+    /**
+     * @return the change in the next record, or null if its checksum does not match
+     */
+    private static ExchangeRateChange readRecord(ByteBuffer buffer) {
+        int packedLetters = buffer.getInt();
+        long epochSecond = buffer.getLong();
+        int nano = buffer.getInt();
+        double rate = buffer.getDouble();
+        int expected = buffer.getInt();
+        if (expected != checksum(packedLetters, epochSecond, nano, rate)) {
+            return null;
+        }
+        LocalDateTime timestamp = LocalDateTime.ofEpochSecond(epochSecond, nano, UTC);
+        return new ExchangeRateChange(CurrencyCode.fromPackedLetters(packedLetters), timestamp, rate);
+    }
+
+    /**
+     * A cheap hash of the fields of a record, seeded so that a record of zeros left by a torn write never matches.
+     */
+    private static int checksum(int packedLetters, long epochSecond, int nano, double rate) {
+        long hash = CHECKSUM_SEED;
+        hash = (hash ^ packedLetters) * CHECKSUM_MULTIPLIER;
+        hash = (hash ^ epochSecond) * CHECKSUM_MULTIPLIER;
+        hash = (hash ^ nano) * CHECKSUM_MULTIPLIER;
+        hash = (hash ^ Double.doubleToRawLongBits(rate)) * CHECKSUM_MULTIPLIER;
+        return (int) (hash ^ (hash >>> 32));
+    }
+
+    @Override
+    public Set<ExchangeRateChange> getExchangeRateChanges() {
+        return dataStore.getExchangeRateChanges();
+    }
+
+    @Override
+    public void record(ExchangeRateChange exchangeRateChange) {
+        synchronized (this) {
+            append(exchangeRateChange);
+            syncIfDue();
+            dataStore.record(exchangeRateChange);
+        }
+    }
+
+    @Override
+    public void recordAll(Collection<ExchangeRateChange> exchangeRateChanges) {
+        List<ExchangeRateChange> inTimeOrder = new ArrayList<>(exchangeRateChanges);
+        inTimeOrder.sort(comparing(ExchangeRateChange::getTimestamp));
+        synchronized (this) {
+            inTimeOrder.forEach(this::append);
+            syncIfDue();
+            dataStore.recordAll(inTimeOrder);
+        }
+    }
+
+    private void append(ExchangeRateChange exchangeRateChange) {
+        if (buffer.remaining() < RECORD_SIZE) {
+            writeBuffer();
+        }
+        LocalDateTime timestamp = exchangeRateChange.getTimestamp();
+        int packedLetters = exchangeRateChange.getCurrencyCode().getPackedLetters();
+        long epochSecond = timestamp.toEpochSecond(UTC);
+        int nano = timestamp.getNano();
+        double rate = exchangeRateChange.getRateAgainstUSD();
+        buffer.putInt(packedLetters)
+                .putLong(epochSecond)
+                .putInt(nano)
+                .putDouble(rate)
+                .putInt(checksum(packedLetters, epochSecond, nano, rate));
+        position++;
+        unsynced++;
+    }
+
+    private void syncIfDue() {
+        if (unsynced >= syncEvery) {
+            sync();
+        }
+    }
+
+    private void writeBuffer() {
+        buffer.flip();
+        try {
+            while (buffer.hasRemaining()) {
+                log.write(buffer);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to write to the exchange rate log", e);
+        } finally {
+            buffer.clear();
+        }
+    }
+
+    private void sync() {
+        writeBuffer();
+        try {
+            log.force(false);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to sync the exchange rate log", e);
+        }
+        unsynced = 0;
+    }
+
+    /**
+     * @return the number of changes logged, including those rolled out of the log by snapshots
+     */
+    public synchronized long getLogPosition() {
+        return position;
+    }
+
+    /**
+     * Write a snapshot holding every change logged so far, then roll the log to only keep the changes logged since.
+     *
+     * Recording carries on while the snapshot is written, so the store decorated must be thread safe if it is
+     * recorded to from other threads meanwhile. Changes recorded during the snapshot may or may not be in it, they
+     * are kept in the log either way and replaying one the snapshot already holds is ignored as a duplicate.
+     *
+     * @throws IllegalStateException if the store decorated is not one which can record its log position in a snapshot
+     */
+    @Override
+    public void writeSnapshot(Path snapshot) throws IOException {
+        if (!(dataStore instanceof LogSnapshottable)) {
+            throw new IllegalStateException(dataStore.getClass().getSimpleName() + " can not write snapshots");
+        }
+        synchronized (snapshotLock) {
+            long logPosition;
+            synchronized (this) {
+                sync();
+                logPosition = position;
+            }
+            ((LogSnapshottable) dataStore).writeSnapshot(snapshot, logPosition);
+            synchronized (this) {
+                roll(logPosition);
+            }
+        }
+    }
+
+    /**
+     * Atomically replace the log with one starting at the log position, copying across the changes logged since.
+     */
+    private void roll(long logPosition) throws IOException {
+        writeBuffer();
+        Path rolled = logFile.resolveSibling(logFile.getFileName() + ".tmp");
+        FileChannel next = FileChannel.open(rolled, CREATE, READ, WRITE, TRUNCATE_EXISTING);
+        try {
+            writeHeader(next, logPosition);
+            long end = log.size();
+            for (long from = HEADER_SIZE + (logPosition - firstPosition) * RECORD_SIZE; from < end; ) {
+                from += log.transferTo(from, end - from, next);
+            }
+            next.force(true);
+            Files.move(rolled, logFile, ATOMIC_MOVE, REPLACE_EXISTING);
+        } catch (IOException | RuntimeException e) {
+            next.close();
+            throw e;
+        }
+        log.close();
+        log = next;
+        firstPosition = logPosition;
+        unsynced = 0;
+    }
+
+    /**
+     * Force every change recorded so far to disk.
+     */
+    @Override
+    public synchronized void flush() {
+        sync();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (log.isOpen()) {
+            try {
+                sync();
+            } finally {
+                log.close();
+            }
+        }
+    }
+
+    @Override
+    public List<FlaggedChange> getFlaggedChanges() {
+        return dataStore.getFlaggedChanges();
+    }
+
+    @Override
+    public Optional<ExchangeRateChange> getRateAsOf(CurrencyCode currencyCode, LocalDateTime asOf) {
+        return dataStore.getRateAsOf(currencyCode, asOf);
+    }
+
+    @Override
+    public Stream<ExchangeRateChange> getExchangeRateChanges(CurrencyCode currencyCode, LocalDateTime from,
+                                                             LocalDateTime to) {
+        return dataStore.getExchangeRateChanges(currencyCode, from, to);
+    }
+
+    @Override
+    public FlaggedChangePublisher getFlaggedChangePublisher() {
+        return dataStore.getFlaggedChangePublisher();
+    }
+
+    @Override
+    public Set<CurrencyCode> getCurrencies() {
+        return dataStore.getCurrencies();
+    }
+
+    @Override
+    public long getVersion() {
+        return dataStore.getVersion();
+    }
+
+    @Override
+    public StoreChanges changesSince(long version) {
+        return dataStore.changesSince(version);
+    }
+
+    @Override
+    public Map<String, Double> getAveragesByMonth(CurrencyCode currencyCode) {
+        return dataStore.getAveragesByMonth(currencyCode);
+    }
+
+    @Override
+    public Map<Integer, Double> getAveragesByYear(CurrencyCode currencyCode) {
+        return dataStore.getAveragesByYear(currencyCode);
+    }
+
+    @Override
+    public Map<String, RateSummary> getSummariesByMonth(CurrencyCode currencyCode) {
+        return dataStore.getSummariesByMonth(currencyCode);
+    }
+}
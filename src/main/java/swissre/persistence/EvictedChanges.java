@@ -0,0 +1,212 @@
+package swissre.persistence;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * A compact index of the changes of a single currency which are only held in its averages, having been evicted by a
+ * compaction or recorded after it, so a change arriving late can be told apart from a duplicate of one already counted.
+ *
+ * Only a 64 bit hash of each change's timestamp and rate is kept, in an open addressed table per day, which costs
+ * between 11 and 21 bytes per change as the tables grow. To keep that bounded the index only covers the changes from
+ * a late horizon on, the days before it being forgotten as the horizon moves forward, and a change before it is too
+ * late to be told apart from a duplicate so must be refused. Two different changes on the same day sharing a hash
+ * are vanishingly unlikely, the later one would be taken for a duplicate.
+ *
+ * Please note that this class is not thread safe.
+ */
+final class EvictedChanges {
+
+    private static final int INITIAL_CAPACITY = 16;
+    private static final long SECONDS_PER_DAY = 24 * 60 * 60;
+
+    private final Map<Long, Table> byDay = new HashMap<>();
+
+    private long from = Long.MIN_VALUE;
+
+    // changes are usually evicted in time order so remembering the last day avoids finding the day of every change
+    private long lastDay = Long.MIN_VALUE;
+    private Table lastTable;
+
+    /**
+     * @return true if the change is before the late horizon, so it can no longer be told apart from a duplicate
+     */
+    boolean isTooLate(long epochSecond) {
+        return epochSecond < from;
+    }
+
+    /**
+     * @param epochSecond of the change, must not be {@link #isTooLate(long) too late}
+     * @return true if the change was not already in the index and has been added, false if it is a duplicate
+     */
+    boolean add(long epochSecond, int nano, double rate) {
+        return tableFor(epochSecond).add(hash(epochSecond, nano, rate));
+    }
+
+    /**
+     * Move the late horizon forward, forgetting the days wholly before it. A horizon before the current one does
+     * nothing.
+     *
+     * @param epochSecond the earliest second a change can still be added from
+     */
+    void forgetBefore(long epochSecond) {
+        if (epochSecond <= from) {
+            return;
+        }
+        from = epochSecond;
+        long firstDay = Math.floorDiv(epochSecond, SECONDS_PER_DAY);
+        for (Iterator<Long> days = byDay.keySet().iterator(); days.hasNext(); ) {
+            if (days.next() < firstDay) {
+                days.remove();
+            }
+        }
+        if (lastDay < firstDay) {
+            lastDay = Long.MIN_VALUE;
+            lastTable = null;
+        }
+    }
+
+    private Table tableFor(long epochSecond) {
+        long day = Math.floorDiv(epochSecond, SECONDS_PER_DAY);
+        if (day != lastDay) {
+            lastDay = day;
+            lastTable = byDay.computeIfAbsent(day, key -> new Table(INITIAL_CAPACITY));
+        }
+        return lastTable;
+    }
+
+    /**
+     * @return a hash of the change which is never 0, 0 marking an empty slot
+     */
+    private static long hash(long epochSecond, int nano, double rate) {
+        long hash = mix(epochSecond * 0x9E3779B97F4A7C15L + nano);
+        hash = mix(hash ^ Double.doubleToLongBits(rate));
+        return hash == 0 ? 1 : hash;
+    }
+
+    private static long mix(long value) {
+        value = (value ^ (value >>> 33)) * 0xFF51AFD7ED558CCDL;
+        value = (value ^ (value >>> 33)) * 0xC4CEB9FE1A85EC53L;
+        return value ^ (value >>> 33);
+    }
+
+    /**
+     * @return an independent copy of this index
+     */
+    EvictedChanges copy() {
+        EvictedChanges copy = new EvictedChanges();
+        copy.from = from;
+        byDay.forEach((day, table) -> copy.byDay.put(day, table.copy()));
+        return copy;
+    }
+
+    /**
+     * Write the index as part of a currency's section of a {@link Snapshot}, being the late horizon, the number of
+     * days and then for each day its epoch day, the number of hashes and the hashes.
+     */
+    void writeTo(Snapshot.Output output) throws IOException {
+        output.putLong(from).putInt(byDay.size());
+        for (Map.Entry<Long, Table> day : byDay.entrySet()) {
+            Table table = day.getValue();
+            long[] hashes = new long[table.count];
+            int count = 0;
+            for (long hash : table.slots) {
+                if (hash != 0) {
+                    hashes[count++] = hash;
+                }
+            }
+            output.putLong(day.getKey()).putInt(count);
+            output.putLongs(hashes, count);
+        }
+    }
+
+    /**
+     * @param buffer positioned at an index written by {@link #writeTo(Snapshot.Output)}, left positioned after it
+     */
+    static EvictedChanges readFrom(ByteBuffer buffer) {
+        EvictedChanges evicted = new EvictedChanges();
+        evicted.from = buffer.getLong();
+        int days = buffer.getInt();
+        for (int i = 0; i < days; i++) {
+            long day = buffer.getLong();
+            int count = buffer.getInt();
+            Table table = new Table(Table.capacityFor(count));
+            for (int j = 0; j < count; j++) {
+                table.add(buffer.getLong());
+            }
+            evicted.byDay.put(day, table);
+        }
+        return evicted;
+    }
+
+    /**
+     * @param buffer positioned at an index written by {@link #writeTo(Snapshot.Output)}, left positioned after it
+     */
+    static void skip(ByteBuffer buffer) {
+        buffer.getLong();
+        int days = buffer.getInt();
+        for (int i = 0; i < days; i++) {
+            buffer.getLong();
+            int count = buffer.getInt();
+            buffer.position(buffer.position() + count * Long.BYTES);
+        }
+    }
+
+    /**
+     * A set of hashes, linearly probed and kept at most three quarters full.
+     */
+    private static final class Table {
+
+        private long[] slots;
+        private int count;
+
+        private Table(int capacity) {
+            this.slots = new long[capacity];
+        }
+
+        private static int capacityFor(int count) {
+            int capacity = INITIAL_CAPACITY;
+            while (capacity - (capacity >> 2) <= count) {
+                capacity <<= 1;
+            }
+            return capacity;
+        }
+
+        private boolean add(long hash) {
+            int mask = slots.length - 1;
+            int slot = (int) (hash ^ (hash >>> 32)) & mask;
+            while (slots[slot] != 0) {
+                if (slots[slot] == hash) {
+                    return false;
+                }
+                slot = (slot + 1) & mask;
+            }
+            slots[slot] = hash;
+            if (++count > slots.length - (slots.length >> 2)) {
+                grow();
+            }
+            return true;
+        }
+
+        private void grow() {
+            long[] old = slots;
+            slots = new long[old.length << 1];
+            count = 0;
+            for (long hash : old) {
+                if (hash != 0) {
+                    add(hash);
+                }
+            }
+        }
+
+        private Table copy() {
+            Table copy = new Table(slots.length);
+            copy.slots = slots.clone();
+            copy.count = count;
+            return copy;
+        }
+    }
+}
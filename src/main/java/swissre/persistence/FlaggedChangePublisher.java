@@ -0,0 +1,97 @@
+package swissre.persistence;
+
+import swissre.model.FlaggedChange;
+import swissre.notification.AsyncPublisher;
+import swissre.notification.Flow;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * The changes a store has flagged, both published to subscribers as they are flagged and retained for later queries.
+ *
+ * Publishing never blocks the thread recording changes, see {@link AsyncPublisher} for how subscribers which fall
+ * behind are treated. Only the most recent flags up to the retention limit are kept, older ones being dropped.
+ *
+ * @author Duncan Atkinson
+ */
+public class FlaggedChangePublisher implements Flow.Publisher<FlaggedChange> {
+
+    public static final int DEFAULT_RETENTION = 10_000;
+    public static final int UNBOUNDED = Integer.MAX_VALUE;
+
+    private final int retention;
+    private final ArrayDeque<FlaggedChange> retained;
+    private final AsyncPublisher<FlaggedChange> publisher;
+    private long flaggedCount;
+
+    /**
+     * @param retention the number of the most recently flagged changes to keep, or {@link #UNBOUNDED}
+     */
+    FlaggedChangePublisher(int retention) {
+        if (retention < 0) {
+            throw new IllegalArgumentException("Retention must not be negative " + retention);
+        }
+        this.retention = retention;
+        this.retained = new ArrayDeque<>();
+        this.publisher = new AsyncPublisher<>();
+    }
+
+    /**
+     * Retain and publish a newly flagged change.
+     */
+    synchronized void add(FlaggedChange flaggedChange) {
+        retain(flaggedChange);
+        flaggedCount++;
+        publisher.submit(flaggedChange);
+    }
+
+    /**
+     * Retain changes flagged before a restart, which are not published again.
+     */
+    synchronized void restore(Collection<FlaggedChange> flaggedChanges) {
+        flaggedChanges.forEach(this::retain);
+        flaggedCount += flaggedChanges.size();
+    }
+
+    private void retain(FlaggedChange flaggedChange) {
+        if (retention == 0) {
+            return;
+        }
+        if (retained.size() == retention) {
+            retained.removeFirst();
+        }
+        retained.addLast(flaggedChange);
+    }
+
+    /**
+     * @return a copy of the changes retained, oldest first
+     */
+    public synchronized List<FlaggedChange> getRetained() {
+        return new ArrayList<>(retained);
+    }
+
+    /**
+     * @return the number of changes flagged, including those no longer retained
+     */
+    public synchronized long getFlaggedCount() {
+        return flaggedCount;
+    }
+
+    /**
+     * Subscribe to the changes flagged from now on.
+     */
+    @Override
+    public synchronized void subscribe(Flow.Subscriber<? super FlaggedChange> subscriber) {
+        publisher.subscribe(subscriber);
+    }
+
+    /**
+     * Subscribe to the changes retained followed by those flagged from now on, without missing or repeating any.
+     */
+    public synchronized void subscribeWithReplay(Flow.Subscriber<? super FlaggedChange> subscriber) {
+        publisher.subscribe(subscriber, retained);
+    }
+}
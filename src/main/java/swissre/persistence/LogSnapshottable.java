@@ -0,0 +1,18 @@
+package swissre.persistence;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * A {@link Snapshottable} store whose snapshots can record how much of a {@link DurableDataStore} log they hold, so
+ * recovery only replays the log after it.
+ */
+public interface LogSnapshottable extends Snapshottable {
+
+    /**
+     * @param snapshot file to write
+     * @param logPosition the number of changes from the start of the log already in the store
+     * @see Snapshottable#writeSnapshot(Path)
+     */
+    void writeSnapshot(Path snapshot, long logPosition) throws IOException;
+}
@@ -0,0 +1,244 @@
+package swissre.persistence;
+
+import swissre.model.RateSummary;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.time.Month;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Monthly and yearly averages of the rates recorded for a single currency, maintained as each rate is recorded.
+ *
+ * The sums are compensated exactly as {@link java.util.stream.Collectors#averagingDouble} does it so the averages are
+ * identical to grouping the recorded rates and averaging them in the order they were recorded.
+ *
+ * Each bucket also keeps the lowest and highest rate added to it, so the buckets summarise the rates on their own and
+ * the changes they were built from can be evicted, see {@link Compactable}.
+ *
+ * Each bucket is stamped with the version of the store it was last changed at, so the buckets changed since a version
+ * can be found without recomputing any averages. Averages read from a {@link Snapshot} are stamped with
+ * {@link #RESTORED_VERSION}.
+ *
+ * Please note that this class is not thread safe.
+ */
+class RateAverages {
+
+    static final long RESTORED_VERSION = 1;
+
+    private static final int SNAPSHOT_BUCKET_SIZE = 52;
+
+    private final Map<Integer, RunningAverage> byMonth = new HashMap<>();
+    private final Map<Integer, RunningAverage> byYear = new HashMap<>();
+
+    // rates usually arrive in time order so remembering the last buckets avoids boxing the keys on every add
+    private int lastMonthKey = Integer.MIN_VALUE;
+    private RunningAverage lastMonth;
+    private int lastYear = Integer.MIN_VALUE;
+    private RunningAverage lastYearAverage;
+    private long version;
+
+    /**
+     * @param year the rate was recorded in
+     * @param month the rate was recorded in from 1 (January) to 12 (December)
+     * @param rate to add to the averages
+     * @param version of the store the rate was recorded at
+     */
+    void add(int year, int month, double rate, long version) {
+        int monthKey = monthKey(year, month);
+        if (monthKey != lastMonthKey) {
+            lastMonth = byMonth.computeIfAbsent(monthKey, key -> new RunningAverage());
+            lastMonthKey = monthKey;
+        }
+        if (year != lastYear) {
+            lastYearAverage = byYear.computeIfAbsent(year, key -> new RunningAverage());
+            lastYear = year;
+        }
+        lastMonth.add(rate, version);
+        lastYearAverage.add(rate, version);
+        this.version = version;
+    }
+
+    /**
+     * @return the version of the store these averages were last changed at
+     */
+    long getVersion() {
+        return version;
+    }
+
+    /**
+     * @param version to find the buckets changed after
+     * @param months to add the names, in the format 2018_JANUARY, of the months changed to
+     * @param years to add the years changed to
+     */
+    void changedSince(long version, Set<String> months, Set<Integer> years) {
+        byMonth.forEach((monthKey, average) -> {
+            if (average.version > version) {
+                months.add(monthName(monthKey));
+            }
+        });
+        byYear.forEach((year, average) -> {
+            if (average.version > version) {
+                years.add(year);
+            }
+        });
+    }
+
+    /**
+     * @return a Map where the key is a String in the format 2018_JANUARY
+     */
+    Map<String, Double> averagesByMonth() {
+        Map<String, Double> averages = new HashMap<>();
+        byMonth.forEach((monthKey, average) -> averages.put(monthName(monthKey), average.average()));
+        return averages;
+    }
+
+    /**
+     * @return a Map where the key is the year as an Integer
+     */
+    Map<Integer, Double> averagesByYear() {
+        Map<Integer, Double> averages = new HashMap<>();
+        byYear.forEach((year, average) -> averages.put(year, average.average()));
+        return averages;
+    }
+
+    /**
+     * @return a Map where the key is a String in the format 2018_JANUARY
+     */
+    Map<String, RateSummary> summariesByMonth() {
+        Map<String, RateSummary> summaries = new HashMap<>();
+        byMonth.forEach((monthKey, average) -> summaries.put(monthName(monthKey),
+                new RateSummary(average.count, average.average(), average.min, average.max)));
+        return summaries;
+    }
+
+    /**
+     * @return an independent copy of these averages
+     */
+    RateAverages copy() {
+        RateAverages copy = new RateAverages();
+        copy.version = version;
+        byMonth.forEach((monthKey, average) -> copy.byMonth.put(monthKey, average.copy()));
+        byYear.forEach((year, average) -> copy.byYear.put(year, average.copy()));
+        return copy;
+    }
+
+    /**
+     * Write the state of every bucket so the averages carry on exactly where they left off when read back.
+     */
+    void writeTo(Snapshot.Output output) throws IOException {
+        writeTo(byMonth, output);
+        writeTo(byYear, output);
+    }
+
+    private static void writeTo(Map<Integer, RunningAverage> averages, Snapshot.Output output) throws IOException {
+        output.putInt(averages.size());
+        for (Map.Entry<Integer, RunningAverage> entry : averages.entrySet()) {
+            RunningAverage average = entry.getValue();
+            output.putInt(entry.getKey())
+                    .putLong(average.count)
+                    .putDouble(average.sum)
+                    .putDouble(average.compensation)
+                    .putDouble(average.simpleSum)
+                    .putDouble(average.min)
+                    .putDouble(average.max);
+        }
+    }
+
+    /**
+     * @param buffer positioned at averages written by {@link #writeTo(Snapshot.Output)}, left positioned after them
+     */
+    static RateAverages readFrom(ByteBuffer buffer) {
+        RateAverages averages = new RateAverages();
+        averages.version = RESTORED_VERSION;
+        readFrom(buffer, averages.byMonth);
+        readFrom(buffer, averages.byYear);
+        return averages;
+    }
+
+    private static void readFrom(ByteBuffer buffer, Map<Integer, RunningAverage> averages) {
+        int buckets = buffer.getInt();
+        for (int i = 0; i < buckets; i++) {
+            int key = buffer.getInt();
+            RunningAverage average = new RunningAverage();
+            average.count = buffer.getLong();
+            average.sum = buffer.getDouble();
+            average.compensation = buffer.getDouble();
+            average.simpleSum = buffer.getDouble();
+            average.min = buffer.getDouble();
+            average.max = buffer.getDouble();
+            average.version = RESTORED_VERSION;
+            averages.put(key, average);
+        }
+    }
+
+    /**
+     * @param buffer positioned at averages written by {@link #writeTo(Snapshot.Output)}, left positioned after them
+     */
+    static void skip(ByteBuffer buffer) {
+        for (int i = 0; i < 2; i++) {
+            int buckets = buffer.getInt();
+            buffer.position(buffer.position() + buckets * SNAPSHOT_BUCKET_SIZE);
+        }
+    }
+
+    private static int monthKey(int year, int month) {
+        return year * 12 + month - 1;
+    }
+
+    private static String monthName(int monthKey) {
+        return Math.floorDiv(monthKey, 12) + "_" + Month.of(Math.floorMod(monthKey, 12) + 1);
+    }
+
+    /**
+     * Kahan summation as used by {@link java.util.stream.Collectors#averagingDouble}, along with the lowest and highest
+     * values added.
+     */
+    private static class RunningAverage {
+
+        private double sum;
+        private double compensation;
+        private double simpleSum;
+        private double min = Double.POSITIVE_INFINITY;
+        private double max = Double.NEGATIVE_INFINITY;
+        private long count;
+        private long version;
+
+        void add(double value, long version) {
+            double compensated = value - compensation;
+            double total = sum + compensated;
+            compensation = (total - sum) - compensated;
+            sum = total;
+            simpleSum += value;
+            min = Math.min(min, value);
+            max = Math.max(max, value);
+            count++;
+            this.version = version;
+        }
+
+        RunningAverage copy() {
+            RunningAverage copy = new RunningAverage();
+            copy.sum = sum;
+            copy.compensation = compensation;
+            copy.simpleSum = simpleSum;
+            copy.min = min;
+            copy.max = max;
+            copy.count = count;
+            copy.version = version;
+            return copy;
+        }
+
+        double average() {
+            if (count == 0) {
+                return 0.0d;
+            }
+            double total = sum - compensation;
+            if (Double.isNaN(total) && Double.isInfinite(simpleSum)) {
+                total = simpleSum;
+            }
+            return total / count;
+        }
+    }
+}
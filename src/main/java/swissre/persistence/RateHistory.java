@@ -0,0 +1,528 @@
+package swissre.persistence;
+
+import swissre.model.CurrencyCode;
+import swissre.model.ExchangeRateChange;
+import swissre.model.FlaggedChange;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.function.Consumer;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import static java.time.ZoneOffset.UTC;
+import static java.util.Comparator.comparing;
+
+/**
+ * The exchange rate changes of a single currency held as sorted primitive columns, roughly 16 bytes per change.
+ *
+ * Timestamps are held as epoch seconds with the nanoseconds only being stored once a change with a fractional second
+ * is recorded. Changes sharing a timestamp are kept in the order they were recorded, and a change with the same
+ * timestamp and rate as one already held is ignored as a duplicate. {@link ExchangeRateChange}s are only created when
+ * they are asked for.
+ *
+ * Changes before a horizon can be evicted by {@link #compact(LocalDateTime, long)}, leaving them only in the averages
+ * and in an index of {@link EvictedChanges}. The horizon becomes the history's watermark and a change recorded before
+ * it is folded straight into the averages unless the index already holds it, without being held or flagged as its
+ * neighbours are gone. A change from before the index's late horizon is refused.
+ *
+ * Please note that this class is not thread safe.
+ */
+class RateHistory {
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    private final CurrencyCode currencyCode;
+    private final RateAverages averages;
+
+    private long[] epochSeconds;
+    private int[] nanos;
+    private double[] rates;
+    private int size;
+    private LocalDateTime watermark;
+    private EvictedChanges evicted;
+    private long changesTooLate;
+
+    RateHistory(CurrencyCode currencyCode) {
+        this.currencyCode = currencyCode;
+        this.averages = new RateAverages();
+        this.epochSeconds = new long[INITIAL_CAPACITY];
+        this.rates = new double[INITIAL_CAPACITY];
+    }
+
+    private RateHistory(CurrencyCode currencyCode, RateAverages averages, long[] epochSeconds, int[] nanos,
+                        double[] rates, LocalDateTime watermark, EvictedChanges evicted) {
+        this.currencyCode = currencyCode;
+        this.averages = averages;
+        this.epochSeconds = epochSeconds;
+        this.nanos = nanos;
+        this.rates = rates;
+        this.size = rates.length;
+        this.watermark = watermark;
+        this.evicted = evicted;
+    }
+
+    /**
+     * @return an independent copy of this history trimmed to its size
+     */
+    RateHistory copy() {
+        return new RateHistory(currencyCode, averages.copy(), Arrays.copyOf(epochSeconds, size),
+                nanos == null ? null : Arrays.copyOf(nanos, size), Arrays.copyOf(rates, size), watermark,
+                evicted == null ? null : evicted.copy());
+    }
+
+    /**
+     * Write this history as a section of a {@link Snapshot}.
+     */
+    void writeTo(Snapshot.Output output) throws IOException {
+        output.putInt(currencyCode.getPackedLetters())
+                .putInt(size)
+                .putInt(nanos == null ? 0 : 1)
+                .putLong(watermark == null ? Long.MIN_VALUE : watermark.toEpochSecond(UTC))
+                .putInt(watermark == null ? 0 : watermark.getNano());
+        averages.writeTo(output);
+        output.putLongs(epochSeconds, size);
+        if (nanos != null) {
+            output.putInts(nanos, size);
+        }
+        output.putDoubles(rates, size);
+        (evicted == null ? new EvictedChanges() : evicted).writeTo(output);
+    }
+
+    /**
+     * @param buffer positioned at a section written by {@link #writeTo(Snapshot.Output)}, left positioned after it
+     */
+    static RateHistory readFrom(ByteBuffer buffer) {
+        CurrencyCode currencyCode = CurrencyCode.fromPackedLetters(buffer.getInt());
+        int size = buffer.getInt();
+        boolean hasNanos = buffer.getInt() != 0;
+        long watermarkSecond = buffer.getLong();
+        int watermarkNano = buffer.getInt();
+        LocalDateTime watermark = watermarkSecond == Long.MIN_VALUE
+                ? null
+                : LocalDateTime.ofEpochSecond(watermarkSecond, watermarkNano, UTC);
+        RateAverages averages = RateAverages.readFrom(buffer);
+        long[] epochSeconds = new long[size];
+        buffer.asLongBuffer().get(epochSeconds);
+        buffer.position(buffer.position() + size * Long.BYTES);
+        int[] nanos = null;
+        if (hasNanos) {
+            nanos = new int[size];
+            buffer.asIntBuffer().get(nanos);
+            buffer.position(buffer.position() + size * Integer.BYTES);
+        }
+        double[] rates = new double[size];
+        buffer.asDoubleBuffer().get(rates);
+        buffer.position(buffer.position() + size * Double.BYTES);
+        EvictedChanges evicted = EvictedChanges.readFrom(buffer);
+        return new RateHistory(currencyCode, averages, epochSeconds, nanos, rates, watermark,
+                watermark == null ? null : evicted);
+    }
+
+    /**
+     * Record the change, flagging it against the changes either side of it. A change before the watermark is only
+     * added to the averages, unless it is a duplicate.
+     *
+     * @param exchangeRateChange to record, must be for this currency
+     * @param flaggedChanges to add any dramatic rate changes to
+     * @param version of the store the change is recorded at
+     */
+    void record(ExchangeRateChange exchangeRateChange, FlaggedChangePublisher flaggedChanges, long version) {
+        LocalDateTime timestamp = exchangeRateChange.getTimestamp();
+        if (isBeforeWatermark(timestamp)) {
+            recordLate(exchangeRateChange, version);
+            return;
+        }
+        long epochSecond = timestamp.toEpochSecond(UTC);
+        int nano = timestamp.getNano();
+        double rate = exchangeRateChange.getRateAgainstUSD();
+
+        int insertAt = upperBound(epochSecond, nano);
+        int lowerBound = insertAt == 0 || compare(insertAt - 1, epochSecond, nano) < 0
+                ? insertAt
+                : lowerBound(epochSecond, nano);
+        if (containsRate(lowerBound, insertAt, rate)) {
+            return;
+        }
+
+        // Where several changes share a timestamp the first one recorded is the previous change and the last one
+        // recorded is the next change.
+        if (lowerBound > 0) {
+            int previous = firstWithSameTimestamp(lowerBound - 1);
+            flagIfDramaticRateChange(exchangeRateChange, previous, flaggedChanges);
+        }
+        if (insertAt < size) {
+            int next = lastWithSameTimestamp(insertAt);
+            flagIfDramaticRateChange(exchangeRateChange, next, flaggedChanges);
+        }
+        insert(insertAt, epochSecond, nano, rate);
+        averages.add(timestamp.getYear(), timestamp.getMonthValue(), rate, version);
+    }
+
+    /**
+     * Record the changes, flagging them exactly as {@link #record(ExchangeRateChange, FlaggedChangePublisher, long)} would if it were called
+     * for each of them in the order given. Changes arriving after the existing ones are simply appended, otherwise the
+     * changes are merged with the existing ones in a single pass.
+     *
+     * @param exchangeRateChanges to record in timestamp order, must be for this currency
+     * @param flaggedChanges to add any dramatic rate changes to
+     * @param version of the store the changes are recorded at
+     */
+    void recordAll(List<ExchangeRateChange> exchangeRateChanges, FlaggedChangePublisher flaggedChanges, long version) {
+        int firstKept = 0;
+        while (firstKept < exchangeRateChanges.size()
+                && isBeforeWatermark(exchangeRateChanges.get(firstKept).getTimestamp())) {
+            recordLate(exchangeRateChanges.get(firstKept), version);
+            firstKept++;
+        }
+        exchangeRateChanges = exchangeRateChanges.subList(firstKept, exchangeRateChanges.size());
+        if (exchangeRateChanges.isEmpty()) {
+            return;
+        }
+        LocalDateTime first = exchangeRateChanges.get(0).getTimestamp();
+        if (size == 0 || compare(size - 1, first.toEpochSecond(UTC), first.getNano()) <= 0) {
+            exchangeRateChanges.forEach(change -> record(change, flaggedChanges, version));
+        } else {
+            merge(exchangeRateChanges, flaggedChanges, version);
+        }
+    }
+
+    private void merge(List<ExchangeRateChange> exchangeRateChanges, FlaggedChangePublisher flaggedChanges, long version) {
+        long[] existingSeconds = epochSeconds;
+        int[] existingNanos = nanos;
+        double[] existingRates = rates;
+        int existingSize = size;
+
+        // the merged columns are filled in place of the existing ones so the previous change is always read from them
+        int capacity = Math.max(existingSize + exchangeRateChanges.size(), epochSeconds.length);
+        epochSeconds = new long[capacity];
+        rates = new double[capacity];
+        nanos = existingNanos != null || exchangeRateChanges.stream().anyMatch(change -> change.getTimestamp().getNano() != 0)
+                ? new int[capacity]
+                : null;
+        size = 0;
+
+        int existing = 0;
+        int nextGroupFirst = -1;
+        int nextGroupLast = -1;
+        int groupStart = -1;
+        int previousGroupStart = -1;
+        for (ExchangeRateChange exchangeRateChange : exchangeRateChanges) {
+            LocalDateTime timestamp = exchangeRateChange.getTimestamp();
+            long epochSecond = timestamp.toEpochSecond(UTC);
+            int nano = timestamp.getNano();
+            double rate = exchangeRateChange.getRateAgainstUSD();
+
+            while (existing < existingSize
+                    && compare(existingSeconds[existing], nanoAt(existingNanos, existing), epochSecond, nano) <= 0) {
+                if (size == 0 || compare(size - 1, existingSeconds[existing], nanoAt(existingNanos, existing)) != 0) {
+                    previousGroupStart = groupStart;
+                    groupStart = size;
+                }
+                append(existingSeconds[existing], nanoAt(existingNanos, existing), existingRates[existing]);
+                existing++;
+            }
+
+            boolean startsGroup = size == 0 || compare(size - 1, epochSecond, nano) != 0;
+            if (!startsGroup && containsRate(groupStart, size, rate)) {
+                continue;
+            }
+            int previous = startsGroup ? groupStart : previousGroupStart;
+            if (previous >= 0) {
+                flagIfDramaticRateChange(exchangeRateChange, previous, flaggedChanges);
+            }
+            if (existing < existingSize) {
+                if (nextGroupFirst != existing) {
+                    nextGroupFirst = existing;
+                    nextGroupLast = existing;
+                    while (nextGroupLast + 1 < existingSize
+                            && existingSeconds[nextGroupLast + 1] == existingSeconds[existing]
+                            && nanoAt(existingNanos, nextGroupLast + 1) == nanoAt(existingNanos, existing)) {
+                        nextGroupLast++;
+                    }
+                }
+                flagIfDramaticRateChange(exchangeRateChange, existingSeconds[nextGroupLast],
+                        nanoAt(existingNanos, nextGroupLast), existingRates[nextGroupLast], flaggedChanges);
+            }
+            if (startsGroup) {
+                previousGroupStart = groupStart;
+                groupStart = size;
+            }
+            append(epochSecond, nano, rate);
+            averages.add(timestamp.getYear(), timestamp.getMonthValue(), rate, version);
+        }
+        for (; existing < existingSize; existing++) {
+            append(existingSeconds[existing], nanoAt(existingNanos, existing), existingRates[existing]);
+        }
+    }
+
+    private boolean isBeforeWatermark(LocalDateTime timestamp) {
+        return watermark != null && timestamp.isBefore(watermark);
+    }
+
+    /**
+     * Add a change before the watermark to the averages and the index of evicted changes, unless the index holds it or
+     * it is too late to tell.
+     */
+    private void recordLate(ExchangeRateChange exchangeRateChange, long version) {
+        LocalDateTime timestamp = exchangeRateChange.getTimestamp();
+        long epochSecond = timestamp.toEpochSecond(UTC);
+        double rate = exchangeRateChange.getRateAgainstUSD();
+        if (evicted.isTooLate(epochSecond)) {
+            changesTooLate++;
+        } else if (evicted.add(epochSecond, timestamp.getNano(), rate)) {
+            averages.add(timestamp.getYear(), timestamp.getMonthValue(), rate, version);
+        }
+    }
+
+    /**
+     * Evict the changes before the horizon, trimming the columns to what is left. Those from the late horizon on are
+     * added to the index of evicted changes, which forgets the ones before it. A horizon at or before the watermark
+     * does nothing.
+     *
+     * @param lateFrom the epoch second of the late horizon, at or before the horizon
+     * @return the number of changes evicted
+     */
+    int compact(LocalDateTime horizon, long lateFrom) {
+        if (watermark != null && !horizon.isAfter(watermark)) {
+            return 0;
+        }
+        watermark = horizon;
+        if (this.evicted == null) {
+            this.evicted = new EvictedChanges();
+        }
+        this.evicted.forgetBefore(lateFrom);
+        int evicted = lowerBound(horizon.toEpochSecond(UTC), horizon.getNano());
+        for (int i = lowerBound(lateFrom, 0); i < evicted; i++) {
+            this.evicted.add(epochSeconds[i], nanoAt(i), rates[i]);
+        }
+        if (evicted > 0) {
+            size -= evicted;
+            int capacity = Math.max(INITIAL_CAPACITY, size + (size >> 1));
+            epochSeconds = Arrays.copyOfRange(epochSeconds, evicted, evicted + capacity);
+            rates = Arrays.copyOfRange(rates, evicted, evicted + capacity);
+            if (nanos != null) {
+                nanos = Arrays.copyOfRange(nanos, evicted, evicted + capacity);
+            }
+        }
+        return evicted;
+    }
+
+    /**
+     * @return the changes grouped by currency, each in timestamp order with changes sharing a timestamp left in the
+     * order given.
+     */
+    static Map<CurrencyCode, List<ExchangeRateChange>> byCurrencyInTimeOrder(Collection<ExchangeRateChange> exchangeRateChanges) {
+        Map<CurrencyCode, List<ExchangeRateChange>> byCurrency = new HashMap<>();
+        exchangeRateChanges.forEach(change ->
+                byCurrency.computeIfAbsent(change.getCurrencyCode(), code -> new ArrayList<>()).add(change));
+        byCurrency.values().forEach(changes -> changes.sort(comparing(ExchangeRateChange::getTimestamp)));
+        return byCurrency;
+    }
+
+    /**
+     * @return true if any of the changes from index from up to index to has the rate given
+     */
+    private boolean containsRate(int from, int to, double rate) {
+        long rateBits = Double.doubleToLongBits(rate);
+        for (int i = from; i < to; i++) {
+            if (Double.doubleToLongBits(rates[i]) == rateBits) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void flagIfDramaticRateChange(ExchangeRateChange exchangeRateChange, int other, FlaggedChangePublisher flaggedChanges) {
+        flagIfDramaticRateChange(exchangeRateChange, epochSeconds[other], nanoAt(other), rates[other], flaggedChanges);
+    }
+
+    private void flagIfDramaticRateChange(ExchangeRateChange exchangeRateChange, long otherEpochSecond, int otherNano,
+                                          double otherRate, FlaggedChangePublisher flaggedChanges) {
+        double rate = exchangeRateChange.getRateAgainstUSD();
+        if (DramaticRateChanges.isDramatic(rate, otherRate)) {
+            double percentageRateChange = DramaticRateChanges.getPercentageRateChange(rate, otherRate);
+            ExchangeRateChange other = new ExchangeRateChange(currencyCode,
+                    LocalDateTime.ofEpochSecond(otherEpochSecond, otherNano, UTC), otherRate);
+            flaggedChanges.add(new FlaggedChange(percentageRateChange, exchangeRateChange, other));
+        }
+    }
+
+    int size() {
+        return size;
+    }
+
+    CurrencyCode getCurrencyCode() {
+        return currencyCode;
+    }
+
+    /**
+     * @return the version of the store this history was last changed at
+     */
+    long getVersion() {
+        return averages.getVersion();
+    }
+
+    /**
+     * @return the horizon of the latest compaction, or null if the history has not been compacted
+     */
+    LocalDateTime getWatermark() {
+        return watermark;
+    }
+
+    /**
+     * @return the number of changes refused for being before the late horizon
+     */
+    long getChangesTooLate() {
+        return changesTooLate;
+    }
+
+    RateAverages getAverages() {
+        return averages;
+    }
+
+    /**
+     * @param action to call with every change in time order, each one being created as it is passed
+     */
+    void forEach(Consumer<ExchangeRateChange> action) {
+        for (int i = 0; i < size; i++) {
+            action.accept(changeAt(i));
+        }
+    }
+
+    /**
+     * @return the last change recorded at the latest time at or before the one given, or null if there is none
+     */
+    ExchangeRateChange changeAsOf(LocalDateTime asOf) {
+        int after = upperBound(asOf.toEpochSecond(UTC), asOf.getNano());
+        return after == 0 ? null : changeAt(after - 1);
+    }
+
+    /**
+     * @return the changes from the first time up to but excluding the second, each one being created as it is passed
+     */
+    Stream<ExchangeRateChange> changesBetween(LocalDateTime from, LocalDateTime to) {
+        if (!from.isBefore(to)) {
+            return Stream.empty();
+        }
+        int start = lowerBound(from.toEpochSecond(UTC), from.getNano());
+        int end = lowerBound(to.toEpochSecond(UTC), to.getNano());
+        return IntStream.range(start, end).mapToObj(this::changeAt);
+    }
+
+    ExchangeRateChange changeAt(int index) {
+        LocalDateTime timestamp = LocalDateTime.ofEpochSecond(epochSeconds[index], nanoAt(index), UTC);
+        return new ExchangeRateChange(currencyCode, timestamp, rates[index]);
+    }
+
+    private int nanoAt(int index) {
+        return nanoAt(nanos, index);
+    }
+
+    private static int nanoAt(int[] nanos, int index) {
+        return nanos == null ? 0 : nanos[index];
+    }
+
+    private int compare(int index, long epochSecond, int nano) {
+        return compare(epochSeconds[index], nanoAt(index), epochSecond, nano);
+    }
+
+    private static int compare(long epochSecond, int nano, long otherEpochSecond, int otherNano) {
+        int comparison = Long.compare(epochSecond, otherEpochSecond);
+        return comparison != 0 ? comparison : Integer.compare(nano, otherNano);
+    }
+
+    /**
+     * @return the index of the first change at or after the time given
+     */
+    private int lowerBound(long epochSecond, int nano) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (compare(mid, epochSecond, nano) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * @return the index of the first change after the time given
+     */
+    private int upperBound(long epochSecond, int nano) {
+        if (size == 0 || compare(size - 1, epochSecond, nano) < 0) {
+            return size; // the usual case of changes arriving in time order
+        }
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (compare(mid, epochSecond, nano) <= 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private int firstWithSameTimestamp(int index) {
+        if (index == 0 || compare(index - 1, epochSeconds[index], nanoAt(index)) < 0) {
+            return index;
+        }
+        return lowerBound(epochSeconds[index], nanoAt(index));
+    }
+
+    private int lastWithSameTimestamp(int index) {
+        if (index == size - 1 || compare(index + 1, epochSeconds[index], nanoAt(index)) > 0) {
+            return index;
+        }
+        return upperBound(epochSeconds[index], nanoAt(index)) - 1;
+    }
+
+    private void insert(int index, long epochSecond, int nano, double rate) {
+        if (size == epochSeconds.length) {
+            grow();
+        }
+        if (nano != 0 && nanos == null) {
+            nanos = new int[epochSeconds.length];
+        }
+        int toMove = size - index;
+        if (toMove > 0) {
+            System.arraycopy(epochSeconds, index, epochSeconds, index + 1, toMove);
+            System.arraycopy(rates, index, rates, index + 1, toMove);
+            if (nanos != null) {
+                System.arraycopy(nanos, index, nanos, index + 1, toMove);
+            }
+        }
+        epochSeconds[index] = epochSecond;
+        rates[index] = rate;
+        if (nanos != null) {
+            nanos[index] = nano;
+        }
+        size++;
+    }
+
+    private void append(long epochSecond, int nano, double rate) {
+        epochSeconds[size] = epochSecond;
+        rates[size] = rate;
+        if (nanos != null) {
+            nanos[size] = nano;
+        }
+        size++;
+    }
+
+    private void grow() {
+        int capacity = Math.max(INITIAL_CAPACITY, epochSeconds.length + (epochSeconds.length >> 1));
+        epochSeconds = Arrays.copyOf(epochSeconds, capacity);
+        rates = Arrays.copyOf(rates, capacity);
+        if (nanos != null) {
+            nanos = Arrays.copyOf(nanos, capacity);
+        }
+    }
+}
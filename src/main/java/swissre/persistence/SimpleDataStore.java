@@ -3,129 +3,281 @@ package swissre.persistence;
 import swissre.model.ExchangeRateChange;
 import swissre.model.CurrencyCode;
 import swissre.model.FlaggedChange;
+import swissre.model.RateSummary;
 
-import java.math.BigDecimal;
+import java.time.Duration;
 import java.time.LocalDateTime;
 import java.util.*;
-import java.util.function.Function;
-import java.util.function.Predicate;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
-import static java.math.BigDecimal.ROUND_HALF_UP;
-import static java.util.stream.Collectors.averagingDouble;
-import static java.util.stream.Collectors.groupingBy;
+import static java.time.ZoneOffset.UTC;
 
 /**
  * Simple in memory implementation of the {@link DataStore}.
  *
- * Any attempt to store an exchange rate change which has already been received will be ignored.
+ * Exchange rate changes are indexed per currency by timestamp so finding the changes either side of a new one
+ * is O(log n) regardless of the order the files are loaded in. Monthly and yearly averages are maintained as changes
+ * are recorded so querying them only costs the number of months and years held. Each month and year is stamped with
+ * the version it last changed at, so finding what has changed since a version only costs the number of them held.
+ *
+ * Any attempt to store an exchange rate change which has already been received will be ignored. The timestamp index
+ * doubles as the duplicate index, only the few changes sharing the timestamp are compared so no second copy of the
+ * changes is kept.
+ *
+ * Compacting drops the changes before the horizon from the timestamp index to an index of {@link EvictedChanges}, the
+ * averages being kept separately. A change before the watermark is only checked against that index, or refused if it
+ * is before the index's late horizon.
  * @author Duncan Atkinson
  */
-public class SimpleDataStore implements DataStore {
+public class SimpleDataStore implements DataStore, Compactable {
+
+    private final Map<CurrencyCode, NavigableMap<LocalDateTime, List<ExchangeRateChange>>> exchangeRateChanges;
+
+    private final Map<CurrencyCode, RateAverages> averages;
+
+    private final Map<CurrencyCode, EvictedChanges> evicted;
+
+    private final FlaggedChangePublisher flaggedChanges;
+
+    private long version;
+
+    private LocalDateTime watermark;
 
-    private final Map<CurrencyCode, List<ExchangeRateChange>> exchangeRateChanges;
+    private long lateFrom = Long.MIN_VALUE;
 
-    private final List<FlaggedChange> flaggedChanges;
+    private long changesTooLate;
 
     public SimpleDataStore() {
+        this(FlaggedChangePublisher.DEFAULT_RETENTION);
+    }
+
+    /**
+     * @param flagRetention the number of the most recently flagged changes to keep, or
+     *                      {@link FlaggedChangePublisher#UNBOUNDED}
+     */
+    public SimpleDataStore(int flagRetention) {
         this.exchangeRateChanges = new HashMap<>();
-        this.flaggedChanges = new ArrayList<>();
+        this.averages = new HashMap<>();
+        this.evicted = new HashMap<>();
+        this.flaggedChanges = new FlaggedChangePublisher(flagRetention);
     }
 
     @Override
     public Set<ExchangeRateChange> getExchangeRateChanges() {
         return exchangeRateChanges.values().stream()
-                .flatMap(Collection::stream)
+                .flatMap(SimpleDataStore::changesInTimeOrder)
                 .collect(Collectors.toSet());
     }
 
     @Override
     public void record(ExchangeRateChange exchangeRateChange) {
         CurrencyCode currencyCode = exchangeRateChange.getCurrencyCode();
-        if (!this.exchangeRateChanges.containsKey(currencyCode)) {
-            this.exchangeRateChanges.put(currencyCode, new LinkedList<>());
+        LocalDateTime timestamp = exchangeRateChange.getTimestamp();
+        if (watermark != null && timestamp.isBefore(watermark)) {
+            recordLate(exchangeRateChange);
+            return;
+        }
+        NavigableMap<LocalDateTime, List<ExchangeRateChange>> changesForCurrency =
+                this.exchangeRateChanges.get(currencyCode);
+        List<ExchangeRateChange> sameTimestamp = changesForCurrency == null ? null : changesForCurrency.get(timestamp);
+        if (sameTimestamp != null && containsRate(sameTimestamp, exchangeRateChange.getRateAgainstUSD())) {
+            return;
+        }
+        version++;
+        if (changesForCurrency == null) {
+            changesForCurrency = new TreeMap<>();
+            this.exchangeRateChanges.put(currencyCode, changesForCurrency);
         }
-        List<ExchangeRateChange> changesForCurrency = this.exchangeRateChanges.get(currencyCode);
-        Optional<ExchangeRateChange> previousChange = changesForCurrency.stream()
-                .filter(changesBefore(exchangeRateChange.getTimestamp()))
-                .max(comparingByTimestamp());
 
-        Optional<ExchangeRateChange> nextChange = changesForCurrency.stream()
-                .filter(changesAfter(exchangeRateChange.getTimestamp()))
-                .min(comparingByTimestamp());
+        // Where several changes share a timestamp the first one recorded is the previous change and the last one
+        // recorded is the next change.
+        Map.Entry<LocalDateTime, List<ExchangeRateChange>> previousChanges = changesForCurrency.lowerEntry(timestamp);
+        Map.Entry<LocalDateTime, List<ExchangeRateChange>> nextChanges = changesForCurrency.higherEntry(timestamp);
 
         // compare with before and after just in case file loads are out of order
-        previousChange.ifPresent((prev) -> flagIfDramaticRateChange(exchangeRateChange, prev));
-        nextChange.ifPresent((next) -> flagIfDramaticRateChange(exchangeRateChange, next));
-        this.exchangeRateChanges.get(currencyCode).add(exchangeRateChange);
+        if (previousChanges != null) {
+            flagIfDramaticRateChange(exchangeRateChange, first(previousChanges.getValue()));
+        }
+        if (nextChanges != null) {
+            flagIfDramaticRateChange(exchangeRateChange, last(nextChanges.getValue()));
+        }
+        if (sameTimestamp == null) {
+            sameTimestamp = new ArrayList<>(1);
+            changesForCurrency.put(timestamp, sameTimestamp);
+        }
+        sameTimestamp.add(exchangeRateChange);
+        this.averages.computeIfAbsent(currencyCode, code -> new RateAverages())
+                .add(timestamp.getYear(), timestamp.getMonthValue(), exchangeRateChange.getRateAgainstUSD(), version);
+    }
+
+    /**
+     * Add a change before the watermark to the averages, unless it has been seen before or it is too late to tell.
+     */
+    private void recordLate(ExchangeRateChange exchangeRateChange) {
+        CurrencyCode currencyCode = exchangeRateChange.getCurrencyCode();
+        LocalDateTime timestamp = exchangeRateChange.getTimestamp();
+        long epochSecond = timestamp.toEpochSecond(UTC);
+        double rate = exchangeRateChange.getRateAgainstUSD();
+        if (epochSecond < lateFrom) {
+            changesTooLate++;
+            return;
+        }
+        if (!evictedFor(currencyCode).add(epochSecond, timestamp.getNano(), rate)) {
+            return;
+        }
+        version++;
+        this.averages.computeIfAbsent(currencyCode, code -> new RateAverages())
+                .add(timestamp.getYear(), timestamp.getMonthValue(), rate, version);
+    }
+
+    private static boolean containsRate(List<ExchangeRateChange> changes, double rate) {
+        for (ExchangeRateChange change : changes) {
+            if (Double.doubleToLongBits(change.getRateAgainstUSD()) == Double.doubleToLongBits(rate)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static ExchangeRateChange first(List<ExchangeRateChange> changes) {
+        return changes.get(0);
+    }
+
+    private static ExchangeRateChange last(List<ExchangeRateChange> changes) {
+        return changes.get(changes.size() - 1);
+    }
+
+    private static Stream<ExchangeRateChange> changesInTimeOrder(NavigableMap<LocalDateTime, List<ExchangeRateChange>> changes) {
+        return changes.values().stream().flatMap(Collection::stream);
     }
 
     private void flagIfDramaticRateChange(ExchangeRateChange exchangeRateChange, ExchangeRateChange nextChange) {
-        double percentageRateChange = getPercentageRateChange(exchangeRateChange, nextChange);
-        if (percentageRateChange >= 20) {
+        double rate = exchangeRateChange.getRateAgainstUSD();
+        double otherRate = nextChange.getRateAgainstUSD();
+        if (DramaticRateChanges.isDramatic(rate, otherRate)) {
+            double percentageRateChange = DramaticRateChanges.getPercentageRateChange(rate, otherRate);
             flaggedChanges.add(new FlaggedChange(percentageRateChange, exchangeRateChange, nextChange));
         }
     }
 
-    private double getPercentageRateChange(ExchangeRateChange exchangeRateChange, ExchangeRateChange previousChange) {
-        BigDecimal smallerRate;
-        BigDecimal biggerRate;
-        if (previousChange.getRateAgainstUSD() < exchangeRateChange.getRateAgainstUSD()) {
-            smallerRate = BigDecimal.valueOf(previousChange.getRateAgainstUSD());
-            biggerRate = BigDecimal.valueOf(exchangeRateChange.getRateAgainstUSD());
-        }else{
-            biggerRate = BigDecimal.valueOf(previousChange.getRateAgainstUSD());
-            smallerRate = BigDecimal.valueOf(exchangeRateChange.getRateAgainstUSD());
+    private EvictedChanges evictedFor(CurrencyCode currencyCode) {
+        return evicted.computeIfAbsent(currencyCode, code -> {
+            EvictedChanges evictedForCurrency = new EvictedChanges();
+            evictedForCurrency.forgetBefore(lateFrom);
+            return evictedForCurrency;
+        });
+    }
+
+    @Override
+    public long compact(LocalDateTime horizon, Duration lateGrace) {
+        if (watermark != null && !horizon.isAfter(watermark)) {
+            return 0;
         }
+        watermark = horizon;
+        lateFrom = Math.max(lateFrom, horizon.minus(lateGrace).toEpochSecond(UTC));
+        evicted.values().forEach(evictedForCurrency -> evictedForCurrency.forgetBefore(lateFrom));
+        long evictedCount = 0;
+        for (Map.Entry<CurrencyCode, NavigableMap<LocalDateTime, List<ExchangeRateChange>>> changesForCurrency
+                : exchangeRateChanges.entrySet()) {
+            NavigableMap<LocalDateTime, List<ExchangeRateChange>> before =
+                    changesForCurrency.getValue().headMap(horizon, false);
+            EvictedChanges evictedForCurrency = evictedFor(changesForCurrency.getKey());
+            for (Map.Entry<LocalDateTime, List<ExchangeRateChange>> sameTimestamp : before.entrySet()) {
+                long epochSecond = sameTimestamp.getKey().toEpochSecond(UTC);
+                int nano = sameTimestamp.getKey().getNano();
+                if (epochSecond >= lateFrom) {
+                    for (ExchangeRateChange change : sameTimestamp.getValue()) {
+                        evictedForCurrency.add(epochSecond, nano, change.getRateAgainstUSD());
+                    }
+                }
+                evictedCount += sameTimestamp.getValue().size();
+            }
+            before.clear();
+        }
+        return evictedCount;
+    }
 
-        BigDecimal absoluteChange = biggerRate.subtract(smallerRate).abs();
-        BigDecimal divide = absoluteChange.divide(smallerRate, ROUND_HALF_UP);
-        BigDecimal percentageChange = divide.multiply(BigDecimal.valueOf(100.0));
-        return percentageChange.doubleValue();
+    @Override
+    public long getChangesTooLate() {
+        return changesTooLate;
     }
 
-    private Comparator<ExchangeRateChange> comparingByTimestamp() {
-        return (a, b) -> {
-            if (a.equals(b)) {
-                return 0;
-            } else {
-                return a.getTimestamp().isBefore(b.getTimestamp()) ? -1 : 1;
-            }
-        };
+    @Override
+    public Optional<LocalDateTime> getCompactionWatermark() {
+        return Optional.ofNullable(watermark);
     }
 
-    private Predicate<ExchangeRateChange> changesBefore(LocalDateTime time) {
-        return (change) -> change.getTimestamp().isBefore(time);
+    @Override
+    public Optional<ExchangeRateChange> getRateAsOf(CurrencyCode currencyCode, LocalDateTime asOf) {
+        NavigableMap<LocalDateTime, List<ExchangeRateChange>> changesForCurrency = exchangeRateChanges.get(currencyCode);
+        Map.Entry<LocalDateTime, List<ExchangeRateChange>> latest =
+                changesForCurrency == null ? null : changesForCurrency.floorEntry(asOf);
+        return latest == null ? Optional.empty() : Optional.of(last(latest.getValue()));
     }
 
-    private Predicate<ExchangeRateChange> changesAfter(LocalDateTime time) {
-        return (change) -> change.getTimestamp().isAfter(time);
+    /**
+     * The stream is a view of the changes held, so should be consumed before any more changes are recorded.
+     */
+    @Override
+    public Stream<ExchangeRateChange> getExchangeRateChanges(CurrencyCode currencyCode, LocalDateTime from,
+                                                             LocalDateTime to) {
+        NavigableMap<LocalDateTime, List<ExchangeRateChange>> changesForCurrency = exchangeRateChanges.get(currencyCode);
+        if (changesForCurrency == null || !from.isBefore(to)) {
+            return Stream.empty();
+        }
+        return changesInTimeOrder(changesForCurrency.subMap(from, true, to, false));
     }
 
     @Override
     public List<FlaggedChange> getFlaggedChanges() {
+        return flaggedChanges.getRetained();
+    }
+
+    @Override
+    public FlaggedChangePublisher getFlaggedChangePublisher() {
         return flaggedChanges;
     }
 
     @Override
-    public Map<String, Double> getAveragesByMonth(CurrencyCode currencyCode) {
-        return exchangeRateChanges.get(currencyCode).stream()
-                .collect(groupingBy(yearAndMonth(), averagingDouble(ExchangeRateChange::getRateAgainstUSD)));
+    public Set<CurrencyCode> getCurrencies() {
+        return new HashSet<>(averages.keySet());
     }
 
     @Override
-    public Map<Integer, Double> getAveragesByYear(CurrencyCode currencyCode) {
-        return exchangeRateChanges.get(currencyCode).stream()
-                .collect(groupingBy(year(), averagingDouble(ExchangeRateChange::getRateAgainstUSD)));
+    public long getVersion() {
+        return version;
+    }
+
+    @Override
+    public StoreChanges changesSince(long version) {
+        StoreChanges changes = new StoreChanges(this.version);
+        averages.forEach((currencyCode, averagesForCurrency) -> {
+            if (averagesForCurrency.getVersion() > version) {
+                Set<String> months = new HashSet<>();
+                Set<Integer> years = new HashSet<>();
+                averagesForCurrency.changedSince(version, months, years);
+                changes.add(currencyCode, months, years);
+            }
+        });
+        return changes;
     }
 
-    private Function<ExchangeRateChange, String> yearAndMonth() {
-        return exchangeRateChange -> {
-            return exchangeRateChange.getTimestamp().getYear() + "_" + exchangeRateChange.getTimestamp().getMonth();
-        };
+    @Override
+    public Map<String, Double> getAveragesByMonth(CurrencyCode currencyCode) {
+        RateAverages averagesForCurrency = averages.get(currencyCode);
+        return averagesForCurrency == null ? new HashMap<>() : averagesForCurrency.averagesByMonth();
     }
 
-    private Function<ExchangeRateChange, Integer> year() {
-        return exchangeRateChange -> exchangeRateChange.getTimestamp().getYear();
+    @Override
+    public Map<Integer, Double> getAveragesByYear(CurrencyCode currencyCode) {
+        RateAverages averagesForCurrency = averages.get(currencyCode);
+        return averagesForCurrency == null ? new HashMap<>() : averagesForCurrency.averagesByYear();
+    }
+
+    @Override
+    public Map<String, RateSummary> getSummariesByMonth(CurrencyCode currencyCode) {
+        RateAverages averagesForCurrency = averages.get(currencyCode);
+        return averagesForCurrency == null ? new HashMap<>() : averagesForCurrency.summariesByMonth();
     }
 }
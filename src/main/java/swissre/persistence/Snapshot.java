@@ -0,0 +1,243 @@
+package swissre.persistence;
+
+import swissre.model.CurrencyCode;
+import swissre.model.ExchangeRateChange;
+import swissre.model.FlaggedChange;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.nio.file.StandardOpenOption.*;
+import static java.time.ZoneOffset.UTC;
+
+/**
+ * The binary snapshot format shared by the stores that hold their histories as {@link RateHistory}s.
+ *
+ * A snapshot is a header of magic, version, log position and currency count, then a section per currency and finally
+ * the flagged changes. The log position is the number of changes of a {@link DurableDataStore} log the snapshot holds,
+ * so recovery only needs to replay the log from there, it is 0 for a snapshot of a store without a log.
+ *
+ * Each currency's section starts with its packed letters, the number of changes, whether nanoseconds are held and its
+ * compaction watermark, followed by its monthly and yearly running averages, its timestamp and rate columns and the
+ * index of its {@link EvictedChanges}. The averages come before the columns so they can be read straight from a mapped
+ * snapshot without touching the columns.
+ *
+ * Snapshots are written to a temporary file which is then moved over the snapshot, so a reader only ever sees a
+ * complete snapshot. As they are mapped they are limited to 2GB.
+ */
+final class Snapshot {
+
+    static final int MAGIC = 0x4658534E; // FXSN
+    static final int VERSION = 5;
+
+    private static final int BUFFER_SIZE = 1 << 16;
+    private static final int WATERMARK_SIZE = Long.BYTES + Integer.BYTES;
+
+    private Snapshot() {
+    }
+
+    /**
+     * Atomically replace the snapshot with the histories and flagged changes given.
+     *
+     * @param logPosition the number of changes of the log already in the histories
+     */
+    static void write(Path snapshot, long logPosition, Collection<RateHistory> histories,
+                      List<FlaggedChange> flaggedChanges) throws IOException {
+        Path temporary = snapshot.resolveSibling(snapshot.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temporary, CREATE, WRITE, TRUNCATE_EXISTING)) {
+            Output output = new Output(channel);
+            output.putInt(MAGIC).putInt(VERSION).putLong(logPosition).putInt(histories.size());
+            for (RateHistory history : histories) {
+                history.writeTo(output);
+            }
+            output.putInt(flaggedChanges.size());
+            for (FlaggedChange flaggedChange : flaggedChanges) {
+                output.putDouble(flaggedChange.getPercentageChange());
+                putChange(output, flaggedChange.getOlderRateChange());
+                putChange(output, flaggedChange.getNewerRateChange());
+            }
+            output.flush();
+            channel.force(true);
+        }
+        Files.move(temporary, snapshot, ATOMIC_MOVE, REPLACE_EXISTING);
+    }
+
+    private static void putChange(Output output, ExchangeRateChange change) throws IOException {
+        LocalDateTime timestamp = change.getTimestamp();
+        output.putInt(change.getCurrencyCode().getPackedLetters())
+                .putLong(timestamp.toEpochSecond(UTC))
+                .putInt(timestamp.getNano())
+                .putDouble(change.getRateAgainstUSD());
+    }
+
+    /**
+     * @return the snapshot mapped read only and positioned at the log position, which is followed by the currency count
+     * @throws IOException if the file is not a snapshot
+     */
+    static ByteBuffer map(Path snapshot) throws IOException {
+        try (FileChannel channel = FileChannel.open(snapshot, READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Snapshot too large to map " + snapshot);
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.remaining() < 20 || buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+                throw new IOException("Not an exchange rate snapshot " + snapshot);
+            }
+            return buffer;
+        }
+    }
+
+    /**
+     * Find where the averages of each currency start without reading any of their columns.
+     *
+     * @param buffer positioned at the currency count, left positioned at the flagged changes
+     * @param averagesOffsets indexed by {@link CurrencyCode#getOrdinal()}, grown as needed
+     * @param currencies to add each currency in the snapshot to
+     * @return averagesOffsets or a larger copy of it
+     */
+    static int[] indexAverages(ByteBuffer buffer, int[] averagesOffsets, Collection<CurrencyCode> currencies)
+            throws IOException {
+        try {
+            int currencyCount = buffer.getInt();
+            for (int i = 0; i < currencyCount; i++) {
+                CurrencyCode currencyCode = CurrencyCode.fromPackedLetters(buffer.getInt());
+                int size = buffer.getInt();
+                boolean hasNanos = buffer.getInt() != 0;
+                buffer.position(buffer.position() + WATERMARK_SIZE);
+                int ordinal = currencyCode.getOrdinal();
+                if (ordinal >= averagesOffsets.length) {
+                    averagesOffsets = Arrays.copyOf(averagesOffsets, Math.max(ordinal + 1, averagesOffsets.length * 2));
+                }
+                averagesOffsets[ordinal] = buffer.position();
+                currencies.add(currencyCode);
+                RateAverages.skip(buffer);
+                buffer.position(buffer.position() + size * (hasNanos ? 20 : 16));
+                EvictedChanges.skip(buffer);
+            }
+            return averagesOffsets;
+        } catch (BufferUnderflowException | IllegalArgumentException e) {
+            throw new IOException("Truncated exchange rate snapshot", e);
+        }
+    }
+
+    /**
+     * @param buffer positioned at the currency count, left positioned at the flagged changes
+     */
+    static List<RateHistory> readHistories(ByteBuffer buffer) {
+        int currencies = buffer.getInt();
+        List<RateHistory> histories = new ArrayList<>(currencies);
+        for (int i = 0; i < currencies; i++) {
+            histories.add(RateHistory.readFrom(buffer));
+        }
+        return histories;
+    }
+
+    /**
+     * @param buffer positioned at the flagged changes
+     */
+    static List<FlaggedChange> readFlaggedChanges(ByteBuffer buffer) {
+        int count = buffer.getInt();
+        List<FlaggedChange> flaggedChanges = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            double percentageChange = buffer.getDouble();
+            ExchangeRateChange older = readChange(buffer);
+            ExchangeRateChange newer = readChange(buffer);
+            flaggedChanges.add(new FlaggedChange(percentageChange, older, newer));
+        }
+        return flaggedChanges;
+    }
+
+    private static ExchangeRateChange readChange(ByteBuffer buffer) {
+        CurrencyCode currencyCode = CurrencyCode.fromPackedLetters(buffer.getInt());
+        LocalDateTime timestamp = LocalDateTime.ofEpochSecond(buffer.getLong(), buffer.getInt(), UTC);
+        return new ExchangeRateChange(currencyCode, timestamp, buffer.getDouble());
+    }
+
+    /**
+     * Buffered big endian output to a channel, with bulk writes for the columns.
+     */
+    static final class Output {
+
+        private final FileChannel channel;
+        private final ByteBuffer buffer;
+
+        private Output(FileChannel channel) {
+            this.channel = channel;
+            this.buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        }
+
+        Output putInt(int value) throws IOException {
+            ensureRemaining(Integer.BYTES);
+            buffer.putInt(value);
+            return this;
+        }
+
+        Output putLong(long value) throws IOException {
+            ensureRemaining(Long.BYTES);
+            buffer.putLong(value);
+            return this;
+        }
+
+        Output putDouble(double value) throws IOException {
+            ensureRemaining(Double.BYTES);
+            buffer.putDouble(value);
+            return this;
+        }
+
+        void putLongs(long[] values, int length) throws IOException {
+            for (int offset = 0; offset < length; ) {
+                ensureRemaining(Long.BYTES);
+                int count = Math.min(length - offset, buffer.remaining() / Long.BYTES);
+                buffer.asLongBuffer().put(values, offset, count);
+                buffer.position(buffer.position() + count * Long.BYTES);
+                offset += count;
+            }
+        }
+
+        void putInts(int[] values, int length) throws IOException {
+            for (int offset = 0; offset < length; ) {
+                ensureRemaining(Integer.BYTES);
+                int count = Math.min(length - offset, buffer.remaining() / Integer.BYTES);
+                buffer.asIntBuffer().put(values, offset, count);
+                buffer.position(buffer.position() + count * Integer.BYTES);
+                offset += count;
+            }
+        }
+
+        void putDoubles(double[] values, int length) throws IOException {
+            for (int offset = 0; offset < length; ) {
+                ensureRemaining(Double.BYTES);
+                int count = Math.min(length - offset, buffer.remaining() / Double.BYTES);
+                buffer.asDoubleBuffer().put(values, offset, count);
+                buffer.position(buffer.position() + count * Double.BYTES);
+                offset += count;
+            }
+        }
+
+        private void ensureRemaining(int bytes) throws IOException {
+            if (buffer.remaining() < bytes) {
+                flush();
+            }
+        }
+
+        void flush() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+    }
+}
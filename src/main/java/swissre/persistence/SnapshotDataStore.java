@@ -0,0 +1,246 @@
+package swissre.persistence;
+
+import swissre.model.CurrencyCode;
+import swissre.model.ExchangeRateChange;
+import swissre.model.FlaggedChange;
+import swissre.model.RateSummary;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.stream.Stream;
+
+/**
+ * A {@link DataStore} started from a snapshot written by a {@link Snapshottable} store.
+ *
+ * The snapshot is memory mapped and only the start of each currency's section is read when it is opened, so the
+ * monthly and yearly averages can be served straight from the snapshot almost immediately whatever its size. The
+ * changes themselves are only materialised into a {@link ColumnarDataStore} once something other than the averages is
+ * asked for, or in the background when the store is opened with an executor. From then on every call goes to the
+ * materialised store, so changes can be recorded on top of the snapshot. Currencies and the buckets changed since a
+ * version are also answered from the snapshot, everything in it being at {@link RateAverages#RESTORED_VERSION}.
+ *
+ * Please note that, like the {@link ColumnarDataStore}, this class is not thread safe.
+ *
+ * @author Duncan Atkinson
+ */
+public class SnapshotDataStore implements DataStore, LogSnapshottable, Compactable {
+
+    private static final int FLAGGED_CHANGE_SIZE = 56;
+
+    /**
+     * Positioned at the currency count, released once the store is materialised.
+     */
+    private ByteBuffer snapshot;
+
+    /**
+     * Indexed by {@link CurrencyCode#getOrdinal()}, 0 for currencies not in the snapshot.
+     */
+    private final int[] averagesOffsets;
+    private final Set<CurrencyCode> currencies;
+    private final long logPosition;
+
+    private final CompletableFuture<ColumnarDataStore> materialising;
+    private ColumnarDataStore dataStore;
+
+    private SnapshotDataStore(ByteBuffer snapshot, int[] averagesOffsets, Set<CurrencyCode> currencies,
+                              long logPosition, Executor executor) {
+        this.snapshot = snapshot;
+        this.averagesOffsets = averagesOffsets;
+        this.currencies = currencies;
+        this.logPosition = logPosition;
+        this.materialising = executor == null ? null : CompletableFuture.supplyAsync(this::materialise, executor);
+    }
+
+    /**
+     * Open the snapshot, materialising its changes only when they are first needed.
+     *
+     * @param snapshot file written by {@link Snapshottable#writeSnapshot(Path)}
+     * @throws IOException if the snapshot could not be read or is not a complete snapshot
+     */
+    public static SnapshotDataStore open(Path snapshot) throws IOException {
+        return open(snapshot, null);
+    }
+
+    /**
+     * Open the snapshot and start materialising its changes in the background straight away.
+     *
+     * @param snapshot file written by {@link Snapshottable#writeSnapshot(Path)}
+     * @param executor to materialise the changes on
+     * @throws IOException if the snapshot could not be read or is not a complete snapshot
+     */
+    public static SnapshotDataStore open(Path snapshot, Executor executor) throws IOException {
+        ByteBuffer mapped = Snapshot.map(snapshot);
+        long logPosition = mapped.getLong();
+        ByteBuffer buffer = mapped.duplicate();
+        Set<CurrencyCode> currencies = new HashSet<>();
+        int[] averagesOffsets = Snapshot.indexAverages(buffer, new int[Math.max(16, CurrencyCode.getCodesSeen())],
+                currencies);
+        if (buffer.remaining() < Integer.BYTES
+                || buffer.remaining() - Integer.BYTES < (long) buffer.getInt() * FLAGGED_CHANGE_SIZE) {
+            throw new IOException("Truncated exchange rate snapshot " + snapshot);
+        }
+        return new SnapshotDataStore(mapped, averagesOffsets, currencies, logPosition, executor);
+    }
+
+    private ColumnarDataStore materialise() {
+        ByteBuffer buffer = snapshot.duplicate();
+        List<RateHistory> histories = Snapshot.readHistories(buffer);
+        return new ColumnarDataStore(histories, Snapshot.readFlaggedChanges(buffer));
+    }
+
+    /**
+     * @return true once the changes in the snapshot have been materialised
+     */
+    public boolean isMaterialised() {
+        return dataStore != null || (materialising != null && materialising.isDone());
+    }
+
+    private ColumnarDataStore dataStore() {
+        if (dataStore == null) {
+            dataStore = materialising == null ? materialise() : materialising.join();
+            snapshot = null;
+        }
+        return dataStore;
+    }
+
+    @Override
+    public Set<ExchangeRateChange> getExchangeRateChanges() {
+        return dataStore().getExchangeRateChanges();
+    }
+
+    @Override
+    public void record(ExchangeRateChange exchangeRateChange) {
+        dataStore().record(exchangeRateChange);
+    }
+
+    @Override
+    public void recordAll(Collection<ExchangeRateChange> exchangeRateChanges) {
+        dataStore().recordAll(exchangeRateChanges);
+    }
+
+    @Override
+    public List<FlaggedChange> getFlaggedChanges() {
+        return dataStore().getFlaggedChanges();
+    }
+
+    @Override
+    public void writeSnapshot(Path snapshot) throws IOException {
+        writeSnapshot(snapshot, 0);
+    }
+
+    @Override
+    public void writeSnapshot(Path snapshot, long logPosition) throws IOException {
+        dataStore().writeSnapshot(snapshot, logPosition);
+    }
+
+    /**
+     * @return the number of changes of a {@link DurableDataStore} log held by the snapshot, to replay the log from
+     */
+    public long getLogPosition() {
+        return logPosition;
+    }
+
+    @Override
+    public long compact(LocalDateTime horizon, Duration lateGrace) {
+        return dataStore().compact(horizon, lateGrace);
+    }
+
+    @Override
+    public long getChangesTooLate() {
+        return dataStore().getChangesTooLate();
+    }
+
+    @Override
+    public Optional<LocalDateTime> getCompactionWatermark() {
+        return dataStore().getCompactionWatermark();
+    }
+
+    @Override
+    public Optional<ExchangeRateChange> getRateAsOf(CurrencyCode currencyCode, LocalDateTime asOf) {
+        return dataStore().getRateAsOf(currencyCode, asOf);
+    }
+
+    @Override
+    public Stream<ExchangeRateChange> getExchangeRateChanges(CurrencyCode currencyCode, LocalDateTime from,
+                                                             LocalDateTime to) {
+        return dataStore().getExchangeRateChanges(currencyCode, from, to);
+    }
+
+    @Override
+    public FlaggedChangePublisher getFlaggedChangePublisher() {
+        return dataStore().getFlaggedChangePublisher();
+    }
+
+    @Override
+    public Set<CurrencyCode> getCurrencies() {
+        return isMaterialised() ? dataStore().getCurrencies() : new HashSet<>(currencies);
+    }
+
+    /**
+     * @return {@link RateAverages#RESTORED_VERSION} until changes are recorded on top of the snapshot
+     */
+    @Override
+    public long getVersion() {
+        return isMaterialised() ? dataStore().getVersion() : RateAverages.RESTORED_VERSION;
+    }
+
+    @Override
+    public StoreChanges changesSince(long version) {
+        if (isMaterialised()) {
+            return dataStore().changesSince(version);
+        }
+        StoreChanges changes = new StoreChanges(RateAverages.RESTORED_VERSION);
+        if (version < RateAverages.RESTORED_VERSION) {
+            for (CurrencyCode currencyCode : currencies) {
+                Set<String> months = new HashSet<>();
+                Set<Integer> years = new HashSet<>();
+                averagesInSnapshot(currencyCode).changedSince(version, months, years);
+                changes.add(currencyCode, months, years);
+            }
+        }
+        return changes;
+    }
+
+    @Override
+    public Map<String, Double> getAveragesByMonth(CurrencyCode currencyCode) {
+        if (isMaterialised()) {
+            return dataStore().getAveragesByMonth(currencyCode);
+        }
+        RateAverages averages = averagesInSnapshot(currencyCode);
+        return averages == null ? new HashMap<>() : averages.averagesByMonth();
+    }
+
+    @Override
+    public Map<Integer, Double> getAveragesByYear(CurrencyCode currencyCode) {
+        if (isMaterialised()) {
+            return dataStore().getAveragesByYear(currencyCode);
+        }
+        RateAverages averages = averagesInSnapshot(currencyCode);
+        return averages == null ? new HashMap<>() : averages.averagesByYear();
+    }
+
+    @Override
+    public Map<String, RateSummary> getSummariesByMonth(CurrencyCode currencyCode) {
+        if (isMaterialised()) {
+            return dataStore().getSummariesByMonth(currencyCode);
+        }
+        RateAverages averages = averagesInSnapshot(currencyCode);
+        return averages == null ? new HashMap<>() : averages.summariesByMonth();
+    }
+
+    private RateAverages averagesInSnapshot(CurrencyCode currencyCode) {
+        int ordinal = currencyCode.getOrdinal();
+        if (ordinal >= averagesOffsets.length || averagesOffsets[ordinal] == 0) {
+            return null;
+        }
+        ByteBuffer buffer = snapshot.duplicate();
+        buffer.position(averagesOffsets[ordinal]);
+        return RateAverages.readFrom(buffer);
+    }
+}
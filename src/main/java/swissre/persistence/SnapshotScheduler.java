@@ -0,0 +1,77 @@
+package swissre.persistence;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Periodically writes a snapshot of a store on a background thread so a restart can begin from a recent snapshot.
+ *
+ * The store is read while it may be being recorded to, so it must be thread safe such as the
+ * {@link ConcurrentDataStore}. A snapshot that fails to be written, whether with an {@link IOException} or a
+ * {@link RuntimeException}, leaves the previous one in place and is retried at the next period, the failure being kept
+ * for {@link #getLastFailure()}.
+ *
+ * @author Duncan Atkinson
+ */
+public class SnapshotScheduler implements Closeable {
+
+    private final Snapshottable dataStore;
+    private final Path snapshot;
+    private final ScheduledExecutorService executor;
+    private volatile Exception lastFailure;
+
+    private SnapshotScheduler(Snapshottable dataStore, Path snapshot) {
+        this.dataStore = dataStore;
+        this.snapshot = snapshot;
+        this.executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "snapshot-" + snapshot.getFileName());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * @param dataStore to snapshot, must be thread safe
+     * @param snapshot file to write
+     * @param period between the end of one snapshot and the start of the next
+     * @param unit of the period
+     */
+    public static SnapshotScheduler start(Snapshottable dataStore, Path snapshot, long period, TimeUnit unit) {
+        SnapshotScheduler scheduler = new SnapshotScheduler(dataStore, snapshot);
+        scheduler.executor.scheduleWithFixedDelay(scheduler::writeSnapshot, period, period, unit);
+        return scheduler;
+    }
+
+    private void writeSnapshot() {
+        try {
+            dataStore.writeSnapshot(snapshot);
+            lastFailure = null;
+        } catch (IOException | RuntimeException e) {
+            lastFailure = e;
+        }
+    }
+
+    /**
+     * @return why the last snapshot could not be written, or null if it was written
+     */
+    public Exception getLastFailure() {
+        return lastFailure;
+    }
+
+    /**
+     * Stop taking snapshots, waiting for any snapshot being written to finish.
+     */
+    @Override
+    public void close() throws IOException {
+        executor.shutdown();
+        try {
+            executor.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,18 @@
+package swissre.persistence;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * A {@link DataStore} able to write a snapshot of itself which a {@link SnapshotDataStore} can be started from.
+ */
+public interface Snapshottable {
+
+    /**
+     * Atomically replace the snapshot file with the current contents of the store.
+     *
+     * @param snapshot file to write
+     * @throws IOException if the snapshot could not be written, any previous snapshot is left in place
+     */
+    void writeSnapshot(Path snapshot) throws IOException;
+}
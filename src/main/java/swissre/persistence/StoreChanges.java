@@ -0,0 +1,70 @@
+package swissre.persistence;
+
+import swissre.model.CurrencyCode;
+
+import java.util.*;
+
+/**
+ * The currencies, and the monthly and yearly buckets of each, whose averages have changed since a given version of a
+ * {@link DataStore}.
+ *
+ * @see DataStore#changesSince(long)
+ */
+public final class StoreChanges {
+
+    private final long version;
+    private final Map<CurrencyCode, Set<String>> months;
+    private final Map<CurrencyCode, Set<Integer>> years;
+
+    StoreChanges(long version) {
+        this.version = version;
+        this.months = new HashMap<>();
+        this.years = new HashMap<>();
+    }
+
+    void add(CurrencyCode currencyCode, Set<String> changedMonths, Set<Integer> changedYears) {
+        months.put(currencyCode, changedMonths);
+        years.put(currencyCode, changedYears);
+    }
+
+    /**
+     * @return the version these are the changes up to, to pass to {@link DataStore#changesSince(long)} next time
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * @return the currencies with changes recorded, empty if nothing has changed
+     */
+    public Set<CurrencyCode> getCurrencies() {
+        return Collections.unmodifiableSet(months.keySet());
+    }
+
+    /**
+     * @return the months, in the format 2018_JANUARY, whose averages have changed for the currency
+     */
+    public Set<String> getMonths(CurrencyCode currencyCode) {
+        return Collections.unmodifiableSet(months.getOrDefault(currencyCode, Collections.emptySet()));
+    }
+
+    /**
+     * @return the years whose averages have changed for the currency
+     */
+    public Set<Integer> getYears(CurrencyCode currencyCode) {
+        return Collections.unmodifiableSet(years.getOrDefault(currencyCode, Collections.emptySet()));
+    }
+
+    public boolean isEmpty() {
+        return months.isEmpty();
+    }
+
+    @Override
+    public String toString() {
+        return "StoreChanges{" +
+                "version=" + version +
+                ", months=" + months +
+                ", years=" + years +
+                '}';
+    }
+}
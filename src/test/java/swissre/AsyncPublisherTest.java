@@ -0,0 +1,98 @@
+package swissre;
+
+import org.junit.jupiter.api.Test;
+import swissre.notification.AsyncPublisher;
+import swissre.notification.Flow;
+
+import java.util.Arrays;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AsyncPublisherTest {
+
+    private static final Executor SAME_THREAD = Runnable::run;
+
+    @Test
+    void shouldOnlyDeliverAsManyItemsAsRequested() {
+        AsyncPublisher<String> publisher = new AsyncPublisher<>(SAME_THREAD, 16);
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+        publisher.subscribe(subscriber);
+
+        publisher.submit("a");
+        publisher.submit("b");
+        assertEquals("subscribed", subscriber.events.poll());
+        assertTrue(subscriber.events.isEmpty());
+
+        subscriber.subscription.request(1);
+        assertEquals("a", subscriber.events.poll());
+        assertTrue(subscriber.events.isEmpty());
+
+        subscriber.subscription.request(5);
+        publisher.submit("c");
+        publisher.close();
+        assertEquals(Arrays.asList("b", "c", "complete"), Arrays.asList(subscriber.events.toArray()));
+    }
+
+    @Test
+    void shouldDropSubscriberWhichFallsTooFarBehindWithoutBlocking() {
+        AsyncPublisher<String> publisher = new AsyncPublisher<>(SAME_THREAD, 2);
+        RecordingSubscriber slow = new RecordingSubscriber();
+        RecordingSubscriber fast = new RecordingSubscriber();
+        publisher.subscribe(slow);
+        publisher.subscribe(fast);
+        fast.subscription.request(Long.MAX_VALUE);
+
+        publisher.submit("a");
+        publisher.submit("b");
+        publisher.submit("c");
+
+        assertEquals(Arrays.asList("subscribed", "error BufferOverflowException"), Arrays.asList(slow.events.toArray()));
+        assertEquals(Arrays.asList("subscribed", "a", "b", "c"), Arrays.asList(fast.events.toArray()));
+        assertEquals(1, publisher.getSubscriberCount());
+    }
+
+    @Test
+    void shouldReplayItemsBeforeThoseSubmittedAfterwards() throws InterruptedException {
+        AsyncPublisher<String> publisher = new AsyncPublisher<>();
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+        publisher.subscribe(subscriber, Arrays.asList("old", "older"));
+        publisher.submit("new");
+
+        assertEquals("subscribed", subscriber.events.poll(5, TimeUnit.SECONDS));
+        subscriber.subscription.request(3);
+        assertEquals("old", subscriber.events.poll(5, TimeUnit.SECONDS));
+        assertEquals("older", subscriber.events.poll(5, TimeUnit.SECONDS));
+        assertEquals("new", subscriber.events.poll(5, TimeUnit.SECONDS));
+    }
+
+    private static class RecordingSubscriber implements Flow.Subscriber<String> {
+
+        private final BlockingQueue<String> events = new LinkedBlockingQueue<>();
+        private volatile Flow.Subscription subscription;
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+            events.add("subscribed");
+        }
+
+        @Override
+        public void onNext(String item) {
+            events.add(item);
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            events.add("error " + throwable.getClass().getSimpleName());
+        }
+
+        @Override
+        public void onComplete() {
+            events.add("complete");
+        }
+    }
+}
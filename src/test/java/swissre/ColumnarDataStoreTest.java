@@ -0,0 +1,70 @@
+package swissre;
+
+import org.junit.jupiter.api.Test;
+import swissre.model.ExchangeRateChange;
+import swissre.persistence.ColumnarDataStore;
+import swissre.persistence.DataStore;
+import swissre.persistence.SimpleDataStore;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Runs all of the {@link SimpleDataStoreTest}s against the {@link ColumnarDataStore} as well.
+ */
+class ColumnarDataStoreTest extends SimpleDataStoreTest {
+
+    @Override
+    DataStore createDataStore() {
+        return new ColumnarDataStore();
+    }
+
+    @Test
+    void shouldRecordTheSameAsSimpleDataStoreGivenShuffledChangesSharingTimestamps() {
+        DataStore simpleDataStore = new SimpleDataStore();
+        DataStore columnarDataStore = new ColumnarDataStore();
+        Random random = new Random(7);
+        LocalDateTime start = LocalDateTime.parse("2018-10-14T17:12:59");
+        for (int i = 0; i < 2000; i++) {
+            ExchangeRateChange change = new ExchangeRateChange(
+                    random.nextBoolean() ? GBP : CAD,
+                    start.plusSeconds(random.nextInt(500)).plusNanos(random.nextInt(3)),
+                    0.5 + random.nextDouble());
+            simpleDataStore.record(change);
+            columnarDataStore.record(change);
+        }
+
+        assertEquals(simpleDataStore.getExchangeRateChanges(), columnarDataStore.getExchangeRateChanges());
+        assertEquals(simpleDataStore.getFlaggedChanges(), columnarDataStore.getFlaggedChanges());
+        assertEquals(simpleDataStore.getAveragesByMonth(GBP), columnarDataStore.getAveragesByMonth(GBP));
+    }
+
+    @Test
+    void recordAllShouldFlagTheSameAsRecordingEachChangeInTimestampOrder() {
+        Random random = new Random(5);
+        LocalDateTime start = LocalDateTime.parse("2018-10-14T17:12:59");
+        DataStore batched = createDataStore();
+        DataStore sequential = createDataStore();
+        for (int file = 0; file < 20; file++) {
+            List<ExchangeRateChange> batch = new ArrayList<>();
+            for (int i = 0; i < 200; i++) {
+                batch.add(new ExchangeRateChange(random.nextBoolean() ? GBP : CAD,
+                        start.plusSeconds(random.nextInt(3000)), random.nextBoolean() ? 1.0 : 1.5));
+            }
+            batched.recordAll(batch);
+            batch.sort(Comparator.comparing(ExchangeRateChange::getTimestamp));
+            batch.forEach(sequential::record);
+        }
+
+        assertEquals(sequential.getExchangeRateChanges(), batched.getExchangeRateChanges());
+        assertEquals(new HashSet<>(sequential.getFlaggedChanges()), new HashSet<>(batched.getFlaggedChanges()));
+        assertEquals(sequential.getFlaggedChanges().size(), batched.getFlaggedChanges().size());
+        assertEquals(sequential.getAveragesByMonth(GBP), batched.getAveragesByMonth(GBP));
+    }
+}
@@ -0,0 +1,83 @@
+package swissre;
+
+import org.junit.jupiter.api.Test;
+import swissre.model.ExchangeRateChange;
+import swissre.model.FlaggedChange;
+import swissre.persistence.ConcurrentDataStore;
+import swissre.persistence.DataStore;
+
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Runs all of the {@link SimpleDataStoreTest}s against the {@link ConcurrentDataStore} as well.
+ */
+class ConcurrentDataStoreTest extends SimpleDataStoreTest {
+
+    private static final int THREADS = 8;
+
+    @Override
+    DataStore createDataStore() {
+        return new ConcurrentDataStore();
+    }
+
+    /**
+     * Every rate is dramatically different to its neighbours, so whatever order the changes race in each pair of
+     * changes which end up next to each other must have been flagged by whichever of them was recorded second.
+     */
+    @Test
+    void recordShouldFlagEveryNeighbouringPairGivenChangesRacingForTheSameCurrency() throws Exception {
+        DataStore datastore = new ConcurrentDataStore();
+        LocalDateTime start = LocalDateTime.parse("2018-10-14T17:12:59");
+        List<ExchangeRateChange> changes = new ArrayList<>();
+        for (int i = 0; i < 4000; i++) {
+            changes.add(new ExchangeRateChange(GBP, start.plusSeconds(i), i % 2 == 0 ? 1.0 : 2.0));
+            changes.add(new ExchangeRateChange(CAD, start.plusSeconds(i), 1.0));
+        }
+        Collections.shuffle(changes, new Random(3));
+
+        recordConcurrently(datastore, changes);
+
+        assertEquals(changes.size(), datastore.getExchangeRateChanges().size());
+        Set<List<LocalDateTime>> flaggedPairs = datastore.getFlaggedChanges().stream()
+                .map(this::timestamps)
+                .collect(Collectors.toSet());
+        for (int i = 1; i < 4000; i++) {
+            assertTrue(flaggedPairs.contains(Arrays.asList(start.plusSeconds(i - 1), start.plusSeconds(i))));
+        }
+        assertTrue(datastore.getFlaggedChanges().stream()
+                .map(change -> change.getOlderRateChange().getCurrencyCode())
+                .allMatch(GBP::equals));
+        assertEquals(1.5, datastore.getAveragesByYear(GBP).get(2018).doubleValue());
+        assertEquals(1.0, datastore.getAveragesByYear(CAD).get(2018).doubleValue());
+    }
+
+    private void recordConcurrently(DataStore datastore, List<ExchangeRateChange> changes) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int thread = 0; thread < THREADS; thread++) {
+                List<ExchangeRateChange> share = changes.subList(
+                        thread * changes.size() / THREADS, (thread + 1) * changes.size() / THREADS);
+                futures.add(executor.submit(() -> share.forEach(datastore::record)));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private List<LocalDateTime> timestamps(FlaggedChange flaggedChange) {
+        return Arrays.asList(flaggedChange.getOlderRateChange().getTimestamp(),
+                flaggedChange.getNewerRateChange().getTimestamp());
+    }
+}
@@ -0,0 +1,124 @@
+package swissre;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import swissre.analytics.CrossRateService;
+import swissre.model.CrossRate;
+import swissre.model.CurrencyCode;
+import swissre.model.ExchangeRateChange;
+import swissre.persistence.ColumnarDataStore;
+import swissre.persistence.DataStore;
+
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.List;
+import java.util.OptionalDouble;
+
+import static java.util.stream.Collectors.toList;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class CrossRateServiceTest {
+
+    private static final CurrencyCode GBP = CurrencyCode.valueOf("GBP");
+    private static final CurrencyCode EUR = CurrencyCode.valueOf("EUR");
+    private static final CurrencyCode USD = CrossRateService.USD;
+    private static final LocalDateTime NINE = LocalDateTime.parse("2018-01-02T09:00:00");
+    private static final LocalDateTime TEN = LocalDateTime.parse("2018-01-02T10:00:00");
+    private static final LocalDateTime ELEVEN = LocalDateTime.parse("2018-01-02T11:00:00");
+    private static final LocalDateTime NOON = LocalDateTime.parse("2018-01-02T12:00:00");
+
+    private DataStore dataStore;
+    private CrossRateService crossRateService;
+
+    @BeforeEach
+    void setUp() {
+        dataStore = new ColumnarDataStore();
+        dataStore.recordAll(Arrays.asList(
+                new ExchangeRateChange(GBP, NINE, 0.8),
+                new ExchangeRateChange(EUR, NINE, 0.9),
+                new ExchangeRateChange(GBP, ELEVEN, 0.75)));
+        crossRateService = new CrossRateService(dataStore);
+    }
+
+    @Test
+    void getCrossRateShouldDivideQuoteRateByBaseRate() {
+        assertEquals(0.8 / 0.9, crossRateService.getCrossRate(EUR, GBP, TEN).getAsDouble(), 1e-12);
+        assertEquals(0.75 / 0.9, crossRateService.getCrossRate(EUR, GBP, NOON).getAsDouble(), 1e-12);
+    }
+
+    @Test
+    void getCrossRateShouldSupportUSD() {
+        assertEquals(0.8, crossRateService.getCrossRate(USD, GBP, TEN).getAsDouble(), 1e-12);
+        assertEquals(1 / 0.8, crossRateService.getCrossRate(GBP, USD, TEN).getAsDouble(), 1e-12);
+    }
+
+    @Test
+    void getCrossRateShouldBeEmptyBeforeEitherRateIsKnown() {
+        assertFalse(crossRateService.getCrossRate(EUR, GBP, NINE.minusSeconds(1)).isPresent());
+        assertFalse(crossRateService.getCrossRate(EUR, CurrencyCode.valueOf("CAD"), NOON).isPresent());
+    }
+
+    @Test
+    void getCrossRateShouldRejectTheSameCurrency() {
+        assertThrows(IllegalArgumentException.class, () -> crossRateService.getCrossRate(GBP, GBP, NOON));
+    }
+
+    @Test
+    void getLatestCrossRateShouldSeeNewTicks() {
+        assertEquals(0.75 / 0.9, crossRateService.getLatestCrossRate(EUR, GBP).getAsDouble(), 1e-12);
+
+        dataStore.record(new ExchangeRateChange(EUR, NOON, 0.95));
+        assertEquals(0.75 / 0.95, crossRateService.getLatestCrossRate(EUR, GBP).getAsDouble(), 1e-12);
+
+        dataStore.record(new ExchangeRateChange(GBP, NOON.plusMinutes(1), 0.7));
+        assertEquals(0.7 / 0.95, crossRateService.getLatestCrossRate(EUR, GBP).getAsDouble(), 1e-12);
+    }
+
+    @Test
+    void getLatestCrossRateShouldSeeFirstTickOfACurrency() {
+        CurrencyCode cad = CurrencyCode.valueOf("CAD");
+        assertEquals(OptionalDouble.empty(), crossRateService.getLatestCrossRate(GBP, cad));
+
+        dataStore.record(new ExchangeRateChange(cad, NOON, 1.3));
+        assertEquals(1.3 / 0.75, crossRateService.getLatestCrossRate(GBP, cad).getAsDouble(), 1e-12);
+    }
+
+    @Test
+    void getCrossRatesShouldEmitAPointWheneverEitherCurrencyChanges() {
+        dataStore.record(new ExchangeRateChange(EUR, NOON, 0.95));
+
+        List<CrossRate> crossRates = crossRateService.getCrossRates(EUR, GBP, TEN, NOON.plusSeconds(1))
+                .collect(toList());
+
+        assertEquals(Arrays.asList(
+                new CrossRate(EUR, GBP, ELEVEN, 0.75 / 0.9),
+                new CrossRate(EUR, GBP, NOON, 0.75 / 0.95)), crossRates);
+    }
+
+    @Test
+    void getCrossRatesShouldSkipChangesUntilBothRatesAreKnown() {
+        List<CrossRate> crossRates = crossRateService.getCrossRates(GBP, EUR, LocalDateTime.MIN, LocalDateTime.MAX)
+                .collect(toList());
+
+        assertEquals(Arrays.asList(
+                new CrossRate(GBP, EUR, NINE, 0.9 / 0.8),
+                new CrossRate(GBP, EUR, ELEVEN, 0.9 / 0.75)), crossRates);
+    }
+
+    @Test
+    void getCrossRatesShouldEmitOnePointWhenBothCurrenciesChangeAtTheSameTime() {
+        dataStore.recordAll(Arrays.asList(
+                new ExchangeRateChange(GBP, NOON, 0.7),
+                new ExchangeRateChange(EUR, NOON, 0.95)));
+
+        List<CrossRate> crossRates = crossRateService.getCrossRates(GBP, EUR, TEN, NOON.plusSeconds(1))
+                .collect(toList());
+
+        assertEquals(Arrays.asList(
+                new CrossRate(GBP, EUR, ELEVEN, 0.9 / 0.75),
+                new CrossRate(GBP, EUR, NOON, 0.95 / 0.7)), crossRates);
+        assertEquals(crossRateService.getCrossRate(GBP, EUR, NOON).getAsDouble(), crossRates.get(1).getRate());
+    }
+}
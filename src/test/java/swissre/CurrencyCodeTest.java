@@ -26,4 +26,30 @@ class CurrencyCodeTest {
     void shouldHaveSameHashcode() {
         assertEquals(CurrencyCode.valueOf("EUR").hashCode(), CurrencyCode.valueOf("EUR").hashCode());
     }
-}
\ No newline at end of file
+
+    @Test
+    void shouldBeTheSameInstance() {
+        assertSame(CurrencyCode.valueOf("GBP"), CurrencyCode.valueOf('G', 'B', 'P'));
+    }
+
+    @Test
+    void shouldRoundTripPackedLetters() {
+        CurrencyCode chf = CurrencyCode.valueOf("CHF");
+        assertSame(chf, CurrencyCode.fromPackedLetters(chf.getPackedLetters()));
+        assertEquals("CHF", CurrencyCode.fromPackedLetters(chf.getPackedLetters()).getVal());
+    }
+
+    @Test
+    void shouldGiveDistinctOrdinalsBelowCodesSeen() {
+        CurrencyCode jpy = CurrencyCode.valueOf("JPY");
+        CurrencyCode nzd = CurrencyCode.valueOf("NZD");
+        assertNotEquals(jpy.getOrdinal(), nzd.getOrdinal());
+        assertTrue(nzd.getOrdinal() < CurrencyCode.getCodesSeen());
+    }
+
+    @Test
+    void shouldRejectCodesWhichAreNotThreeUpperCaseLetters() {
+        assertThrows(IllegalArgumentException.class, () -> CurrencyCode.valueOf("usd"));
+        assertThrows(IllegalArgumentException.class, () -> CurrencyCode.valueOf("EURO"));
+    }
+}
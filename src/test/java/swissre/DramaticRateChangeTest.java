@@ -0,0 +1,100 @@
+package swissre;
+
+import org.junit.jupiter.api.Test;
+import swissre.model.CurrencyCode;
+import swissre.model.ExchangeRateChange;
+import swissre.model.FlaggedChange;
+import swissre.persistence.ColumnarDataStore;
+import swissre.persistence.DataStore;
+import swissre.persistence.SimpleDataStore;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Random;
+import java.util.function.Supplier;
+
+import static java.math.BigDecimal.ROUND_HALF_UP;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Property based checks that the stores flag exactly the pairs of rates the original {@link BigDecimal} calculation
+ * flags, with the same percentage, across randomly generated rates which concentrate around the 20% boundary.
+ */
+class DramaticRateChangeTest {
+
+    private static final CurrencyCode GBP = CurrencyCode.valueOf("GBP");
+    private static final LocalDateTime YESTERDAY = LocalDateTime.parse("2018-01-01T13:59:00");
+    private static final LocalDateTime TODAY = LocalDateTime.parse("2018-01-02T13:59:00");
+    private static final int SAMPLES = 20000;
+
+    @Test
+    void simpleDataStoreShouldFlagTheSameAsBigDecimalCalculation() {
+        checkAgainstBigDecimalCalculation(SimpleDataStore::new);
+    }
+
+    @Test
+    void columnarDataStoreShouldFlagTheSameAsBigDecimalCalculation() {
+        checkAgainstBigDecimalCalculation(ColumnarDataStore::new);
+    }
+
+    private void checkAgainstBigDecimalCalculation(Supplier<DataStore> dataStores) {
+        Random random = new Random(20);
+        for (int sample = 0; sample < SAMPLES; sample++) {
+            double smallerRate = randomRate(random);
+            double biggerRate = Math.max(round(smallerRate * randomRatio(random), random.nextInt(9)), smallerRate);
+            if (random.nextBoolean()) {
+                biggerRate = Math.nextUp(biggerRate);
+            }
+            double older = random.nextBoolean() ? smallerRate : biggerRate;
+            double newer = older == smallerRate ? biggerRate : smallerRate;
+
+            DataStore dataStore = dataStores.get();
+            dataStore.record(new ExchangeRateChange(GBP, YESTERDAY, older));
+            dataStore.record(new ExchangeRateChange(GBP, TODAY, newer));
+            List<FlaggedChange> flaggedChanges = dataStore.getFlaggedChanges();
+
+            double expectedPercentage = bigDecimalPercentageChange(newer, older);
+            String pair = older + " -> " + newer;
+            assertEquals(expectedPercentage >= 20 ? 1 : 0, flaggedChanges.size(), pair);
+            if (!flaggedChanges.isEmpty()) {
+                assertEquals(expectedPercentage, flaggedChanges.get(0).getPercentageChange(), pair);
+            }
+        }
+    }
+
+    /**
+     * @return rates of very different sizes and precisions, including coarse ones with a single decimal place
+     */
+    private double randomRate(Random random) {
+        double magnitude = Math.pow(10, random.nextInt(12) - 5);
+        return Math.max(round((1 + random.nextDouble() * 9) * magnitude, random.nextInt(12)), 0.0001);
+    }
+
+    /**
+     * @return mostly ratios near the 15% and 20% boundaries, some exactly on them
+     */
+    private double randomRatio(Random random) {
+        switch (random.nextInt(4)) {
+            case 0:
+                return 1.2;
+            case 1:
+                return 1.15;
+            case 2:
+                return 1.14 + random.nextDouble() * 0.07;
+            default:
+                return 1 + random.nextDouble();
+        }
+    }
+
+    private double round(double value, int decimalPlaces) {
+        return BigDecimal.valueOf(value).setScale(decimalPlaces, ROUND_HALF_UP).doubleValue();
+    }
+
+    private double bigDecimalPercentageChange(double rate, double otherRate) {
+        BigDecimal smallerRate = BigDecimal.valueOf(Math.min(rate, otherRate));
+        BigDecimal biggerRate = BigDecimal.valueOf(Math.max(rate, otherRate));
+        BigDecimal absoluteChange = biggerRate.subtract(smallerRate).abs();
+        return absoluteChange.divide(smallerRate, ROUND_HALF_UP).multiply(BigDecimal.valueOf(100.0)).doubleValue();
+    }
+}
@@ -0,0 +1,174 @@
+package swissre;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import swissre.model.CurrencyCode;
+import swissre.model.ExchangeRateChange;
+import swissre.persistence.ColumnarDataStore;
+import swissre.persistence.ConcurrentDataStore;
+import swissre.persistence.DataStore;
+import swissre.persistence.DurableDataStore;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.Arrays;
+
+import static java.nio.file.StandardOpenOption.APPEND;
+import static java.nio.file.StandardOpenOption.WRITE;
+import static org.junit.jupiter.api.Assertions.*;
+
+class DurableDataStoreTest {
+
+    private static final CurrencyCode GBP = CurrencyCode.valueOf("GBP");
+    private static final CurrencyCode CHF = CurrencyCode.valueOf("CHF");
+    private static final LocalDateTime TODAY = LocalDateTime.parse("2018-01-02T13:59:00");
+
+    private Path log;
+    private Path snapshot;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        log = Files.createTempFile("exchange-rates", ".log");
+        Files.delete(log);
+        snapshot = log.resolveSibling(log.getFileName() + ".snapshot");
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        Files.deleteIfExists(log);
+        Files.deleteIfExists(snapshot);
+    }
+
+    @Test
+    void shouldRebuildTheSameStoreFromTheLog() throws IOException {
+        DataStore original = new ColumnarDataStore();
+        try (DurableDataStore durable = DurableDataStore.open(log, original, 3)) {
+            durable.record(new ExchangeRateChange(GBP, TODAY, 1.0));
+            durable.record(new ExchangeRateChange(GBP, TODAY.minusDays(1), 1.5));
+            durable.recordAll(Arrays.asList(
+                    new ExchangeRateChange(CHF, TODAY.plusNanos(5), 0.98),
+                    new ExchangeRateChange(GBP, TODAY.minusDays(2), 1.0),
+                    new ExchangeRateChange(GBP, TODAY.plusDays(40), 1.0)));
+        }
+
+        DataStore rebuilt = new ColumnarDataStore();
+        try (DurableDataStore durable = DurableDataStore.open(log, rebuilt)) {
+            assertEquals(original.getExchangeRateChanges(), durable.getExchangeRateChanges());
+            assertEquals(original.getFlaggedChanges(), durable.getFlaggedChanges());
+            assertEquals(original.getAveragesByMonth(GBP), durable.getAveragesByMonth(GBP));
+        }
+    }
+
+    @Test
+    void shouldRecoverFromSnapshotReplayingOnlyTheChangesLoggedSince() throws IOException {
+        DataStore original = new ColumnarDataStore();
+        try (DurableDataStore durable = DurableDataStore.open(log, original)) {
+            durable.record(new ExchangeRateChange(GBP, TODAY, 1.0));
+            durable.record(new ExchangeRateChange(GBP, TODAY.minusDays(1), 1.5));
+            durable.writeSnapshot(snapshot);
+            durable.record(new ExchangeRateChange(GBP, TODAY.plusDays(1), 2.0));
+            assertEquals(3, durable.getLogPosition());
+        }
+        assertEquals(16 + 28, Files.size(log));
+
+        try (DurableDataStore recovered = DurableDataStore.recover(log, snapshot)) {
+            assertEquals(3, recovered.getLogPosition());
+            assertEquals(original.getExchangeRateChanges(), recovered.getExchangeRateChanges());
+            assertEquals(original.getFlaggedChanges(), recovered.getFlaggedChanges());
+            assertEquals(original.getAveragesByMonth(GBP), recovered.getAveragesByMonth(GBP));
+            recovered.record(new ExchangeRateChange(CHF, TODAY, 0.98));
+        }
+
+        try (DurableDataStore recovered = DurableDataStore.recover(log, snapshot)) {
+            assertEquals(4, recovered.getExchangeRateChanges().size());
+        }
+    }
+
+    @Test
+    void shouldRestoreThreadSafeStoreFromSnapshotAndLog() throws IOException {
+        ConcurrentDataStore original = new ConcurrentDataStore();
+        try (DurableDataStore durable = DurableDataStore.open(log, original)) {
+            durable.record(new ExchangeRateChange(GBP, TODAY, 1.0));
+            durable.writeSnapshot(snapshot);
+            durable.recordAll(Arrays.asList(
+                    new ExchangeRateChange(GBP, TODAY.plusDays(1), 2.0),
+                    new ExchangeRateChange(CHF, TODAY, 0.98)));
+        }
+
+        ConcurrentDataStore restored = new ConcurrentDataStore();
+        long logPosition = restored.restore(snapshot);
+        assertEquals(1, logPosition);
+        try (DurableDataStore recovered = DurableDataStore.open(log, restored, logPosition, 4096)) {
+            assertEquals(original.getExchangeRateChanges(), recovered.getExchangeRateChanges());
+            assertEquals(original.getFlaggedChanges(), recovered.getFlaggedChanges());
+        }
+    }
+
+    @Test
+    void shouldRefuseRolledLogWithoutTheSnapshot() throws IOException {
+        try (DurableDataStore durable = DurableDataStore.open(log, new ColumnarDataStore())) {
+            durable.record(new ExchangeRateChange(GBP, TODAY, 1.0));
+            durable.writeSnapshot(snapshot);
+        }
+
+        assertThrows(IOException.class, () -> DurableDataStore.open(log, new ColumnarDataStore()));
+    }
+
+    @Test
+    void shouldDiscardTornFinalRecordAndCarryOnAppending() throws IOException {
+        try (DurableDataStore durable = DurableDataStore.open(log, new ColumnarDataStore())) {
+            durable.record(new ExchangeRateChange(GBP, TODAY, 1.0));
+            durable.record(new ExchangeRateChange(GBP, TODAY.plusDays(1), 1.1));
+        }
+        try (FileChannel channel = FileChannel.open(log, WRITE, APPEND)) {
+            channel.truncate(channel.size() - 5);
+        }
+
+        try (DurableDataStore durable = DurableDataStore.open(log, new ColumnarDataStore())) {
+            assertEquals(1, durable.getExchangeRateChanges().size());
+            durable.record(new ExchangeRateChange(GBP, TODAY.plusDays(2), 1.2));
+        }
+
+        try (DurableDataStore durable = DurableDataStore.open(log, new ColumnarDataStore())) {
+            assertEquals(2, durable.getExchangeRateChanges().size());
+            assertTrue(durable.getExchangeRateChanges().contains(new ExchangeRateChange(GBP, TODAY.plusDays(2), 1.2)));
+        }
+    }
+
+    @Test
+    void shouldDiscardSeveralBadRecordsAtTheEndOfTheLog() throws IOException {
+        try (DurableDataStore durable = DurableDataStore.open(log, new ColumnarDataStore())) {
+            durable.record(new ExchangeRateChange(GBP, TODAY, 1.0));
+            durable.record(new ExchangeRateChange(GBP, TODAY.plusDays(1), 1.1));
+        }
+        byte[] garbage = new byte[5 * 28 + 3];
+        Arrays.fill(garbage, 28, 56, (byte) 7);
+        Files.write(log, garbage, APPEND);
+
+        try (DurableDataStore durable = DurableDataStore.open(log, new ColumnarDataStore())) {
+            assertEquals(2, durable.getExchangeRateChanges().size());
+            durable.record(new ExchangeRateChange(GBP, TODAY.plusDays(2), 1.2));
+        }
+
+        try (DurableDataStore durable = DurableDataStore.open(log, new ColumnarDataStore())) {
+            assertEquals(3, durable.getExchangeRateChanges().size());
+        }
+    }
+
+    @Test
+    void shouldRefuseToOpenCorruptLog() throws IOException {
+        try (DurableDataStore durable = DurableDataStore.open(log, new ColumnarDataStore())) {
+            durable.record(new ExchangeRateChange(GBP, TODAY, 1.0));
+            durable.record(new ExchangeRateChange(GBP, TODAY.plusDays(1), 1.1));
+        }
+        byte[] bytes = Files.readAllBytes(log);
+        bytes[16 + 4]++;
+        Files.write(log, bytes);
+
+        assertThrows(IOException.class, () -> DurableDataStore.open(log, new ColumnarDataStore()));
+    }
+}
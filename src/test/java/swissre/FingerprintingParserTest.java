@@ -0,0 +1,139 @@
+package swissre;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import swissre.model.ExchangeRateChange;
+import swissre.parser.*;
+import swissre.persistence.SimpleDataStore;
+
+import java.io.Flushable;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static java.nio.charset.StandardCharsets.US_ASCII;
+import static org.junit.jupiter.api.Assertions.*;
+import static swissre.parser.FingerprintRegistry.Status.*;
+
+class FingerprintingParserTest {
+
+    private static final String FILE = "START-OF-FILE\n" +
+            "DATE=20181015\n" +
+            "START-OF-FIELD-LIST\n" +
+            "CURRENCY\n" +
+            "EXCHANGE_RATE\n" +
+            "LAST_UPDATE\n" +
+            "END-OF-FIELD-LIST\n" +
+            "START-OF-EXCHANGE-RATES\n" +
+            "CHF|0.9832|17:12:59 10/14/2018|\n" +
+            "GBP|0.7849|17:12:59 10/14/2018|\n" +
+            "END-OF-EXCHANGE-RATES\n" +
+            "END-OF-FILE\n";
+
+    private static final String REVISED_FILE = FILE.replace("0.7849", "0.7851");
+
+    private Path directory;
+    private Path registryFile;
+    private CountingDataStore dataStore;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        directory = Files.createTempDirectory("fingerprints");
+        registryFile = directory.resolve("ingested-files");
+        dataStore = new CountingDataStore();
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        for (Path file : Files.newDirectoryStream(directory)) {
+            Files.delete(file);
+        }
+        Files.delete(directory);
+    }
+
+    @Test
+    void shouldSkipIdenticalFilesAndReportRevisions() throws IOException {
+        FingerprintingParser<String> parser =
+                FingerprintingParser.ofStrings(new StringParser(dataStore), dataStore,
+                        FingerprintRegistry.open(registryFile));
+
+        assertEquals(NEW, parser.receive(FILE));
+        assertEquals(DUPLICATE, parser.receive(FILE));
+        assertEquals(2, dataStore.recorded);
+
+        assertEquals(REVISION, parser.receive(REVISED_FILE));
+        assertEquals(4, dataStore.recorded);
+        assertEquals(3, dataStore.getExchangeRateChanges().size());
+    }
+
+    @Test
+    void shouldRememberFilesIngestedBeforeRestart() throws IOException {
+        Path file = directory.resolve("rates.txt");
+        Files.write(file, FILE.getBytes(US_ASCII));
+        FingerprintingParser.ofFiles(new MappedFileParser(dataStore), dataStore,
+                FingerprintRegistry.open(registryFile)).receiveFile(file);
+
+        FingerprintingParser<Path> restarted =
+                FingerprintingParser.ofFiles(new MappedFileParser(dataStore), dataStore,
+                        FingerprintRegistry.open(registryFile));
+
+        assertEquals(DUPLICATE, restarted.receive(file));
+        assertEquals(2, dataStore.recorded);
+    }
+
+    @Test
+    void shouldFingerprintFilesOnDiskTheSameAsStrings() throws IOException {
+        Path file = directory.resolve("rates.txt");
+        Files.write(file, FILE.getBytes(US_ASCII));
+
+        assertEquals(FileFingerprint.of(FILE), FileFingerprint.of(file));
+        assertEquals("20181015", FileFingerprint.of(file).getDate());
+    }
+
+    @Test
+    void shouldNotRegisterFilesWhichFailedToParse() throws IOException {
+        FingerprintingParser<String> parser =
+                FingerprintingParser.ofStrings(new StringParser(dataStore), dataStore,
+                        FingerprintRegistry.open(registryFile));
+        String truncated = FILE.substring(0, FILE.indexOf("END-OF-EXCHANGE-RATES"));
+
+        assertThrows(InvalidExchangeRateFileException.class, () -> parser.receive(truncated));
+        assertThrows(InvalidExchangeRateFileException.class, () -> parser.receive(truncated));
+    }
+
+    @Test
+    void shouldFlushTheStoreBeforeRegistering() throws IOException {
+        FingerprintRegistry registry = FingerprintRegistry.open(registryFile);
+        FingerprintingParser<String> parser =
+                FingerprintingParser.ofStrings(new StringParser(dataStore), dataStore, registry);
+        List<FingerprintRegistry.Status> statusWhenFlushed = new ArrayList<>();
+        dataStore.onFlush = () -> statusWhenFlushed.add(registry.statusOf(FileFingerprint.of(FILE)));
+
+        parser.receive(FILE);
+        parser.receive(FILE);
+
+        assertEquals(Collections.singletonList(NEW), statusWhenFlushed);
+    }
+
+    private static class CountingDataStore extends SimpleDataStore implements Flushable {
+
+        private int recorded;
+        private Runnable onFlush = () -> {
+        };
+
+        @Override
+        public void record(ExchangeRateChange exchangeRateChange) {
+            recorded++;
+            super.record(exchangeRateChange);
+        }
+
+        @Override
+        public void flush() {
+            onFlush.run();
+        }
+    }
+}
@@ -0,0 +1,138 @@
+package swissre;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import swissre.metrics.IngestMetrics;
+import swissre.metrics.LatencyHistogram;
+import swissre.metrics.LatencySummary;
+import swissre.metrics.MetricsDataStore;
+import swissre.model.CurrencyCode;
+import swissre.parser.InvalidExchangeRateFileException;
+import swissre.parser.MetricsParser;
+import swissre.parser.Parser;
+import swissre.parser.StringParser;
+import swissre.persistence.ColumnarDataStore;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+import java.lang.management.ManagementFactory;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class IngestMetricsTest {
+
+    private static final String FILE = "START-OF-FILE\n" +
+            "DATE=20181015\n" +
+            "START-OF-FIELD-LIST\n" +
+            "CURRENCY\n" +
+            "EXCHANGE_RATE\n" +
+            "LAST_UPDATE\n" +
+            "END-OF-FIELD-LIST\n" +
+            "START-OF-EXCHANGE-RATES\n" +
+            "CHF|0.9832|17:12:59 10/14/2018|\n" +
+            "GBP|0.7849|17:12:59 10/14/2018|\n" +
+            "GBP|1.2|17:13:00 10/14/2018|\n" +
+            "END-OF-EXCHANGE-RATES\n" +
+            "END-OF-FILE";
+
+    private IngestMetrics metrics;
+    private MetricsDataStore dataStore;
+    private Parser<String> parser;
+
+    @BeforeEach
+    void setUp() {
+        metrics = new IngestMetrics();
+        dataStore = new MetricsDataStore(new ColumnarDataStore(), metrics);
+        parser = new MetricsParser<>(new StringParser(dataStore), metrics);
+    }
+
+    @Test
+    void shouldCountFilesLinesAndChanges() {
+        parser.receiveFile(FILE);
+        assertThrows(InvalidExchangeRateFileException.class, () -> parser.receiveFile("START-OF-FILE\nnonsense"));
+
+        assertEquals(2, metrics.getFilesParsed());
+        assertEquals(1, metrics.getFilesFailed());
+        assertEquals(13 + 2, metrics.getLinesParsed());
+        assertTrue(metrics.getLinesParsedPerSecond() > 0);
+        assertEquals(2, metrics.getParseLatency().getCount());
+        assertEquals(3, metrics.getChangesRecorded());
+        assertEquals(1, metrics.getRecordLatency().getCount());
+        Map<String, Long> byCurrency = new HashMap<>();
+        byCurrency.put("CHF", 1L);
+        byCurrency.put("GBP", 2L);
+        assertEquals(byCurrency, metrics.getChangesRecordedByCurrency());
+        assertEquals(1, metrics.getFlaggedChanges());
+        assertEquals(1 / 3d, metrics.getFlagRate(), 1e-12);
+    }
+
+    @Test
+    void shouldOnlyCountTheChangesTheStoreKept() {
+        parser.receiveFile(FILE);
+        parser.receiveFile(FILE.replace("CHF|0.9832", "CHF|0.9833"));
+
+        assertEquals(4, metrics.getChangesRecorded());
+        Map<String, Long> byCurrency = new HashMap<>();
+        byCurrency.put("CHF", 2L);
+        byCurrency.put("GBP", 2L);
+        assertEquals(byCurrency, metrics.getChangesRecordedByCurrency());
+        assertEquals(1 / 4d, metrics.getFlagRate(), 1e-12);
+    }
+
+    @Test
+    void shouldTimeEveryRecordGivenASampleOfOne() {
+        parser = new MetricsParser<>(new StringParser(new MetricsDataStore(new ColumnarDataStore(), metrics, 1)),
+                metrics);
+        parser.receiveFile(FILE);
+
+        assertEquals(3, metrics.getRecordLatency().getCount());
+        assertThrows(IllegalArgumentException.class, () -> new MetricsDataStore(new ColumnarDataStore(), metrics, 3));
+    }
+
+    @Test
+    void shouldTimeAverageQueries() {
+        parser.receiveFile(FILE);
+        dataStore.getAveragesByMonth(CurrencyCode.valueOf("GBP"));
+        dataStore.getAveragesByYear(CurrencyCode.valueOf("GBP"));
+        dataStore.getAveragesByYear(CurrencyCode.valueOf("CHF"));
+
+        assertEquals(1, metrics.getAveragesByMonthLatency().getCount());
+        assertEquals(2, metrics.getAveragesByYearLatency().getCount());
+    }
+
+    @Test
+    void histogramShouldReportPercentilesWithinAPowerOfTwo() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 100; i++) {
+            histogram.record(i * 1000L);
+        }
+
+        LatencySummary summary = histogram.summary();
+
+        assertEquals(100, summary.getCount());
+        assertEquals(50_500, summary.getMeanNanos(), 1e-9);
+        assertEquals(65_535, summary.getMedianNanos());
+        assertEquals(100_000, summary.getPercentile99Nanos());
+        assertEquals(100_000, summary.getMaxNanos());
+    }
+
+    @Test
+    void shouldPublishThroughThePlatformMBeanServer() throws Exception {
+        parser.receiveFile(FILE);
+        ObjectName objectName = metrics.register("test");
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+
+            assertEquals(3L, server.getAttribute(objectName, "ChangesRecorded"));
+            CompositeData recordLatency = (CompositeData) server.getAttribute(objectName, "RecordLatency");
+            assertEquals(1L, recordLatency.get("count"));
+        } finally {
+            IngestMetrics.unregister(objectName);
+        }
+    }
+}
@@ -0,0 +1,174 @@
+package swissre;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import swissre.ingest.IngestListener;
+import swissre.ingest.IngestPipeline;
+import swissre.model.CurrencyCode;
+import swissre.parser.FileFingerprint;
+import swissre.parser.FingerprintRegistry;
+import swissre.parser.InvalidExchangeRateFileException;
+import swissre.parser.MappedFileParser;
+import swissre.parser.Parser;
+import swissre.persistence.ConcurrentDataStore;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static java.nio.charset.StandardCharsets.US_ASCII;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static org.junit.jupiter.api.Assertions.*;
+
+class IngestPipelineTest {
+
+    private static final String FILE = "START-OF-FILE\n" +
+            "DATE=20181015\n" +
+            "START-OF-FIELD-LIST\n" +
+            "CURRENCY\n" +
+            "EXCHANGE_RATE\n" +
+            "LAST_UPDATE\n" +
+            "END-OF-FIELD-LIST\n" +
+            "START-OF-EXCHANGE-RATES\n" +
+            "CHF|0.9832|17:12:59 10/14/2018|\n" +
+            "GBP|0.7849|17:12:59 10/14/2018|\n" +
+            "END-OF-EXCHANGE-RATES\n" +
+            "END-OF-FILE\n";
+
+    private Path inbox;
+    private ConcurrentDataStore dataStore;
+    private BlockingQueue<String> events;
+    private IngestPipeline pipeline;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        inbox = Files.createTempDirectory("inbox");
+        dataStore = new ConcurrentDataStore();
+        events = new LinkedBlockingQueue<>();
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        if (pipeline != null) {
+            pipeline.close();
+        }
+        for (Path file : Files.newDirectoryStream(inbox)) {
+            Files.delete(file);
+        }
+        Files.delete(inbox);
+    }
+
+    private IngestListener recordingListener() {
+        return new IngestListener() {
+            @Override
+            public void fileIngested(Path file, int changes) {
+                events.add("ingested " + file.getFileName() + " " + changes);
+            }
+
+            @Override
+            public void fileRevised(Path file, int changes) {
+                events.add("revised " + file.getFileName() + " " + changes);
+            }
+
+            @Override
+            public void fileSkipped(Path file) {
+                events.add("skipped " + file.getFileName());
+            }
+
+            @Override
+            public void fileFailed(Path file, RuntimeException error) {
+                events.add("failed " + file.getFileName() + " " + error.getClass().getSimpleName());
+            }
+        };
+    }
+
+    private void drop(String name, String content) throws IOException {
+        Path hidden = inbox.resolve("." + name);
+        Files.write(hidden, content.getBytes(US_ASCII));
+        Files.move(hidden, inbox.resolve(name), ATOMIC_MOVE);
+    }
+
+    private String nextEvent() throws InterruptedException {
+        String event = events.poll(10, TimeUnit.SECONDS);
+        assertNotNull(event, "timed out waiting for the pipeline");
+        return event;
+    }
+
+    @Test
+    void shouldIngestFilesAlreadyInTheInboxAndAsTheyLand() throws Exception {
+        drop("first.txt", FILE);
+        pipeline = IngestPipeline.start(inbox, dataStore, recordingListener());
+        assertEquals("ingested first.txt 2", nextEvent());
+
+        drop("second.txt", FILE.replace("0.7849", "0.7851"));
+        assertEquals("ingested second.txt 2", nextEvent());
+
+        assertEquals(3, dataStore.getExchangeRateChanges().size());
+        assertEquals(0.785, dataStore.getAveragesByYear(CurrencyCode.valueOf("GBP")).get(2018), 1e-12);
+    }
+
+    @Test
+    void shouldSkipFilesResentUnchangedAndReportRevisions() throws Exception {
+        Path registryFile = Files.createTempFile("fingerprints", ".txt");
+        try {
+            pipeline = IngestPipeline.start(inbox, dataStore, recordingListener(),
+                    FingerprintRegistry.open(registryFile));
+            drop("first.txt", FILE);
+            assertEquals("ingested first.txt 2", nextEvent());
+            drop("resent.txt", FILE);
+            assertEquals("skipped resent.txt", nextEvent());
+            drop("revised.txt", FILE.replace("0.7849", "0.7851"));
+            assertEquals("revised revised.txt 2", nextEvent());
+            pipeline.close();
+
+            FingerprintRegistry registry = FingerprintRegistry.open(registryFile);
+            assertEquals(FingerprintRegistry.Status.DUPLICATE, registry.statusOf(FileFingerprint.of(FILE)));
+            assertEquals(3, dataStore.getExchangeRateChanges().size());
+        } finally {
+            Files.delete(registryFile);
+        }
+    }
+
+    @Test
+    void shouldReportFilesWhichCouldNotBeParsed() throws Exception {
+        pipeline = IngestPipeline.start(inbox, dataStore, recordingListener());
+        drop("broken.txt", FILE.replace("0.9832", "nonsense"));
+
+        assertEquals("failed broken.txt " + InvalidExchangeRateFileException.class.getSimpleName(), nextEvent());
+    }
+
+    @Test
+    void shouldNotHoldSmallFilesBehindOneStillBeingParsed() throws Exception {
+        CountDownLatch largeFileReleased = new CountDownLatch(1);
+        pipeline = IngestPipeline.start(inbox, dataStore, recordingListener(), dataStore -> {
+            Parser<Path> parser = new MappedFileParser(dataStore);
+            return file -> {
+                if (file.getFileName().toString().startsWith("large")) {
+                    awaitUninterruptibly(largeFileReleased);
+                }
+                parser.receiveFile(file);
+            };
+        }, 2, 4);
+
+        drop("large.txt", FILE.replace("0.7849", "0.7851"));
+        drop("small.txt", FILE);
+        assertEquals("ingested small.txt 2", nextEvent());
+        assertEquals(2, dataStore.getExchangeRateChanges().size());
+
+        largeFileReleased.countDown();
+        assertEquals("ingested large.txt 2", nextEvent());
+    }
+
+    private static void awaitUninterruptibly(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
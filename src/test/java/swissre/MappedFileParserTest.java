@@ -0,0 +1,218 @@
+package swissre;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import swissre.model.ExchangeRateChange;
+import swissre.parser.InvalidExchangeRateFileException;
+import swissre.parser.MappedFileParser;
+import swissre.parser.ParseMode;
+import swissre.parser.QuarantinedLine;
+import swissre.persistence.DataStore;
+import swissre.persistence.SimpleDataStore;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import static java.nio.charset.StandardCharsets.US_ASCII;
+import static org.junit.jupiter.api.Assertions.*;
+
+class MappedFileParserTest {
+
+    private DataStore dataStore;
+    private MappedFileParser parser;
+    private Path file;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        dataStore = new SimpleDataStore();
+        parser = new MappedFileParser(dataStore);
+        file = Files.createTempFile("exchange-rates", ".txt");
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        Files.deleteIfExists(file);
+    }
+
+    @Test
+    void shouldReceiveFileGivenWindowsStyleLineEndingsAndBlankLines() throws IOException {
+        receive("START-OF-FILE\r\n\r\n" +
+                "DATE=20181015\r\n" +
+                "START-OF-FIELD-LIST\r\n" +
+                "CURRENCY\r\n" +
+                "EXCHANGE_RATE\r\n" +
+                "LAST_UPDATE\r\n" +
+                "END-OF-FIELD-LIST\r\n" +
+                "START-OF-EXCHANGE-RATES\r\n" +
+                "CHF|0.9832|17:12:59 10/14/2018|\r\n\r\n" +
+                "GBP|0.7849|17:12:59 10/14/2018|\r\n" +
+                "END-OF-EXCHANGE-RATES\r\n" +
+                "END-OF-FILE");
+
+        assertEquals(2, dataStore.getExchangeRateChanges().size());
+        assertTrue(dataStore.getExchangeRateChanges().contains(
+                new ExchangeRateChange("GBP", LocalDateTime.parse("2018-10-14T17:12:59"), 0.7849)));
+    }
+
+    @Test
+    void shouldReceiveFileGivenLinesSpanningMappedWindows() throws IOException {
+        StringBuilder contents = new StringBuilder("START-OF-FILE\nDATE=20181015\nSTART-OF-EXCHANGE-RATES\n");
+        for (int second = 0; second < 60; second++) {
+            contents.append("CHF|0.98").append(second).append("|17:12:").append(second).append(" 10/14/2018|\n");
+        }
+        contents.append("END-OF-EXCHANGE-RATES\nEND-OF-FILE\n");
+        Files.write(file, contents.toString().getBytes(US_ASCII));
+
+        new MappedFileParser(dataStore, 64).receiveFile(file);
+
+        assertEquals(60, dataStore.getExchangeRateChanges().size());
+    }
+
+    @Test
+    void shouldFailToReceiveGivenMissingEndOfExchangeRates() {
+        InvalidExchangeRateFileException exception = assertThrows(InvalidExchangeRateFileException.class,
+                () -> receive("START-OF-FILE\n" +
+                        "DATE=20181015\n" +
+                        "START-OF-EXCHANGE-RATES\n" +
+                        "CHF|0.9832|17:12:59 10/14/2018|\n" +
+                        "END-OF-FILE"));
+
+        assertEquals("Unexpected exchange rate format found unable to parse 'END-OF-FILE' on line 5", exception.getMessage());
+    }
+
+    @Test
+    void shouldFailToReceiveGivenMissingEndOfFile() {
+        InvalidExchangeRateFileException exception = assertThrows(InvalidExchangeRateFileException.class,
+                () -> receive("START-OF-FILE\n" +
+                        "DATE=20181015\n" +
+                        "START-OF-EXCHANGE-RATES\n" +
+                        "END-OF-EXCHANGE-RATES\n"));
+
+        assertEquals("Unexpected end of file", exception.getMessage());
+    }
+
+    @Test
+    void shouldFailToReceiveEmptyFile() {
+        InvalidExchangeRateFileException exception = assertThrows(InvalidExchangeRateFileException.class,
+                () -> receive(""));
+
+        assertEquals("Unexpected end of file", exception.getMessage());
+    }
+
+    @Test
+    void shouldReceiveTheSameChangesInParallelGivenManySmallChunks() throws IOException {
+        Files.write(file, manyRateChanges(5000, "").getBytes(US_ASCII));
+        new MappedFileParser(dataStore).receiveFile(file);
+        DataStore parallelDataStore = new SimpleDataStore();
+
+        new MappedFileParser(parallelDataStore, 64, ForkJoinPool.commonPool(), 256).receiveFile(file);
+
+        assertEquals(5000, parallelDataStore.getExchangeRateChanges().size());
+        assertEquals(dataStore.getExchangeRateChanges(), parallelDataStore.getExchangeRateChanges());
+        assertEquals(dataStore.getFlaggedChanges(), parallelDataStore.getFlaggedChanges());
+    }
+
+    @Test
+    void shouldReceiveTheSameChangesInParallelGivenReorderedAndAdditionalFields() throws IOException {
+        String contents = manyRateChanges(5000, "");
+        Files.write(file, contents.getBytes(US_ASCII));
+        new MappedFileParser(dataStore).receiveFile(file);
+        String withBidAndAsk = contents
+                .replace("DATE=20181015\n", "START-OF-FIELD-LIST\nBID\nCURRENCY\nLAST_UPDATE\nEXCHANGE_RATE\n" +
+                        "ASK\nEND-OF-FIELD-LIST\n")
+                .replaceAll("(?m)^([A-Z]{3})\\|([0-9.]+)\\|([^|]+)\\|$", "0.97|$1|$3|$2|0.99|");
+        Files.write(file, withBidAndAsk.getBytes(US_ASCII));
+        DataStore parallelDataStore = new SimpleDataStore();
+
+        new MappedFileParser(parallelDataStore, 64, ForkJoinPool.commonPool(), 256).receiveFile(file);
+
+        assertEquals(5000, parallelDataStore.getExchangeRateChanges().size());
+        assertEquals(dataStore.getExchangeRateChanges(), parallelDataStore.getExchangeRateChanges());
+    }
+
+    @Test
+    void shouldNameTheLineOfTheFileGivenMalformedLineInParallel() throws IOException {
+        Files.write(file, manyRateChanges(5000, "CHF|0.98|17:12:59 10/14/2018|oops\n").getBytes(US_ASCII));
+
+        InvalidExchangeRateFileException exception = assertThrows(InvalidExchangeRateFileException.class,
+                () -> new MappedFileParser(dataStore, 64, ForkJoinPool.commonPool(), 256).receiveFile(file));
+
+        assertEquals("Unexpected exchange rate format found unable to parse " +
+                "'CHF|0.98|17:12:59 10/14/2018|oops' on line 7504", exception.getMessage());
+        assertEquals(5000, dataStore.getExchangeRateChanges().size());
+    }
+
+    @Test
+    void shouldQuarantineTheSameLinesInParallelGivenLenientMode() throws IOException {
+        Files.write(file, manyRateChanges(5000, "").replace("|1.5|", "|1.5x|").getBytes(US_ASCII));
+        MappedFileParser sequential = new MappedFileParser(dataStore, ParseMode.LENIENT);
+        sequential.receiveFile(file);
+        DataStore parallelDataStore = new SimpleDataStore();
+        MappedFileParser parallel = new MappedFileParser(parallelDataStore, 64, ForkJoinPool.commonPool(), 256,
+                ParseMode.LENIENT);
+
+        parallel.receiveFile(file);
+
+        List<QuarantinedLine> quarantined = sequential.getQuarantineReport().getLines();
+        assertFalse(quarantined.isEmpty());
+        assertEquals("Invalid EXCHANGE_RATE", quarantined.get(0).getReason());
+        assertEquals(quarantined, parallel.getQuarantineReport().getLines());
+        assertEquals(5000 - sequential.getQuarantineReport().getCount(), dataStore.getExchangeRateChanges().size());
+        assertEquals(dataStore.getExchangeRateChanges(), parallelDataStore.getExchangeRateChanges());
+    }
+
+    @Test
+    void shouldRecordNothingInParallelGivenTransactionalModeAndMalformedLine() throws IOException {
+        Files.write(file, manyRateChanges(5000, "CHF|0.98|17:12:59 10/14/2018|oops\n").getBytes(US_ASCII));
+
+        assertThrows(InvalidExchangeRateFileException.class, () -> new MappedFileParser(dataStore, 64,
+                ForkJoinPool.commonPool(), 256, ParseMode.TRANSACTIONAL).receiveFile(file));
+
+        assertTrue(dataStore.getExchangeRateChanges().isEmpty());
+    }
+
+    @Test
+    void shouldFailToReceiveGivenMissingEndOfFileInParallel() {
+        InvalidExchangeRateFileException exception = assertThrows(InvalidExchangeRateFileException.class,
+                () -> {
+                    Files.write(file, ("START-OF-FILE\n" +
+                            "START-OF-EXCHANGE-RATES\n" +
+                            "CHF|0.9832|17:12:59 10/14/2018|\n" +
+                            "END-OF-EXCHANGE-RATES\n" +
+                            "END-OF-FILEX\n").getBytes(US_ASCII));
+                    new MappedFileParser(dataStore, ForkJoinPool.commonPool()).receiveFile(file);
+                });
+
+        assertEquals("Expected 'END-OF-FILE' on line 5, found 'END-OF-FILEX'", exception.getMessage());
+    }
+
+    /**
+     * @return a file with the given number of rate changes, every other one followed by a blank line, and then the
+     * given trailing line.
+     */
+    private String manyRateChanges(int count, String trailingLine) {
+        StringBuilder contents = new StringBuilder("START-OF-FILE\nDATE=20181015\nSTART-OF-EXCHANGE-RATES\n");
+        LocalDateTime timestamp = LocalDateTime.parse("2018-10-14T00:00:00");
+        for (int i = 0; i < count; i++) {
+            LocalDateTime time = timestamp.plusSeconds(i);
+            contents.append(i % 3 == 0 ? "GBP|" : "CHF|").append(i % 7 == 0 ? "1.5" : "0.98").append('|')
+                    .append(time.getHour()).append(':').append(time.getMinute()).append(':').append(time.getSecond())
+                    .append(" 10/14/2018|\n");
+            if (i % 2 == 0) {
+                contents.append('\n');
+            }
+        }
+        return contents.append(trailingLine).append("END-OF-EXCHANGE-RATES\nEND-OF-FILE\n").toString();
+    }
+
+    private void receive(String contents) throws IOException {
+        Files.write(file, contents.getBytes(US_ASCII));
+        parser.receiveFile(file);
+    }
+
+}
@@ -0,0 +1,181 @@
+package swissre;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import swissre.analytics.RollingStatistics;
+import swissre.analytics.RollingStatisticsDataStore;
+import swissre.analytics.WindowStatistics;
+import swissre.model.CurrencyCode;
+import swissre.model.ExchangeRateChange;
+import swissre.persistence.ColumnarDataStore;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class RollingStatisticsTest {
+
+    private static final CurrencyCode GBP = CurrencyCode.valueOf("GBP");
+    private static final CurrencyCode EUR = CurrencyCode.valueOf("EUR");
+    private static final Duration HOUR = Duration.ofHours(1);
+    private static final Duration DAY = Duration.ofDays(1);
+    private static final LocalDateTime START = LocalDateTime.parse("2018-01-02T09:00:00");
+
+    private RollingStatistics rollingStatistics;
+
+    @BeforeEach
+    void setUp() {
+        rollingStatistics = new RollingStatistics(Arrays.asList(DAY, HOUR));
+    }
+
+    @Test
+    void getStatisticsShouldBeEmptyForUnknownCurrency() {
+        assertEquals(Optional.empty(), rollingStatistics.getStatistics(GBP, HOUR));
+    }
+
+    @Test
+    void getStatisticsShouldRejectUntrackedWindow() {
+        assertThrows(IllegalArgumentException.class,
+                () -> rollingStatistics.getStatistics(GBP, Duration.ofMinutes(5)));
+    }
+
+    @Test
+    void getStatisticsShouldCoverChangesAfterTheStartOfTheWindow() {
+        rollingStatistics.add(new ExchangeRateChange(GBP, START, 0.8));
+        rollingStatistics.add(new ExchangeRateChange(GBP, START.plusMinutes(30), 0.7));
+        rollingStatistics.add(new ExchangeRateChange(GBP, START.plusMinutes(60), 0.9));
+
+        WindowStatistics hour = rollingStatistics.getStatistics(GBP, HOUR).get();
+        assertEquals(2, hour.getCount());
+        assertEquals(0.7, hour.getMin());
+        assertEquals(0.9, hour.getMax());
+        assertEquals(0.8, hour.getMean(), 1e-12);
+        assertEquals(Math.sqrt(0.02), hour.getStandardDeviation(), 1e-12);
+        assertEquals(START.plusMinutes(60), hour.getAsOf());
+
+        WindowStatistics day = rollingStatistics.getStatistics(GBP, DAY).get();
+        assertEquals(3, day.getCount());
+        assertEquals(0.8, day.getMean(), 1e-12);
+    }
+
+    @Test
+    void getStatisticsShouldMatchRecomputingFromHistory() {
+        Random random = new Random(21);
+        List<ExchangeRateChange> history = new ArrayList<>();
+        LocalDateTime timestamp = START;
+        for (int i = 0; i < 5000; i++) {
+            timestamp = timestamp.plusSeconds(random.nextInt(120));
+            ExchangeRateChange change = new ExchangeRateChange(EUR, timestamp, 0.8 + random.nextDouble() / 10);
+            history.add(change);
+            rollingStatistics.add(change);
+
+            if (i % 97 == 0) {
+                assertMatchesHistory(history, HOUR);
+                assertMatchesHistory(history, DAY);
+            }
+        }
+        assertMatchesHistory(history, HOUR);
+        assertMatchesHistory(history, DAY);
+    }
+
+    private void assertMatchesHistory(List<ExchangeRateChange> history, Duration window) {
+        LocalDateTime latest = history.get(history.size() - 1).getTimestamp();
+        LocalDateTime start = latest.minus(window);
+        double[] rates = history.stream()
+                .filter(change -> change.getTimestamp().isAfter(start))
+                .mapToDouble(ExchangeRateChange::getRateAgainstUSD)
+                .toArray();
+        double mean = Arrays.stream(rates).average().getAsDouble();
+        double squares = Arrays.stream(rates).map(rate -> (rate - mean) * (rate - mean)).sum();
+
+        WindowStatistics statistics = rollingStatistics.getStatistics(EUR, window).get();
+        assertEquals(rates.length, statistics.getCount());
+        assertEquals(Arrays.stream(rates).min().getAsDouble(), statistics.getMin());
+        assertEquals(Arrays.stream(rates).max().getAsDouble(), statistics.getMax());
+        assertEquals(mean, statistics.getMean(), 1e-9);
+        assertEquals(rates.length > 1 ? Math.sqrt(squares / (rates.length - 1)) : 0,
+                statistics.getStandardDeviation(), 1e-9);
+    }
+
+    @Test
+    void addShouldDropAndCountChangesOlderThanTheLongestWindow() {
+        rollingStatistics.add(new ExchangeRateChange(GBP, START, 0.8));
+        rollingStatistics.add(new ExchangeRateChange(GBP, START.minus(DAY), 0.1));
+        rollingStatistics.add(new ExchangeRateChange(EUR, START.minus(DAY), 0.9));
+
+        assertEquals(1, rollingStatistics.getLateChanges());
+        assertEquals(1, rollingStatistics.getStatistics(GBP, DAY).get().getCount());
+        assertEquals(0.8, rollingStatistics.getStatistics(GBP, DAY).get().getMin());
+    }
+
+    @Test
+    void addShouldSlotChangesOlderThanTheLatestIntoTheWindows() {
+        Random random = new Random(21);
+        List<ExchangeRateChange> history = new ArrayList<>();
+        LocalDateTime timestamp = START;
+        for (int i = 0; i < 500; i++) {
+            timestamp = timestamp.plusSeconds(random.nextInt(120));
+            history.add(new ExchangeRateChange(EUR, timestamp, 0.8 + random.nextDouble() / 10));
+        }
+        List<ExchangeRateChange> shuffled = new ArrayList<>(history);
+        Collections.shuffle(shuffled.subList(0, shuffled.size() - 1), random);
+        shuffled.forEach(rollingStatistics::add);
+        rollingStatistics.add(history.get(100));
+
+        assertEquals(0, rollingStatistics.getLateChanges());
+        assertMatchesHistory(history, HOUR);
+        assertMatchesHistory(history, DAY);
+    }
+
+    @Test
+    void addShouldIgnoreDuplicates() {
+        rollingStatistics.add(new ExchangeRateChange(GBP, START, 0.8));
+        rollingStatistics.add(new ExchangeRateChange(GBP, START, 0.7));
+        rollingStatistics.add(new ExchangeRateChange(GBP, START, 0.8));
+
+        assertEquals(2, rollingStatistics.getStatistics(GBP, HOUR).get().getCount());
+        assertEquals(0, rollingStatistics.getLateChanges());
+    }
+
+    @Test
+    void dataStoreShouldFeedRecordedChanges() {
+        RollingStatisticsDataStore dataStore = new RollingStatisticsDataStore(new ColumnarDataStore(),
+                rollingStatistics);
+        dataStore.recordAll(Arrays.asList(
+                new ExchangeRateChange(GBP, START.plusMinutes(10), 0.9),
+                new ExchangeRateChange(GBP, START, 0.7)));
+        dataStore.record(new ExchangeRateChange(GBP, START.plusMinutes(20), 0.8));
+
+        WindowStatistics hour = rollingStatistics.getStatistics(GBP, HOUR).get();
+        assertEquals(3, hour.getCount());
+        assertEquals(0.8, hour.getMean(), 1e-12);
+        assertEquals(0, rollingStatistics.getLateChanges());
+        assertEquals(3, dataStore.getExchangeRateChanges().size());
+    }
+
+    @Test
+    void dataStoreShouldKeepTheWindowsInStepWithInterleavedBatches() {
+        RollingStatisticsDataStore dataStore = new RollingStatisticsDataStore(new ColumnarDataStore(),
+                rollingStatistics);
+        dataStore.recordAll(Arrays.asList(
+                new ExchangeRateChange(GBP, START.plusMinutes(30), 0.9),
+                new ExchangeRateChange(GBP, START.plusMinutes(40), 0.6)));
+        dataStore.recordAll(Arrays.asList(
+                new ExchangeRateChange(GBP, START.plusMinutes(10), 0.7),
+                new ExchangeRateChange(GBP, START.plusMinutes(20), 0.8)));
+
+        WindowStatistics hour = rollingStatistics.getStatistics(GBP, HOUR).get();
+        assertEquals(dataStore.getExchangeRateChanges().size(), hour.getCount());
+        assertEquals(0.75, hour.getMean(), 1e-12);
+        assertEquals(0.6, hour.getMin());
+        assertEquals(0, rollingStatistics.getLateChanges());
+    }
+}
@@ -5,15 +5,32 @@ import org.junit.jupiter.api.Test;
 import swissre.model.CurrencyCode;
 import swissre.model.ExchangeRateChange;
 import swissre.model.FlaggedChange;
+import swissre.model.RateSummary;
+import swissre.notification.Flow;
+import swissre.persistence.Compactable;
 import swissre.persistence.DataStore;
 import swissre.persistence.SimpleDataStore;
+import swissre.persistence.StoreChanges;
 
+import java.time.Duration;
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
+import java.util.Random;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
 
+import static java.util.stream.Collectors.averagingDouble;
+import static java.util.stream.Collectors.groupingBy;
+import static java.util.stream.Collectors.toList;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 class SimpleDataStoreTest {
@@ -29,7 +46,11 @@ class SimpleDataStoreTest {
 
     @BeforeEach
     void setUp() {
-        this.datastore = new SimpleDataStore();
+        this.datastore = createDataStore();
+    }
+
+    DataStore createDataStore() {
+        return new SimpleDataStore();
     }
 
     @Test
@@ -51,6 +72,134 @@ class SimpleDataStoreTest {
         assertEquals(1, datastore.getExchangeRateChanges().size());
     }
 
+    @Test
+    void duplicatesShouldNeitherBeFlaggedNorAveraged() {
+        datastore.record(new ExchangeRateChange(GBP, YESTERDAY, 1.0));
+        datastore.record(new ExchangeRateChange(GBP, TODAY, 1.2));
+        datastore.record(new ExchangeRateChange(GBP, TODAY, 1.2));
+        datastore.record(new ExchangeRateChange(GBP, YESTERDAY, 1.0));
+
+        assertEquals(1, datastore.getFlaggedChanges().size());
+        assertEquals(1.1, datastore.getAveragesByYear(GBP).get(2018), 1e-12);
+    }
+
+    @Test
+    void recordAllShouldIgnoreDuplicatesWithinTheBatchAndAgainstRecordedChanges() {
+        datastore.record(new ExchangeRateChange(GBP, TODAY, 1.2));
+        datastore.recordAll(Arrays.asList(
+                new ExchangeRateChange(GBP, YESTERDAY, 1.0),
+                new ExchangeRateChange(GBP, YESTERDAY, 1.0),
+                new ExchangeRateChange(GBP, TODAY, 1.2)));
+
+        assertEquals(2, datastore.getExchangeRateChanges().size());
+        assertEquals(1, datastore.getFlaggedChanges().size());
+        assertEquals(1.1, datastore.getAveragesByYear(GBP).get(2018), 1e-12);
+    }
+
+    @Test
+    void recordShouldKeepDifferentRatesAtTheSameTimestamp() {
+        datastore.record(new ExchangeRateChange(GBP, TODAY, 1.2));
+        datastore.record(new ExchangeRateChange(GBP, TODAY, 1.3));
+
+        assertEquals(2, datastore.getExchangeRateChanges().size());
+        assertEquals(1.25, datastore.getAveragesByYear(GBP).get(2018), 1e-12);
+    }
+
+    @Test
+    void changesSinceShouldOnlyReportTheBucketsChanged() {
+        datastore.record(new ExchangeRateChange(GBP, TODAY, 1.2));
+        datastore.record(new ExchangeRateChange(CAD, TODAY.minusYears(1), 1.3));
+        StoreChanges everything = datastore.changesSince(0);
+        assertEquals(new HashSet<>(Arrays.asList(GBP, CAD)), everything.getCurrencies());
+        assertEquals(new HashSet<>(Arrays.asList(GBP, CAD)), datastore.getCurrencies());
+
+        datastore.record(new ExchangeRateChange(GBP, TODAY.plusMonths(1), 1.1));
+        datastore.record(new ExchangeRateChange(GBP, TODAY.plusMonths(1), 1.1));
+        StoreChanges changes = datastore.changesSince(everything.getVersion());
+
+        assertEquals(Collections.singleton(GBP), changes.getCurrencies());
+        assertEquals(Collections.singleton("2018_FEBRUARY"), changes.getMonths(GBP));
+        assertEquals(Collections.singleton(2018), changes.getYears(GBP));
+        assertTrue(datastore.changesSince(changes.getVersion()).isEmpty());
+    }
+
+    @Test
+    void shouldPublishChangesToSubscribersAsTheyAreFlagged() throws InterruptedException {
+        BlockingQueue<FlaggedChange> published = new LinkedBlockingQueue<>();
+        datastore.getFlaggedChangePublisher().subscribe(new Flow.Subscriber<FlaggedChange>() {
+            @Override
+            public void onSubscribe(Flow.Subscription subscription) {
+                subscription.request(Long.MAX_VALUE);
+            }
+
+            @Override
+            public void onNext(FlaggedChange item) {
+                published.add(item);
+            }
+
+            @Override
+            public void onError(Throwable throwable) {
+            }
+
+            @Override
+            public void onComplete() {
+            }
+        });
+        datastore.record(new ExchangeRateChange(GBP, YESTERDAY, 1.0));
+        datastore.record(new ExchangeRateChange(GBP, TODAY, 1.2));
+
+        assertEquals(datastore.getFlaggedChanges().get(0), published.poll(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void shouldOnlyRetainTheMostRecentFlags() {
+        DataStore retainingOne = new SimpleDataStore(1);
+        retainingOne.record(new ExchangeRateChange(GBP, YESTERDAY, 1.0));
+        retainingOne.record(new ExchangeRateChange(GBP, TODAY, 1.5));
+        ExchangeRateChange latest = new ExchangeRateChange(GBP, TODAY.plusDays(1), 1.0);
+        retainingOne.record(latest);
+
+        assertEquals(1, retainingOne.getFlaggedChanges().size());
+        assertEquals(latest, retainingOne.getFlaggedChanges().get(0).getNewerRateChange());
+        assertEquals(2, retainingOne.getFlaggedChangePublisher().getFlaggedCount());
+    }
+
+    @Test
+    void getRateAsOfShouldFindTheLastChangeRecordedAtOrBeforeTheTime() {
+        ExchangeRateChange first = new ExchangeRateChange(GBP, YESTERDAY, 1.0);
+        ExchangeRateChange second = new ExchangeRateChange(GBP, YESTERDAY, 1.1);
+        ExchangeRateChange today = new ExchangeRateChange(GBP, TODAY, 1.2);
+        datastore.record(today);
+        datastore.record(first);
+        datastore.record(second);
+        datastore.record(new ExchangeRateChange(CAD, YESTERDAY.minusDays(1), 1.3));
+
+        assertEquals(Optional.empty(), datastore.getRateAsOf(GBP, YESTERDAY.minusNanos(1)));
+        assertEquals(Optional.of(second), datastore.getRateAsOf(GBP, YESTERDAY));
+        assertEquals(Optional.of(second), datastore.getRateAsOf(GBP, TODAY.minusNanos(1)));
+        assertEquals(Optional.of(today), datastore.getRateAsOf(GBP, TODAY.plusYears(1)));
+        assertEquals(Optional.empty(), datastore.getRateAsOf(VES, TODAY));
+    }
+
+    @Test
+    void getExchangeRateChangesShouldReturnTheRangeInTimeOrder() {
+        ExchangeRateChange first = new ExchangeRateChange(GBP, YESTERDAY, 1.0);
+        ExchangeRateChange second = new ExchangeRateChange(GBP, YESTERDAY, 1.1);
+        ExchangeRateChange today = new ExchangeRateChange(GBP, TODAY, 1.2);
+        datastore.record(today);
+        datastore.record(first);
+        datastore.record(new ExchangeRateChange(GBP, TODAY.plusDays(1), 1.0));
+        datastore.record(second);
+        datastore.record(new ExchangeRateChange(CAD, TODAY, 1.3));
+
+        assertEquals(Arrays.asList(first, second, today),
+                datastore.getExchangeRateChanges(GBP, YESTERDAY, TODAY.plusDays(1)).collect(toList()));
+        assertEquals(Collections.singletonList(today),
+                datastore.getExchangeRateChanges(GBP, YESTERDAY.plusNanos(1), TODAY.plusNanos(1)).collect(toList()));
+        assertEquals(0, datastore.getExchangeRateChanges(GBP, TODAY, YESTERDAY).count());
+        assertEquals(0, datastore.getExchangeRateChanges(VES, YESTERDAY, TODAY).count());
+    }
+
     @Test
     void recordShouldFlagDayOnDayChangesOf20PercentOrMore() {
         ExchangeRateChange yesterdaysChange = new ExchangeRateChange(GBP, YESTERDAY, 1.0);
@@ -135,6 +284,20 @@ class SimpleDataStoreTest {
         assertEquals(20, flaggedChanges.get(1).getPercentageChange());
     }
 
+    @Test
+    void recordShouldOnlyCompareWithNearestChangesGivenOutOfOrderLoads() {
+        datastore.record(new ExchangeRateChange(GBP, TODAY.plusDays(2), 2.0));
+        datastore.record(new ExchangeRateChange(GBP, YESTERDAY, 1.0));
+        datastore.record(new ExchangeRateChange(GBP, TODAY.plusDays(1), 1.95));
+        datastore.record(new ExchangeRateChange(GBP, TODAY, 1.9));
+        List<FlaggedChange> flaggedChanges = datastore.getFlaggedChanges();
+
+        // yesterday against the day after tomorrow, tomorrow against yesterday and then today against yesterday.
+        assertEquals(3, flaggedChanges.size());
+        assertEquals(TODAY, flaggedChanges.get(2).getNewerRateChange().getTimestamp());
+        assertEquals(YESTERDAY, flaggedChanges.get(2).getOlderRateChange().getTimestamp());
+    }
+
     /**
      * These could be complicated depending on the definition of average. for the purpose of the 'simple' test
      * I will make it an average of the recorded entries. Obviously if a rate was 1.0 with a single recorded change
@@ -180,4 +343,130 @@ class SimpleDataStoreTest {
         assertEquals(1.0, gbpYearlyAverages.get(2018).doubleValue());
         assertEquals(2.0, gbpYearlyAverages.get(2019).doubleValue());
     }
-}
\ No newline at end of file
+
+    @Test
+    void averagesShouldMatchGroupingTheRecordedRatesInRecordedOrder() {
+        Random random = new Random(42);
+        List<ExchangeRateChange> recorded = new ArrayList<>();
+        for (int i = 0; i < 5000; i++) {
+            LocalDateTime timestamp = YESTERDAY.plusHours(random.nextInt(24 * 800));
+            ExchangeRateChange change = new ExchangeRateChange(GBP, timestamp, 0.5 + random.nextDouble());
+            recorded.add(change);
+            datastore.record(change);
+        }
+
+        assertEquals(recorded.stream().collect(groupingBy(
+                change -> change.getTimestamp().getYear() + "_" + change.getTimestamp().getMonth(),
+                averagingDouble(ExchangeRateChange::getRateAgainstUSD))),
+                datastore.getAveragesByMonth(GBP));
+        assertEquals(recorded.stream().collect(groupingBy(
+                change -> change.getTimestamp().getYear(),
+                averagingDouble(ExchangeRateChange::getRateAgainstUSD))),
+                datastore.getAveragesByYear(GBP));
+    }
+
+    @Test
+    void getSummariesByMonthShouldIncludeTheLowestAndHighestRates() {
+        datastore.record(new ExchangeRateChange(GBP, YESTERDAY, 1.0));
+        datastore.record(new ExchangeRateChange(GBP, TODAY, 3.0));
+        datastore.record(new ExchangeRateChange(GBP, TODAY.plusMinutes(1), 2.0));
+        datastore.record(new ExchangeRateChange(GBP, LocalDateTime.parse("2018-02-01T13:59:00"), 5.0));
+
+        Map<String, RateSummary> summaries = datastore.getSummariesByMonth(GBP);
+
+        assertEquals(new RateSummary(3, 2.0, 1.0, 3.0), summaries.get("2018_JANUARY"));
+        assertEquals(new RateSummary(1, 5.0, 5.0, 5.0), summaries.get("2018_FEBRUARY"));
+    }
+
+    @Test
+    void compactShouldEvictOldChangesAndKeepTheAverages() {
+        Random random = new Random(22);
+        for (int i = 0; i < 2000; i++) {
+            LocalDateTime timestamp = YESTERDAY.plusHours(random.nextInt(24 * 400));
+            datastore.record(new ExchangeRateChange(GBP, timestamp, 0.5 + random.nextDouble()));
+            datastore.record(new ExchangeRateChange(CAD, timestamp, 1.0 + random.nextDouble()));
+        }
+        Map<String, Double> monthlyAverages = datastore.getAveragesByMonth(GBP);
+        Map<Integer, Double> yearlyAverages = datastore.getAveragesByYear(CAD);
+        Map<String, RateSummary> summaries = datastore.getSummariesByMonth(GBP);
+        LocalDateTime horizon = LocalDateTime.parse("2018-07-01T00:00:00");
+        long before = datastore.getExchangeRateChanges().stream()
+                .filter(change -> change.getTimestamp().isBefore(horizon))
+                .count();
+        int held = datastore.getExchangeRateChanges().size();
+
+        assertEquals(before, ((Compactable) datastore).compact(horizon));
+
+        assertEquals(held - before, datastore.getExchangeRateChanges().size());
+        assertTrue(datastore.getExchangeRateChanges().stream().noneMatch(change -> change.getTimestamp().isBefore(horizon)));
+        assertEquals(Optional.of(horizon), ((Compactable) datastore).getCompactionWatermark());
+        assertEquals(monthlyAverages, datastore.getAveragesByMonth(GBP));
+        assertEquals(yearlyAverages, datastore.getAveragesByYear(CAD));
+        assertEquals(summaries, datastore.getSummariesByMonth(GBP));
+        assertEquals(new HashSet<>(Arrays.asList(GBP, CAD)), datastore.getCurrencies());
+        assertEquals(0, ((Compactable) datastore).compact(horizon.minusDays(1)));
+    }
+
+    @Test
+    void recordShouldFoldChangesBeforeTheCompactionWatermarkIntoTheAveragesOnce() {
+        datastore.record(new ExchangeRateChange(GBP, YESTERDAY, 1.0));
+        datastore.record(new ExchangeRateChange(GBP, TODAY, 1.0));
+        ((Compactable) datastore).compact(TODAY);
+
+        datastore.record(new ExchangeRateChange(GBP, YESTERDAY, 1.0));
+        datastore.recordAll(Arrays.asList(
+                new ExchangeRateChange(GBP, YESTERDAY.plusHours(1), 5.0),
+                new ExchangeRateChange(GBP, TODAY.plusHours(1), 1.0)));
+        datastore.record(new ExchangeRateChange(GBP, YESTERDAY.plusHours(1), 5.0));
+
+        assertEquals(2.0, datastore.getAveragesByMonth(GBP).get("2018_JANUARY"), 1e-12);
+        assertEquals(4, datastore.getSummariesByMonth(GBP).get("2018_JANUARY").getCount());
+        assertEquals(2, datastore.getExchangeRateChanges().size());
+        assertTrue(datastore.getFlaggedChanges().isEmpty());
+        assertFalse(datastore.getRateAsOf(GBP, YESTERDAY.plusHours(2)).isPresent());
+    }
+
+    @Test
+    void recordShouldRefuseChangesBeforeTheLateGracePeriod() {
+        datastore.record(new ExchangeRateChange(GBP, YESTERDAY, 1.0));
+        datastore.record(new ExchangeRateChange(GBP, TODAY, 1.0));
+        ((Compactable) datastore).compact(TODAY, Duration.ofHours(12));
+
+        datastore.record(new ExchangeRateChange(GBP, YESTERDAY.plusHours(1), 7.0));
+        datastore.record(new ExchangeRateChange(GBP, TODAY.minusHours(1), 1.0));
+        datastore.record(new ExchangeRateChange(GBP, TODAY.minusHours(1), 1.0));
+
+        assertEquals(1, ((Compactable) datastore).getChangesTooLate());
+        assertEquals(1.0, datastore.getAveragesByMonth(GBP).get("2018_JANUARY"), 1e-12);
+        assertEquals(3, datastore.getSummariesByMonth(GBP).get("2018_JANUARY").getCount());
+    }
+
+    @Test
+    void compactShouldKeepTheHeapFlatAsMoreChangesAreCompacted() {
+        int changesPerRound = 200_000;
+        LocalDateTime timestamp = YESTERDAY;
+        long[] usedHeap = new long[3];
+        for (int round = 0; round < usedHeap.length; round++) {
+            for (int i = 0; i < changesPerRound; i++) {
+                datastore.record(new ExchangeRateChange(GBP, timestamp, 1.0 + (i % 100) / 10_000.0));
+                timestamp = timestamp.plusMinutes(1);
+            }
+            ((Compactable) datastore).compact(timestamp, Duration.ofDays(1));
+            usedHeap[round] = usedHeapAfterGc();
+        }
+
+        // each change left in the heap would cost at least 8 bytes, so a flat heap grows by far less than 1 a change
+        long grown = usedHeap[2] - usedHeap[1];
+        assertTrue(grown < changesPerRound, "the heap grew by " + grown + " bytes");
+    }
+
+    private static long usedHeapAfterGc() {
+        Runtime runtime = Runtime.getRuntime();
+        long used = Long.MAX_VALUE;
+        for (int i = 0; i < 5; i++) {
+            System.gc();
+            used = Math.min(used, runtime.totalMemory() - runtime.freeMemory());
+        }
+        return used;
+    }
+}
@@ -0,0 +1,209 @@
+package swissre;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import swissre.model.CurrencyCode;
+import swissre.model.ExchangeRateChange;
+import swissre.persistence.*;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.nio.file.StandardOpenOption.WRITE;
+import static java.time.ZoneOffset.UTC;
+import static org.junit.jupiter.api.Assertions.*;
+
+class SnapshotDataStoreTest {
+
+    private static final CurrencyCode GBP = CurrencyCode.valueOf("GBP");
+    private static final CurrencyCode CHF = CurrencyCode.valueOf("CHF");
+    private static final CurrencyCode JPY = CurrencyCode.valueOf("JPY");
+    private static final LocalDateTime TODAY = LocalDateTime.parse("2018-01-02T13:59:00");
+
+    private Path snapshot;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        snapshot = Files.createTempFile("exchange-rates", ".snapshot");
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        Files.deleteIfExists(snapshot);
+    }
+
+    private static void recordHistory(DataStore dataStore) {
+        dataStore.record(new ExchangeRateChange(GBP, TODAY, 1.0));
+        dataStore.record(new ExchangeRateChange(GBP, TODAY.minusDays(1), 1.5));
+        dataStore.record(new ExchangeRateChange(GBP, TODAY.plusDays(40), 1.1));
+        dataStore.record(new ExchangeRateChange(GBP, TODAY.plusYears(1), 0.3));
+        dataStore.record(new ExchangeRateChange(CHF, TODAY.plusNanos(5), 0.98));
+        dataStore.record(new ExchangeRateChange(CHF, TODAY.plusNanos(5), 0.99));
+    }
+
+    @Test
+    void shouldServeAveragesFromTheSnapshotWithoutMaterialisingIt() throws IOException {
+        ColumnarDataStore original = new ColumnarDataStore();
+        recordHistory(original);
+        original.writeSnapshot(snapshot);
+
+        SnapshotDataStore restored = SnapshotDataStore.open(snapshot);
+
+        assertEquals(original.getAveragesByMonth(GBP), restored.getAveragesByMonth(GBP));
+        assertEquals(original.getAveragesByYear(CHF), restored.getAveragesByYear(CHF));
+        assertTrue(restored.getAveragesByMonth(JPY).isEmpty());
+        assertEquals(original.getCurrencies(), restored.getCurrencies());
+        assertEquals(original.changesSince(0).getMonths(GBP), restored.changesSince(0).getMonths(GBP));
+        assertTrue(restored.changesSince(restored.getVersion()).isEmpty());
+        assertFalse(restored.isMaterialised());
+
+        assertEquals(original.getExchangeRateChanges(), restored.getExchangeRateChanges());
+        assertEquals(original.getFlaggedChanges(), restored.getFlaggedChanges());
+        assertTrue(restored.isMaterialised());
+    }
+
+    @Test
+    void shouldCarryOnRecordingExactlyWhereTheSnapshotLeftOff() throws IOException {
+        ColumnarDataStore original = new ColumnarDataStore();
+        recordHistory(original);
+        original.writeSnapshot(snapshot);
+        SnapshotDataStore restored = SnapshotDataStore.open(snapshot);
+
+        for (DataStore dataStore : Arrays.asList(original, restored)) {
+            dataStore.record(new ExchangeRateChange(GBP, TODAY.minusHours(1), 2.0));
+            dataStore.recordAll(Arrays.asList(
+                    new ExchangeRateChange(CHF, TODAY.plusDays(3), 0.7),
+                    new ExchangeRateChange(JPY, TODAY, 112.0)));
+        }
+
+        assertEquals(original.getExchangeRateChanges(), restored.getExchangeRateChanges());
+        assertEquals(original.getFlaggedChanges(), restored.getFlaggedChanges());
+        assertEquals(original.getAveragesByMonth(GBP), restored.getAveragesByMonth(GBP));
+        assertEquals(original.getAveragesByYear(JPY), restored.getAveragesByYear(JPY));
+    }
+
+    @Test
+    void shouldMaterialiseInTheBackgroundFromConcurrentSnapshots() throws Exception {
+        ConcurrentDataStore original = new ConcurrentDataStore();
+        recordHistory(original);
+        try (SnapshotScheduler scheduler = SnapshotScheduler.start(original, snapshot, 10, TimeUnit.MILLISECONDS)) {
+            while (Files.size(snapshot) == 0) {
+                Thread.sleep(10);
+            }
+            assertNull(scheduler.getLastFailure());
+        }
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            SnapshotDataStore restored = SnapshotDataStore.open(snapshot, executor);
+            assertEquals(original.getAveragesByMonth(CHF), restored.getAveragesByMonth(CHF));
+            assertEquals(original.getExchangeRateChanges(), restored.getExchangeRateChanges());
+            assertEquals(original.getFlaggedChanges(), restored.getFlaggedChanges());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    void shouldKeepSnapshottingAfterFailure() throws Exception {
+        AtomicInteger attempts = new AtomicInteger();
+        Snapshottable failing = path -> {
+            attempts.incrementAndGet();
+            throw new IllegalStateException("no snapshot for you");
+        };
+        try (SnapshotScheduler scheduler = SnapshotScheduler.start(failing, snapshot, 10, TimeUnit.MILLISECONDS)) {
+            while (attempts.get() < 3) {
+                Thread.sleep(10);
+            }
+            assertTrue(scheduler.getLastFailure() instanceof IllegalStateException);
+        }
+    }
+
+    @Test
+    void shouldRejectTruncatedSnapshot() throws IOException {
+        ColumnarDataStore original = new ColumnarDataStore();
+        recordHistory(original);
+        original.writeSnapshot(snapshot);
+        try (FileChannel channel = FileChannel.open(snapshot, WRITE)) {
+            channel.truncate(channel.size() - 10);
+        }
+
+        assertThrows(IOException.class, () -> SnapshotDataStore.open(snapshot));
+    }
+
+    @Test
+    void shouldRejectFileWhichIsNotSnapshot() throws IOException {
+        Files.write(snapshot, "Date: 10/14/2018".getBytes());
+
+        assertThrows(IOException.class, () -> SnapshotDataStore.open(snapshot));
+    }
+
+    @Test
+    void shouldKeepCompactingAfterFailure() throws Exception {
+        AtomicInteger attempts = new AtomicInteger();
+        Compactable failing = new Compactable() {
+            @Override
+            public long compact(LocalDateTime horizon, Duration lateGrace) {
+                attempts.incrementAndGet();
+                throw new IllegalStateException("no compaction for you");
+            }
+
+            @Override
+            public long getChangesTooLate() {
+                return 0;
+            }
+
+            @Override
+            public Optional<LocalDateTime> getCompactionWatermark() {
+                return Optional.empty();
+            }
+        };
+        try (CompactionScheduler scheduler = CompactionScheduler.start(failing, Duration.ofDays(1), 10,
+                TimeUnit.MILLISECONDS)) {
+            while (attempts.get() < 3) {
+                Thread.sleep(10);
+            }
+            assertTrue(scheduler.getLastFailure() instanceof IllegalStateException);
+        }
+    }
+
+    @Test
+    void shouldKeepTheCompactionWatermarkAndSummaries() throws Exception {
+        ConcurrentDataStore original = new ConcurrentDataStore();
+        recordHistory(original);
+        Clock clock = Clock.fixed(TODAY.plusDays(40).toInstant(UTC), UTC);
+        try (CompactionScheduler scheduler = CompactionScheduler.start(original, Duration.ofDays(39), clock,
+                10, TimeUnit.MILLISECONDS)) {
+            while (scheduler.getEvicted() == 0) {
+                Thread.sleep(10);
+            }
+            assertEquals(4, scheduler.getEvicted());
+        }
+        original.writeSnapshot(snapshot);
+
+        SnapshotDataStore restored = SnapshotDataStore.open(snapshot);
+
+        assertEquals(original.getSummariesByMonth(GBP), restored.getSummariesByMonth(GBP));
+        assertFalse(restored.isMaterialised());
+        assertEquals(Optional.of(TODAY.plusDays(1)), restored.getCompactionWatermark());
+        assertEquals(original.getExchangeRateChanges(), restored.getExchangeRateChanges());
+
+        original.record(new ExchangeRateChange(GBP, TODAY, 3.0));
+        restored.record(new ExchangeRateChange(GBP, TODAY, 3.0));
+        restored.record(new ExchangeRateChange(GBP, TODAY, 1.0));
+        assertEquals(original.getAveragesByMonth(GBP), restored.getAveragesByMonth(GBP));
+        assertEquals(original.getSummariesByMonth(GBP), restored.getSummariesByMonth(GBP));
+    }
+}
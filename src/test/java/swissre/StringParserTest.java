@@ -6,11 +6,16 @@ import swissre.model.CurrencyCode;
 import swissre.model.ExchangeRateChange;
 import swissre.model.FlaggedChange;
 import swissre.parser.InvalidExchangeRateFileException;
+import swissre.parser.ParseMode;
 import swissre.parser.Parser;
+import swissre.parser.QuarantineReport;
+import swissre.parser.QuarantinedLine;
 import swissre.parser.StringParser;
 import swissre.persistence.DataStore;
+import swissre.persistence.FlaggedChangePublisher;
 
 import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
 import java.util.*;
 
 import static org.junit.jupiter.api.Assertions.*;
@@ -52,6 +57,11 @@ class StringParserTest {
             public Map<Integer, Double> getAveragesByYear(CurrencyCode currencyCode) {
                 return null;//ignored
             }
+
+            @Override
+            public FlaggedChangePublisher getFlaggedChangePublisher() {
+                return null;//ignored
+            }
         };
         this.stringParser = new StringParser(dataStoreStub);
     }
@@ -64,10 +74,6 @@ class StringParserTest {
         assertEquals("Expected 'START-OF-FILE' on line 1, found 'invalid value'", message);
     }
 
-    /**
-     * For the purpose of the exercise I am assuming that the field list wouldn't change order, nor would fields
-     * be added or removed.
-     */
     @Test
     void shouldReceiveFileGivenTrailingAdditionalParameters() throws InvalidExchangeRateFileException {
         stringParser.receiveFile("START-OF-FILE\n" +
@@ -86,6 +92,62 @@ class StringParserTest {
         assertEquals(1, dataStoreStub.getExchangeRateChanges().size());
     }
 
+    @Test
+    void shouldReceiveFileGivenReorderedAndAdditionalFields() throws InvalidExchangeRateFileException {
+        stringParser.receiveFile("START-OF-FILE\n" +
+                "DATE=20181015\n" +
+                "START-OF-FIELD-LIST\n" +
+                "LAST_UPDATE\n" +
+                "BID\n" +
+                "CURRENCY\n" +
+                "ASK\n" +
+                "EXCHANGE_RATE\n" +
+                "SOURCE\n" +
+                "END-OF-FIELD-LIST\n" +
+                "START-OF-EXCHANGE-RATES\n" +
+                "17:12:59 10/14/2018|0.9830|CHF|0.9834|0.9832|vendor|\n" +
+                "17:12:59 10/14/2018||GBP||0.7849||\n" +
+                "END-OF-EXCHANGE-RATES\n" +
+                "END-OF-FILE");
+
+        assertEquals(new HashSet<>(Arrays.asList(
+                new ExchangeRateChange("CHF", LocalDateTime.parse("2018-10-14T17:12:59"), 0.9832),
+                new ExchangeRateChange("GBP", LocalDateTime.parse("2018-10-14T17:12:59"), 0.7849))),
+                dataStoreStub.getExchangeRateChanges());
+    }
+
+    @Test
+    void shouldFailToReceiveGivenFieldListWithoutNeededField() {
+        InvalidExchangeRateFileException exception = callReceiveAndCaptureException("START-OF-FILE\n" +
+                "START-OF-FIELD-LIST\n" +
+                "CURRENCY\n" +
+                "BID\n" +
+                "LAST_UPDATE\n" +
+                "END-OF-FIELD-LIST\n" +
+                "START-OF-EXCHANGE-RATES\n" +
+                "END-OF-EXCHANGE-RATES\n" +
+                "END-OF-FILE");
+        assertEquals("Field list on line 2 is missing EXCHANGE_RATE", exception.getMessage());
+    }
+
+    @Test
+    void shouldFailToReceiveGivenLineWithoutDeclaredFields() {
+        String shortLine = "CHF|0.9832|17:12:59 10/14/2018|";
+        InvalidExchangeRateFileException exception = callReceiveAndCaptureException("START-OF-FILE\n" +
+                "START-OF-FIELD-LIST\n" +
+                "BID\n" +
+                "CURRENCY\n" +
+                "EXCHANGE_RATE\n" +
+                "LAST_UPDATE\n" +
+                "END-OF-FIELD-LIST\n" +
+                "START-OF-EXCHANGE-RATES\n" +
+                shortLine + "\n" +
+                "END-OF-EXCHANGE-RATES\n" +
+                "END-OF-FILE");
+        assertEquals("Unexpected exchange rate format found unable to parse '" + shortLine + "' on line 9",
+                exception.getMessage());
+    }
+
     @Test
     void shouldReceiveFileGivenBlankLinesInFile() throws InvalidExchangeRateFileException {
         stringParser.receiveFile("\nSTART-OF-FILE\n\n" +
@@ -122,6 +184,23 @@ class StringParserTest {
         assertEquals(1, dataStoreStub.getExchangeRateChanges().size());
     }
 
+    @Test
+    void shouldReceiveFileGivenWindowsStyleLineEndingsWithoutAFinalNewline() throws InvalidExchangeRateFileException {
+        stringParser.receiveFile("START-OF-FILE\r\n" +
+                "DATE=20181015\r\n" +
+                "START-OF-FIELD-LIST\r\n" +
+                "CURRENCY\r\n" +
+                "EXCHANGE_RATE\r\n" +
+                "LAST_UPDATE\r\n" +
+                "END-OF-FIELD-LIST\r\n" +
+                "START-OF-EXCHANGE-RATES\r\n" +
+                "CHF|0.9832|17:12:59 10/14/2018|\r\n" +
+                "END-OF-EXCHANGE-RATES\r\n" +
+                "END-OF-FILE\r");
+
+        assertEquals(1, dataStoreStub.getExchangeRateChanges().size());
+    }
+
     @SuppressWarnings("unchecked")
     @Test
     void shouldReceiveFileGivenManyRateChanges() throws InvalidExchangeRateFileException {
@@ -185,6 +264,116 @@ class StringParserTest {
         assertEquals("Unexpected end of file", message);
     }
 
+    @Test
+    void shouldFailToReceiveGivenMalformedExchangeRates() {
+        String[] malformedLines = {
+                "CHF|0.9832|17:12:59 10/14/2018|extra|",
+                "CHF|0.9832|",
+                "CHF|not a rate|17:12:59 10/14/2018|",
+                "CHF||17:12:59 10/14/2018|",
+                "CHF|0.9832|17:12 10/14/2018|",
+                "CHF|0.9832|17:12:59 10/4/2018|",
+                "CHF|0.9832|17:60:59 10/14/2018|",
+                "CHF|0.9832|25:12:59 10/14/2018|",
+                "CHF|0.9832|17:12:59 13/14/2018|",
+                "CHF|0.9832|17:12:59 10/32/2018|",
+                "CHF|0.9832|17:12:59 10/14/18|",
+                "CHF|0.9832|17:12:59 10/14/2018 |",
+        };
+        for (String malformedLine : malformedLines) {
+            InvalidExchangeRateFileException exception = callReceiveAndCaptureException("START-OF-FILE\n" +
+                    "START-OF-EXCHANGE-RATES\n" +
+                    malformedLine + "\n" +
+                    "END-OF-EXCHANGE-RATES\n" +
+                    "END-OF-FILE");
+            assertEquals("Unexpected exchange rate format found unable to parse '" + malformedLine + "' on line 3",
+                    exception.getMessage());
+        }
+    }
+
+    @Test
+    void shouldQuarantineMalformedExchangeRatesGivenLenientMode() {
+        StringParser lenientParser = new StringParser(dataStoreStub, ParseMode.LENIENT);
+
+        lenientParser.receiveFile("START-OF-FILE\n" +
+                "START-OF-EXCHANGE-RATES\n" +
+                "CHF|0.9832|17:12:59 10/14/2018|\n" +
+                "CHF|not a rate|17:12:59 10/14/2018|\n" +
+                "\n" +
+                "GBP|0.7849|17:12:59 10/14/2018|\n" +
+                "GBP|0.7849|\n" +
+                "gbp|0.7849|17:12:59 10/14/2018|\n" +
+                "GBP|0.7849|17:12:59 13/14/2018|\n" +
+                "GBP|0.7849|17:12:59 10/14/2018|oops\n" +
+                "END-OF-EXCHANGE-RATES\n" +
+                "END-OF-FILE");
+
+        assertEquals(2, dataStoreStub.getExchangeRateChanges().size());
+        QuarantineReport report = lenientParser.getQuarantineReport();
+        assertEquals(Arrays.asList(
+                new QuarantinedLine(4, "CHF|not a rate|17:12:59 10/14/2018|", "Invalid EXCHANGE_RATE"),
+                new QuarantinedLine(7, "GBP|0.7849|", "Missing LAST_UPDATE"),
+                new QuarantinedLine(8, "gbp|0.7849|17:12:59 10/14/2018|", "Invalid CURRENCY"),
+                new QuarantinedLine(9, "GBP|0.7849|17:12:59 13/14/2018|", "Invalid LAST_UPDATE"),
+                new QuarantinedLine(10, "GBP|0.7849|17:12:59 10/14/2018|oops", "Unexpected data after LAST_UPDATE")),
+                report.getLines());
+        assertEquals(5, report.getCount());
+    }
+
+    @Test
+    void shouldStillRejectBrokenStructureGivenLenientMode() {
+        StringParser lenientParser = new StringParser(dataStoreStub, ParseMode.LENIENT);
+
+        assertThrows(InvalidExchangeRateFileException.class, () -> lenientParser.receiveFile("START-OF-FILE\n" +
+                "START-OF-EXCHANGE-RATES\n" +
+                "CHF|0.9832|17:12:59 10/14/2018|\n" +
+                "END-OF-FILE"));
+    }
+
+    @Test
+    void shouldRecordNothingGivenTransactionalModeAndMalformedExchangeRates() {
+        StringParser transactionalParser = new StringParser(dataStoreStub, ParseMode.TRANSACTIONAL);
+
+        assertThrows(InvalidExchangeRateFileException.class, () -> transactionalParser.receiveFile("START-OF-FILE\n" +
+                "START-OF-EXCHANGE-RATES\n" +
+                "CHF|0.9832|17:12:59 10/14/2018|\n" +
+                "CHF|0.9832|\n" +
+                "END-OF-EXCHANGE-RATES\n" +
+                "END-OF-FILE"));
+        assertThrows(InvalidExchangeRateFileException.class, () -> transactionalParser.receiveFile("START-OF-FILE\n" +
+                "START-OF-EXCHANGE-RATES\n" +
+                "CHF|0.9832|17:12:59 10/14/2018|\n" +
+                "END-OF-EXCHANGE-RATES\n"));
+        assertTrue(dataStoreStub.getExchangeRateChanges().isEmpty());
+
+        transactionalParser.receiveFile("START-OF-FILE\n" +
+                "START-OF-EXCHANGE-RATES\n" +
+                "CHF|0.9832|17:12:59 10/14/2018|\n" +
+                "GBP|0.7849|17:12:59 10/14/2018|\n" +
+                "END-OF-EXCHANGE-RATES\n" +
+                "END-OF-FILE");
+        assertEquals(2, dataStoreStub.getExchangeRateChanges().size());
+    }
+
+    @Test
+    void shouldParseRatesAndTimestampsExactlyAsTheJdkWould() {
+        DateTimeFormatter format = DateTimeFormatter.ofPattern("HH:mm:ss MM/dd/yyyy");
+        Random random = new Random(11);
+        StringBuilder file = new StringBuilder("START-OF-FILE\nSTART-OF-EXCHANGE-RATES\n");
+        Set<ExchangeRateChange> expected = new HashSet<>();
+        for (int i = 0; i < 2000; i++) {
+            LocalDateTime timestamp = LocalDateTime.parse("1999-01-01T00:00:00").plusSeconds(random.nextInt(Integer.MAX_VALUE));
+            String rate = random.nextInt(100000) + "." + random.nextInt(1000000000);
+            file.append("GBP|").append(rate).append('|').append(format.format(timestamp)).append("|\n");
+            expected.add(new ExchangeRateChange("GBP", timestamp, Double.parseDouble(rate)));
+        }
+        file.append("END-OF-EXCHANGE-RATES\nEND-OF-FILE");
+
+        stringParser.receiveFile(file.toString());
+
+        assertEquals(expected, dataStoreStub.getExchangeRateChanges());
+    }
+
     private InvalidExchangeRateFileException callReceiveAndCaptureException(String file) {
         return assertThrows(InvalidExchangeRateFileException.class, () -> stringParser.receiveFile(file));
     }